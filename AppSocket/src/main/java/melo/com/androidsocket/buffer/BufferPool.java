@@ -0,0 +1,304 @@
+package melo.com.androidsocket.buffer;
+
+import android.util.Log;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接内存缓冲区池，TCP 的读写缓冲区都从这里分配，内核可以直接读写，不必先拷贝到临时的本地内存。
+ * <p>
+ * 容量按 2 的幂分为 MIN_CHUNK_SIZE 到 MAX_CHUNK_SIZE 若干规格。每种规格一次申请 SLAB_SIZE 的直接内存，
+ * 切成等长的小块循环使用。空闲的小块后进先出，刚归还的还在 CPU 缓存中，借还过程不产生新对象。
+ * 申请的直接内存总量不超过 maxPooledBytes，单一规格不超过 maxBytesPerSizeClass。slab 申请后不再归还，
+ * 单一规格的上限保证某种大小的突发分配不会占满预算，让其他规格此后一直退回堆内缓冲区。
+ * 超过最大规格、池已用满或该规格已达上限时退回堆内缓冲区，交给 GC 回收。
+ * <p>
+ * 泄漏检测会记录每次分配的调用栈，未 release 就被 GC 回收的缓冲区在下一次分配时打印出来，开销较大，只建议在调试版本中开启。
+ */
+public class BufferPool {
+
+    private static final String TAG = "BufferPool";
+
+    public static final int MIN_CHUNK_SIZE = 512;
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 4 * 1024 * 1024;
+    // 每次申请的直接内存大小，最大规格也能切出 4 块
+    private static final int SLAB_SIZE = 256 * 1024;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+
+    private static volatile BufferPool defaultPool = null;
+
+    private final long maxPooledBytes;
+    private final long maxBytesPerSizeClass;
+    private final SizeClass[] sizeClasses;
+    // 已申请的直接内存字节数
+    private final AtomicLong pooledBytes = new AtomicLong();
+    // 借出未归还的池中缓冲区数
+    private final AtomicInteger usedCount = new AtomicInteger();
+    // 退回堆内缓冲区的次数
+    private final AtomicLong unpooledCount = new AtomicLong();
+
+    private volatile boolean leakDetection = false;
+    private final ReferenceQueue<PooledBuffer> leakQueue = new ReferenceQueue<>();
+    // 持有 LeakTracker 本身，否则它会先于缓冲区被回收
+    private final Set<LeakTracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+    private final AtomicLong leakCount = new AtomicLong();
+
+    /**
+     * 单一规格最多占用一半预算
+     *
+     * @param maxPooledBytes 最多申请的直接内存字节数
+     */
+    public BufferPool(long maxPooledBytes) {
+        this(maxPooledBytes, Math.max(SLAB_SIZE, maxPooledBytes / 2));
+    }
+
+    /**
+     * @param maxPooledBytes       最多申请的直接内存字节数
+     * @param maxBytesPerSizeClass 单一规格最多申请的直接内存字节数
+     */
+    public BufferPool(long maxPooledBytes, long maxBytesPerSizeClass) {
+        if (maxPooledBytes < SLAB_SIZE || maxBytesPerSizeClass < SLAB_SIZE || maxBytesPerSizeClass > maxPooledBytes) {
+            throw new IllegalArgumentException("maxPooledBytes and maxBytesPerSizeClass must be at least " + SLAB_SIZE
+                    + " and maxBytesPerSizeClass must not exceed maxPooledBytes");
+        }
+        this.maxPooledBytes = maxPooledBytes;
+        this.maxBytesPerSizeClass = maxBytesPerSizeClass;
+        int count = Integer.numberOfTrailingZeros(MAX_CHUNK_SIZE) - MIN_SHIFT + 1;
+        sizeClasses = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            sizeClasses[i] = new SizeClass(i, MIN_CHUNK_SIZE << i);
+        }
+    }
+
+    /**
+     * 获取进程内共享的池，默认最多 DEFAULT_MAX_POOLED_BYTES 字节的直接内存
+     */
+    public static BufferPool getDefault() {
+        if (defaultPool == null) {
+            synchronized (BufferPool.class) {
+                if (defaultPool == null) {
+                    defaultPool = new BufferPool(DEFAULT_MAX_POOLED_BYTES);
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    /**
+     * 替换共享的池，只影响之后创建的 socket
+     */
+    public static void setDefault(BufferPool pool) {
+        synchronized (BufferPool.class) {
+            defaultPool = pool;
+        }
+    }
+
+    /**
+     * 开启或关闭泄漏检测，例如 setLeakDetection(BuildConfig.DEBUG)，只对之后分配的缓冲区生效
+     */
+    public void setLeakDetection(boolean enabled) {
+        this.leakDetection = enabled;
+    }
+
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * 分配一个缓冲区，用完后必须 release
+     *
+     * @param capacity 需要的字节数
+     */
+    public PooledBuffer allocate(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        }
+        boolean detect = leakDetection;
+        if (detect) {
+            reportLeaks();
+        }
+        int index = sizeClassOf(capacity);
+        PooledBuffer buffer = index < 0 ? null : sizeClasses[index].poll();
+        if (buffer == null) {
+            unpooledCount.incrementAndGet();
+            return PooledBuffer.wrap(ByteBuffer.allocate(capacity));
+        }
+        buffer.reset(capacity);
+        usedCount.incrementAndGet();
+        if (detect) {
+            LeakTracker tracker = new LeakTracker(buffer, leakQueue);
+            trackers.add(tracker);
+            buffer.leak = tracker;
+        }
+        return buffer;
+    }
+
+    void recycle(PooledBuffer buffer) {
+        LeakTracker tracker = buffer.leak;
+        if (tracker != null) {
+            buffer.leak = null;
+            trackers.remove(tracker);
+            tracker.clear();
+        }
+        usedCount.decrementAndGet();
+        sizeClasses[buffer.sizeClass()].push(buffer);
+    }
+
+    /**
+     * @return 已申请的直接内存字节数
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return 借出未归还的池中缓冲区数
+     */
+    public int getUsedCount() {
+        return usedCount.get();
+    }
+
+    /**
+     * @return 因超过最大规格、池已用满或规格已达上限而分配堆内缓冲区的次数
+     */
+    public long getUnpooledCount() {
+        return unpooledCount.get();
+    }
+
+    /**
+     * @return 泄漏检测发现的未 release 就被回收的缓冲区数
+     */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * @return 容量所在的规格，超过最大规格时返回 -1
+     */
+    private static int sizeClassOf(int capacity) {
+        if (capacity > MAX_CHUNK_SIZE) {
+            return -1;
+        }
+        if (capacity <= MIN_CHUNK_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    private void reportLeaks() {
+        LeakTracker tracker;
+        while ((tracker = (LeakTracker) leakQueue.poll()) != null) {
+            // 已经 release 的不算泄漏
+            if (trackers.remove(tracker)) {
+                leakCount.incrementAndGet();
+                Log.e(TAG, "缓冲区未 release 就被回收，分配位置：", tracker.allocation);
+            }
+        }
+    }
+
+    /**
+     * 按预算申请一整块 SLAB_SIZE，超出 maxPooledBytes 时返回 false
+     */
+    private boolean reserveSlab() {
+        while (true) {
+            long current = pooledBytes.get();
+            if (current + SLAB_SIZE > maxPooledBytes) {
+                return false;
+            }
+            if (pooledBytes.compareAndSet(current, current + SLAB_SIZE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 同一规格的空闲缓冲区，不够时再切一块 slab，最多 maxSlabs 块
+     */
+    private final class SizeClass {
+        final int index;
+        final int chunkSize;
+        private final int maxSlabs;
+        // 作为栈使用，在 this 上同步；初始容量足以放下上限内这一规格的所有小块，不会扩容
+        private final ArrayDeque<PooledBuffer> free;
+        // 已申请和正在申请的 slab 数，在 this 上同步
+        private int slabs;
+
+        SizeClass(int index, int chunkSize) {
+            this.index = index;
+            this.chunkSize = chunkSize;
+            this.maxSlabs = (int) (maxBytesPerSizeClass / SLAB_SIZE);
+            this.free = new ArrayDeque<>(maxSlabs * (SLAB_SIZE / chunkSize));
+        }
+
+        PooledBuffer poll() {
+            synchronized (this) {
+                PooledBuffer buffer = free.pollFirst();
+                if (buffer != null) {
+                    return buffer;
+                }
+                if (slabs >= maxSlabs) {
+                    return null;
+                }
+                slabs++;
+            }
+            PooledBuffer buffer = reserveSlab() ? grow() : null;
+            if (buffer == null) {
+                synchronized (this) {
+                    slabs--;
+                }
+            }
+            return buffer;
+        }
+
+        synchronized void push(PooledBuffer buffer) {
+            free.addFirst(buffer);
+        }
+
+        /**
+         * @return 新 slab 的第一块，其余放入空闲队列；直接内存不足时返回 null
+         */
+        private PooledBuffer grow() {
+            ByteBuffer slab;
+            try {
+                slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+            } catch (OutOfMemoryError e) {
+                pooledBytes.addAndGet(-SLAB_SIZE);
+                Log.w(TAG, "直接内存不足，退回堆内缓冲区");
+                return null;
+            }
+            PooledBuffer first = null;
+            for (int offset = 0; offset < SLAB_SIZE; offset += chunkSize) {
+                slab.limit(offset + chunkSize).position(offset);
+                PooledBuffer buffer = new PooledBuffer(BufferPool.this, index, slab.slice());
+                if (first == null) {
+                    first = buffer;
+                } else {
+                    push(buffer);
+                }
+            }
+            Log.d(TAG, "新增 " + (SLAB_SIZE / chunkSize) + " 个 " + chunkSize + " 字节的缓冲区");
+            return first;
+        }
+    }
+
+    /**
+     * 缓冲区对象被回收时进入 leakQueue，此时仍在 trackers 中说明没有 release
+     */
+    static final class LeakTracker extends WeakReference<PooledBuffer> {
+        final Throwable allocation;
+
+        LeakTracker(PooledBuffer buffer, ReferenceQueue<PooledBuffer> queue) {
+            super(buffer, queue);
+            this.allocation = new Throwable("allocate");
+        }
+    }
+}
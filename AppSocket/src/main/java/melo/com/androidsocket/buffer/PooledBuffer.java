@@ -0,0 +1,108 @@
+package melo.com.androidsocket.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 由 BufferPool 分配的缓冲区，按引用计数管理。
+ * <p>
+ * 分配时引用计数为 1，交给另一个持有者之前 retain，每个持有者用完后 release，
+ * 最后一次 release 时归还到池中，之后不能再访问 buffer() 返回的对象。
+ * 缓冲区对象本身也会被复用，不要保留已经 release 的引用。
+ */
+public final class PooledBuffer {
+
+    // 为 null 时不属于任何池，见 wrap
+    private final BufferPool pool;
+    private final int sizeClass;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCnt = new AtomicInteger();
+    // 开启泄漏检测时记录分配位置，release 时清除
+    volatile BufferPool.LeakTracker leak;
+
+    PooledBuffer(BufferPool pool, int sizeClass, ByteBuffer buffer) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 包装不属于池的缓冲区，使其可以和池中的缓冲区走同样的流程，release 后交给 GC
+     *
+     * @param buffer 保持原来的 position 和 limit
+     */
+    public static PooledBuffer wrap(ByteBuffer buffer) {
+        PooledBuffer wrapped = new PooledBuffer(null, -1, buffer);
+        wrapped.refCnt.set(1);
+        return wrapped;
+    }
+
+    /**
+     * 从池中取出时调用，position 为 0，limit 为申请的容量
+     */
+    void reset(int capacity) {
+        buffer.clear();
+        buffer.limit(capacity);
+        refCnt.set(1);
+    }
+
+    /**
+     * @return 池中分配的处于写模式，position 为 0、limit 为申请的容量；capacity 是所在规格的大小，可能更大
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return 是否是直接内存。池已用满或申请的容量超过最大规格时会退回堆内缓冲区
+     */
+    public boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+
+    /**
+     * 引用计数加一
+     *
+     * @throws IllegalStateException 已经释放
+     */
+    public PooledBuffer retain() {
+        while (true) {
+            int count = refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException("缓冲区已释放");
+            }
+            if (refCnt.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 引用计数减一，归零时归还到池中
+     *
+     * @return 是否已归还
+     * @throws IllegalStateException 重复释放
+     */
+    public boolean release() {
+        int count = refCnt.decrementAndGet();
+        if (count > 0) {
+            return false;
+        }
+        if (count < 0) {
+            refCnt.incrementAndGet();
+            throw new IllegalStateException("缓冲区重复释放");
+        }
+        if (pool != null) {
+            pool.recycle(this);
+        }
+        return true;
+    }
+}
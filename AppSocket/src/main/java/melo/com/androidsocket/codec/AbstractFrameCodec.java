@@ -0,0 +1,107 @@
+package melo.com.androidsocket.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 管理半包拼接缓冲区，缓冲区按需扩容并在连接内复用。
+ * <p>
+ * 读到的数据恰好包含完整帧时直接切片回调，不做拷贝。编码时可以直接写入调用方提供的缓冲区。
+ */
+public abstract class AbstractFrameCodec implements FrameCodec {
+
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+
+    private static final int INITIAL_CUMULATION_SIZE = 1024;
+
+    protected final int maxFrameLength;
+    private ByteBuffer cumulation;
+
+    protected AbstractFrameCodec(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * @return length 字节的数据编码成帧后的总长度
+     */
+    public abstract int encodedLength(int length);
+
+    /**
+     * 将一帧编码到 out 中，用于直接写入池中的缓冲区
+     *
+     * @param out 剩余空间不少于 encodedLength(length)，调用后 position 位于帧尾
+     */
+    public abstract void encode(byte[] payload, int offset, int length, ByteBuffer out);
+
+    @Override
+    public ByteBuffer encode(byte[] payload, int offset, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(encodedLength(length));
+        encode(payload, offset, length, frame);
+        frame.flip();
+        return frame;
+    }
+
+    protected void checkLength(int length) throws IOException {
+        if (length < 0 || length > maxFrameLength) {
+            throw new IOException("帧长度超出限制：" + length);
+        }
+    }
+
+    protected boolean hasCumulation() {
+        return cumulation != null && cumulation.position() > 0;
+    }
+
+    protected int cumulationSize() {
+        return cumulation == null ? 0 : cumulation.position();
+    }
+
+    /**
+     * 将 in 中的 length 个字节追加到拼接缓冲区
+     */
+    protected void append(ByteBuffer in, int length) throws IOException {
+        checkLength(cumulationSize() + length);
+        ensureWritable(length);
+        int limit = in.limit();
+        in.limit(in.position() + length);
+        cumulation.put(in);
+        in.limit(limit);
+    }
+
+    /**
+     * @return 拼接好的数据，处于读模式，仅在下一次 clearCumulation 之前有效
+     */
+    protected ByteBuffer takeCumulation() {
+        ByteBuffer frame = cumulation.duplicate();
+        frame.flip();
+        return frame;
+    }
+
+    protected void clearCumulation() {
+        if (cumulation != null) {
+            cumulation.clear();
+        }
+    }
+
+    private void ensureWritable(int length) {
+        if (cumulation == null) {
+            cumulation = ByteBuffer.allocate(Math.max(INITIAL_CUMULATION_SIZE, length));
+        } else if (cumulation.remaining() < length) {
+            int capacity = cumulation.capacity();
+            int required = cumulation.position() + length;
+            while (capacity < required) {
+                capacity <<= 1;
+            }
+            ByteBuffer expanded = ByteBuffer.allocate(Math.min(capacity, Math.max(required, maxFrameLength)));
+            cumulation.flip();
+            expanded.put(cumulation);
+            cumulation = expanded;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package melo.com.androidsocket.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * TCP 字节流的分帧编解码器。
+ * <p>
+ * 解码器内部保存未凑满一帧的半包数据，是有状态的，每条连接需要单独的实例。
+ */
+public interface FrameCodec {
+
+    /**
+     * 将一段数据编码为一帧
+     *
+     * @return 处于读模式、可直接写出的缓冲区
+     */
+    ByteBuffer encode(byte[] payload, int offset, int length);
+
+    /**
+     * 从读到的数据中解出完整的帧，不足一帧的部分留到下次拼接
+     *
+     * @param in      处于读模式的数据，调用后会被全部消费
+     * @param handler 每解出一帧回调一次
+     * @throws IOException 帧格式错误或长度超过上限
+     */
+    void decode(ByteBuffer in, FrameHandler handler) throws IOException;
+
+    interface FrameHandler {
+        /**
+         * @param frame 不含帧头的数据，仅在回调内有效
+         */
+        void onFrame(ByteBuffer frame);
+    }
+}
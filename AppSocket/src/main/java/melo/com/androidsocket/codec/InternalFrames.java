@@ -0,0 +1,72 @@
+package melo.com.androidsocket.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 区分库内部的帧和用户消息。
+ * <p>
+ * 分块传输、请求/回复、压缩、UDP 分片和可靠 UDP 的帧都以 0x00 加一个非零的类型字节开头。
+ * 用户消息本身也可能以 0x00 开头，发送前在开头再加一个 0x00，接收方去掉后交给监听：
+ * <pre>
+ * 0x00 非零类型 ...  内部帧
+ * 0x00 0x00 ...      转义过的用户消息，去掉第一个字节即原消息
+ * 其他               用户消息，原样传输
+ * </pre>
+ * 不以 0x00 开头的消息不受影响，与未转义的旧版本仍可互通。
+ */
+public final class InternalFrames {
+
+    private static final byte MARKER = 0x00;
+
+    private InternalFrames() {
+    }
+
+    /**
+     * @return 是否是内部帧
+     */
+    public static boolean isInternal(ByteBuffer frame) {
+        int position = frame.position();
+        return frame.remaining() >= 2 && frame.get(position) == MARKER && frame.get(position + 1) != MARKER;
+    }
+
+    public static boolean isInternal(byte[] data, int offset, int length) {
+        return length >= 2 && data[offset] == MARKER && data[offset + 1] != MARKER;
+    }
+
+    /**
+     * @return 是否是转义过的用户消息
+     */
+    public static boolean isEscaped(ByteBuffer frame) {
+        int position = frame.position();
+        return frame.remaining() >= 2 && frame.get(position) == MARKER && frame.get(position + 1) == MARKER;
+    }
+
+    public static boolean isEscaped(byte[] data, int offset, int length) {
+        return length >= 2 && data[offset] == MARKER && data[offset + 1] == MARKER;
+    }
+
+    /**
+     * 转义用户消息
+     *
+     * @return 不以 0x00 开头时返回原数组，否则返回开头多一个 0x00 的新数组
+     */
+    public static byte[] escape(byte[] data) {
+        if (data.length == 0 || data[0] != MARKER) {
+            return data;
+        }
+        byte[] escaped = new byte[data.length + 1];
+        System.arraycopy(data, 0, escaped, 1, data.length);
+        return escaped;
+    }
+
+    /**
+     * 去掉转义，调用前先用 isEscaped 判断
+     *
+     * @return 共享内容、position 后移一个字节的视图
+     */
+    public static ByteBuffer unescape(ByteBuffer frame) {
+        ByteBuffer user = frame.duplicate();
+        user.position(user.position() + 1);
+        return user;
+    }
+}
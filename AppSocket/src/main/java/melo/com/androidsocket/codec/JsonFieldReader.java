@@ -0,0 +1,290 @@
+package melo.com.androidsocket.codec;
+
+import java.nio.charset.Charset;
+
+/**
+ * 按字段惰性读取 JSON 对象，直接在原始字节上扫描。
+ * <p>
+ * 只解析顶层字段，查询某个字段时才向后扫描到该字段为止，嵌套的对象和数组整体跳过，
+ * 只有被读取的值才会解码成 String。格式错误时停止扫描，之后的字段视为不存在。
+ * 非线程安全。
+ */
+public final class JsonFieldReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] data;
+    private final int end;
+    private int pos;
+    private boolean started = false;
+    private boolean finished = false;
+    // 已扫描的字段，每 4 个一组：keyStart, keyEnd, valueStart, valueEnd（key 不含引号）
+    private int[] fields = new int[16];
+    private int fieldCount = 0;
+
+    public JsonFieldReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    public static JsonFieldReader of(String json) {
+        byte[] bytes = json.getBytes(UTF_8);
+        return new JsonFieldReader(bytes, 0, bytes.length);
+    }
+
+    public boolean has(String name) {
+        return find(name) >= 0;
+    }
+
+    /**
+     * 与 org.json 的 optString 一致：字符串返回解码后的值，数字和布尔返回原文，不存在或为 null 时返回空串
+     */
+    public String optString(String name) {
+        int index = find(name);
+        if (index < 0) {
+            return "";
+        }
+        int start = fields[index + 2];
+        int stop = fields[index + 3];
+        if (data[start] == '"') {
+            return decodeString(start + 1, stop - 1);
+        }
+        String raw = new String(data, start, stop - start, UTF_8);
+        return "null".equals(raw) ? "" : raw;
+    }
+
+    public long optLong(String name, long fallback) {
+        String value = optString(name);
+        if (value.length() == 0) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private int find(String name) {
+        for (int i = 0; i < fieldCount; i += 4) {
+            if (keyEquals(i, name)) {
+                return i;
+            }
+        }
+        while (!finished) {
+            int index = scanNextField();
+            if (index >= 0 && keyEquals(index, name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 向后扫描一个字段
+     *
+     * @return 新字段在 fields 中的下标，没有更多字段时返回 -1
+     */
+    private int scanNextField() {
+        if (!started) {
+            started = true;
+            skipWhitespace();
+            if (pos >= end || data[pos] != '{') {
+                finished = true;
+                return -1;
+            }
+            pos++;
+        }
+        skipWhitespace();
+        if (pos < end && data[pos] == ',') {
+            pos++;
+            skipWhitespace();
+        }
+        if (pos >= end || data[pos] != '"') {
+            // 对象结束或格式错误
+            finished = true;
+            return -1;
+        }
+        int keyStart = pos + 1;
+        int keyEnd = skipString();
+        if (keyEnd < 0) {
+            finished = true;
+            return -1;
+        }
+        skipWhitespace();
+        if (pos >= end || data[pos] != ':') {
+            finished = true;
+            return -1;
+        }
+        pos++;
+        skipWhitespace();
+        int valueStart = pos;
+        if (!skipValue()) {
+            finished = true;
+            return -1;
+        }
+        if (fieldCount + 4 > fields.length) {
+            int[] grown = new int[fields.length * 2];
+            System.arraycopy(fields, 0, grown, 0, fieldCount);
+            fields = grown;
+        }
+        int index = fieldCount;
+        fields[fieldCount++] = keyStart;
+        fields[fieldCount++] = keyEnd - 1;
+        fields[fieldCount++] = valueStart;
+        fields[fieldCount++] = pos;
+        return index;
+    }
+
+    /**
+     * 跳过以 pos 处引号开始的字符串
+     *
+     * @return 结束引号之后的位置，字符串未结束返回 -1
+     */
+    private int skipString() {
+        pos++;
+        while (pos < end) {
+            byte b = data[pos++];
+            if (b == '\\') {
+                pos++;
+            } else if (b == '"') {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private boolean skipValue() {
+        if (pos >= end) {
+            return false;
+        }
+        byte b = data[pos];
+        if (b == '"') {
+            return skipString() >= 0;
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < end) {
+                b = data[pos];
+                if (b == '"') {
+                    if (skipString() < 0) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+                pos++;
+                if (depth == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // 数字、true、false、null
+        int start = pos;
+        while (pos < end) {
+            b = data[pos];
+            if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                break;
+            }
+            pos++;
+        }
+        return pos > start;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(data[pos])) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private boolean keyEquals(int index, String name) {
+        int start = fields[index];
+        int stop = fields[index + 1];
+        int length = stop - start;
+        boolean plain = true;
+        for (int i = start; i < stop; i++) {
+            if (data[i] == '\\' || data[i] < 0) {
+                plain = false;
+                break;
+            }
+        }
+        if (!plain) {
+            return name.equals(decodeString(start, stop));
+        }
+        // 纯 ASCII 且无转义，直接逐字节比较，不创建 String
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decodeString(int start, int stop) {
+        int escape = -1;
+        for (int i = start; i < stop; i++) {
+            if (data[i] == '\\') {
+                escape = i;
+                break;
+            }
+        }
+        if (escape < 0) {
+            return new String(data, start, stop - start, UTF_8);
+        }
+        String raw = new String(data, start, stop - start, UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 >= raw.length()) {
+                sb.append(c);
+                continue;
+            }
+            c = raw.charAt(++i);
+            switch (c) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 < raw.length()) {
+                        try {
+                            sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException e) {
+                            // 非法转义按原文保留
+                        }
+                    }
+                    sb.append('\\').append(c);
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package melo.com.androidsocket.codec;
+
+/**
+ * 流式 JSON 写入器，直接拼接字符，不经过中间对象和反射
+ */
+public class JsonWriter {
+
+    private static final int MAX_DEPTH = 32;
+
+    private final StringBuilder out;
+    // 每一层是否已经写过元素，用于决定是否需要逗号
+    private final boolean[] hasElement = new boolean[MAX_DEPTH];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    public JsonWriter() {
+        this(64);
+    }
+
+    public JsonWriter(int capacity) {
+        out = new StringBuilder(capacity);
+    }
+
+    public JsonWriter beginObject() {
+        return open('{');
+    }
+
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() {
+        return open('[');
+    }
+
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) {
+        separator();
+        writeString(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        separator();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separator();
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("非法的数值：" + value);
+        }
+        separator();
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separator();
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        separator();
+        out.append("null");
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private JsonWriter open(char c) {
+        separator();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("嵌套层数过深");
+        }
+        out.append(c);
+        hasElement[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(char c) {
+        if (depth == 0) {
+            throw new IllegalStateException("没有可以结束的对象或数组");
+        }
+        depth--;
+        out.append(c);
+        return this;
+    }
+
+    private void separator() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElement[depth - 1]) {
+                out.append(',');
+            }
+            hasElement[depth - 1] = true;
+        }
+    }
+
+    private void writeString(String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,43 @@
+package melo.com.androidsocket.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 4 字节大端长度帧头
+ */
+public class LengthFieldFrameCodec extends LengthPrefixedFrameCodec {
+
+    private static final int HEADER_LENGTH = 4;
+
+    public LengthFieldFrameCodec() {
+        super(DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public LengthFieldFrameCodec(int maxFrameLength) {
+        super(maxFrameLength);
+    }
+
+    @Override
+    protected int headerLength(int length) {
+        return HEADER_LENGTH;
+    }
+
+    @Override
+    protected void writeHeader(ByteBuffer out, int length) {
+        out.putInt(length);
+    }
+
+    @Override
+    protected int readHeader(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER_LENGTH) {
+            return -1;
+        }
+        int length = in.getInt(in.position());
+        if (length < 0) {
+            throw new IOException("帧长度无效：" + length);
+        }
+        in.position(in.position() + HEADER_LENGTH);
+        return length;
+    }
+}
@@ -0,0 +1,124 @@
+package melo.com.androidsocket.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 帧头携带数据长度的分帧方式，数据中可以包含任意字节
+ */
+public abstract class LengthPrefixedFrameCodec extends AbstractFrameCodec {
+
+    // 帧头最多 5 个字节（varint 表示 int）
+    public static final int MAX_HEADER_LENGTH = 5;
+
+    private final ByteBuffer header = ByteBuffer.allocate(MAX_HEADER_LENGTH);
+    private int frameLength = -1;
+
+    protected LengthPrefixedFrameCodec(int maxFrameLength) {
+        super(maxFrameLength);
+    }
+
+    /**
+     * @return 长度为 length 的数据所需的帧头字节数
+     */
+    protected abstract int headerLength(int length);
+
+    protected abstract void writeHeader(ByteBuffer out, int length);
+
+    /**
+     * 读取帧头，帧头不完整时不移动 position
+     *
+     * @return 数据长度，帧头不完整时返回 -1
+     * @throws IOException 帧头格式错误或长度为负数，此时不移动 position
+     */
+    protected abstract int readHeader(ByteBuffer in) throws IOException;
+
+    @Override
+    public int encodedLength(int length) {
+        return headerLength(length) + length;
+    }
+
+    @Override
+    public void encode(byte[] payload, int offset, int length, ByteBuffer out) {
+        writeHeader(out, length);
+        out.put(payload, offset, length);
+    }
+
+    /**
+     * 只编码帧头和数据的开头部分，剩余 bodyLength 字节由调用方随后直接写出（例如 FileChannel.transferTo）
+     *
+     * @param prefix     数据开头的字节
+     * @param bodyLength 紧随其后、不经过该缓冲区写出的字节数
+     * @return 帧头加 prefix，处于读模式
+     */
+    public ByteBuffer encodePrefix(byte[] prefix, int offset, int length, int bodyLength) {
+        int frameLength = length + bodyLength;
+        if (frameLength < 0 || frameLength > maxFrameLength) {
+            throw new IllegalArgumentException("帧长度超出限制：" + frameLength);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength(frameLength) + length);
+        writeHeader(buffer, frameLength);
+        buffer.put(prefix, offset, length);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void decode(ByteBuffer in, FrameHandler handler) throws IOException {
+        while (true) {
+            if (frameLength < 0 && !decodeHeader(in)) {
+                return;
+            }
+            if (!hasCumulation() && in.remaining() >= frameLength) {
+                // 完整的帧直接切片，不拷贝
+                ByteBuffer frame = in.slice();
+                frame.limit(frameLength);
+                in.position(in.position() + frameLength);
+                frameLength = -1;
+                handler.onFrame(frame);
+                continue;
+            }
+            append(in, Math.min(frameLength - cumulationSize(), in.remaining()));
+            if (cumulationSize() < frameLength) {
+                return;
+            }
+            frameLength = -1;
+            handler.onFrame(takeCumulation());
+            clearCumulation();
+        }
+    }
+
+    private boolean decodeHeader(ByteBuffer in) throws IOException {
+        if (header.position() == 0) {
+            frameLength = readLength(in);
+            if (frameLength < 0) {
+                header.put(in);
+                return false;
+            }
+        } else {
+            while (frameLength < 0 && in.hasRemaining()) {
+                header.put(in.get());
+                ByteBuffer pending = header.duplicate();
+                pending.flip();
+                frameLength = readLength(pending);
+            }
+            if (frameLength < 0) {
+                return false;
+            }
+            header.clear();
+        }
+        checkLength(frameLength);
+        return true;
+    }
+
+    /**
+     * -1 只表示帧头不完整，其他负数都是错误的长度，不能当成不完整继续缓存
+     */
+    private int readLength(ByteBuffer in) throws IOException {
+        int length = readHeader(in);
+        if (length < -1) {
+            throw new IOException("帧长度无效：" + length);
+        }
+        return length;
+    }
+}
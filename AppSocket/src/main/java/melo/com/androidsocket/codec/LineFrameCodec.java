@@ -0,0 +1,71 @@
+package melo.com.androidsocket.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 以换行符分帧，与原先 println / readLine 的格式兼容，数据中不能包含换行符
+ */
+public class LineFrameCodec extends AbstractFrameCodec {
+
+    public LineFrameCodec() {
+        super(DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public LineFrameCodec(int maxFrameLength) {
+        super(maxFrameLength);
+    }
+
+    @Override
+    public int encodedLength(int length) {
+        return length + 1;
+    }
+
+    @Override
+    public void encode(byte[] payload, int offset, int length, ByteBuffer out) {
+        out.put(payload, offset, length).put((byte) '\n');
+    }
+
+    @Override
+    public void decode(ByteBuffer in, FrameHandler handler) throws IOException {
+        while (in.hasRemaining()) {
+            int end = indexOf(in, (byte) '\n');
+            if (end < 0) {
+                append(in, in.remaining());
+                return;
+            }
+            int length = end - in.position();
+            ByteBuffer frame;
+            if (hasCumulation()) {
+                append(in, length);
+                frame = takeCumulation();
+            } else {
+                checkLength(length);
+                frame = in.slice();
+                frame.limit(length);
+                in.position(end);
+            }
+            // 跳过换行符
+            in.get();
+            handler.onFrame(trimCarriageReturn(frame));
+            clearCumulation();
+        }
+    }
+
+    private static int indexOf(ByteBuffer in, byte value) {
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ByteBuffer trimCarriageReturn(ByteBuffer frame) {
+        int limit = frame.limit();
+        if (limit > frame.position() && frame.get(limit - 1) == '\r') {
+            frame.limit(limit - 1);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,67 @@
+package melo.com.androidsocket.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import melo.com.androidsocket.common.Config;
+
+/**
+ * 预先编码好的固定消息，心跳每次发送直接复用，不再重复构造 JSON
+ */
+public final class Messages {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final String PING = new JsonWriter().beginObject().name(Config.MSG).value(Config.PING).endObject().toString();
+    public static final String PONG = new JsonWriter().beginObject().name(Config.MSG).value(Config.PONG).endObject().toString();
+    public static final String HEARTBREAK = new JsonWriter().beginObject().name(Config.MSG).value(Config.HEARTBREAK).endObject().toString();
+
+    private static final byte[] PING_BYTES = PING.getBytes(UTF_8);
+    private static final byte[] PONG_BYTES = PONG.getBytes(UTF_8);
+    private static final byte[] HEARTBREAK_BYTES = HEARTBREAK.getBytes(UTF_8);
+
+    private Messages() {
+    }
+
+    /**
+     * 共享数组，调用方不能修改
+     */
+    public static byte[] pingBytes() {
+        return PING_BYTES;
+    }
+
+    /**
+     * 共享数组，调用方不能修改
+     */
+    public static byte[] pongBytes() {
+        return PONG_BYTES;
+    }
+
+    /**
+     * 共享数组，调用方不能修改
+     */
+    public static byte[] heartbreakBytes() {
+        return HEARTBREAK_BYTES;
+    }
+
+    public static boolean isPing(ByteBuffer frame) {
+        return matches(frame, PING_BYTES);
+    }
+
+    public static boolean isPong(ByteBuffer frame) {
+        return matches(frame, PONG_BYTES);
+    }
+
+    private static boolean matches(ByteBuffer frame, byte[] expected) {
+        if (frame.remaining() != expected.length) {
+            return false;
+        }
+        int position = frame.position();
+        for (int i = 0; i < expected.length; i++) {
+            if (frame.get(position + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
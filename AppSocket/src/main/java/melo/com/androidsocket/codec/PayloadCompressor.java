@@ -0,0 +1,246 @@
+package melo.com.androidsocket.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import melo.com.androidsocket.common.Config;
+
+/**
+ * 消息的 Deflate 压缩，可选使用预置字典。
+ * <p>
+ * 压缩后的消息是以 0x00 'Z' 开头的内部帧，以 0x00 开头的用户消息在压缩前已由 {@link InternalFrames} 转义，不会与之混淆：
+ * <pre>
+ * HELLO 0x00 字典的 Adler-32(4)              告知对端本端支持解压以及使用的字典，0 表示没有字典
+ * DATA  0x01 原始长度(4) zlib 数据           使用字典时 zlib 头中带有字典的 Adler-32
+ * </pre>
+ * 小于阈值或压缩后没有变小的消息原样发送。
+ * 压缩和解压各自加锁，可以在发送线程和接收线程中同时使用，每条连接一个实例。
+ */
+public class PayloadCompressor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    private static final byte MAGIC_0 = 0x00;
+    private static final byte MAGIC_1 = 'Z';
+
+    private static final byte TYPE_HELLO = 0;
+    private static final byte TYPE_DATA = 1;
+
+    // magic(2) + type(1) + 原始长度或字典 id(4)
+    private static final int HEADER_LENGTH = 7;
+
+    private static final byte[] DEFAULT_DICTIONARY = buildDefaultDictionary();
+
+    private final int threshold;
+    private final byte[] dictionary;
+    private final int dictionaryId;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    // 压缩时的输出缓冲区，按需扩容，在 deflater 上同步
+    private byte[] deflateBuffer = new byte[1024];
+
+    /**
+     * @param threshold  小于该字节数的消息不压缩
+     * @param dictionary 预置字典，两端必须一致，为 null 时不使用字典
+     * @param level      Deflater 的压缩级别
+     */
+    public PayloadCompressor(int threshold, byte[] dictionary, int level) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+        }
+        this.threshold = threshold;
+        this.dictionary = dictionary;
+        this.dictionaryId = dictionary == null ? 0 : adler32(dictionary);
+        this.deflater = new Deflater(level);
+    }
+
+    /**
+     * 使用默认字典和默认压缩级别
+     */
+    public PayloadCompressor(int threshold) {
+        this(threshold, DEFAULT_DICTIONARY, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * 由常见消息的字段和取值组成的字典，越常见的越靠后
+     */
+    public static byte[] defaultDictionary() {
+        return DEFAULT_DICTIONARY.clone();
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return 字典的 Adler-32，没有字典时为 0
+     */
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    public static boolean isCompressionFrame(ByteBuffer frame) {
+        int position = frame.position();
+        return frame.remaining() >= HEADER_LENGTH && frame.get(position) == MAGIC_0 && frame.get(position + 1) == MAGIC_1;
+    }
+
+    public static boolean isCompressed(byte[] data, int offset, int length) {
+        return length >= HEADER_LENGTH && data[offset] == MAGIC_0 && data[offset + 1] == MAGIC_1 && data[offset + 2] == TYPE_DATA;
+    }
+
+    public static boolean isHello(ByteBuffer frame) {
+        return isCompressionFrame(frame) && frame.get(frame.position() + 2) == TYPE_HELLO;
+    }
+
+    /**
+     * @return 对端字典的 Adler-32，0 表示没有字典
+     */
+    public static int readHelloDictionaryId(ByteBuffer frame) {
+        return frame.getInt(frame.position() + 3);
+    }
+
+    /**
+     * 协商用的握手消息
+     */
+    public byte[] hello() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH);
+        buffer.put(MAGIC_0).put(MAGIC_1).put(TYPE_HELLO).putInt(dictionaryId);
+        return buffer.array();
+    }
+
+    /**
+     * 压缩一条消息
+     *
+     * @param useDictionary 对端字典一致时才能使用
+     * @return 不值得压缩时直接返回 data
+     */
+    public byte[] compress(byte[] data, boolean useDictionary) {
+        if (data.length < threshold || data.length == 0) {
+            return data;
+        }
+        synchronized (deflater) {
+            deflater.reset();
+            if (useDictionary && dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            // 压缩后不比原数据小就没有意义，输出超过这个长度即放弃
+            int limit = data.length - HEADER_LENGTH;
+            if (deflateBuffer.length < limit) {
+                deflateBuffer = new byte[limit];
+            }
+            int total = 0;
+            while (!deflater.finished() && total < limit) {
+                total += deflater.deflate(deflateBuffer, total, limit - total);
+            }
+            if (!deflater.finished()) {
+                return data;
+            }
+            ByteBuffer out = ByteBuffer.allocate(HEADER_LENGTH + total);
+            out.put(MAGIC_0).put(MAGIC_1).put(TYPE_DATA).putInt(data.length).put(deflateBuffer, 0, total);
+            return out.array();
+        }
+    }
+
+    /**
+     * 解压 compress 的输出
+     *
+     * @param maxLength 原始长度的上限，防止恶意数据耗尽内存
+     * @return 处于读模式的堆缓冲区
+     * @throws IOException 数据损坏、字典不一致或超过长度上限
+     */
+    public ByteBuffer decompress(ByteBuffer frame, int maxLength) throws IOException {
+        byte[] in;
+        int offset;
+        if (frame.hasArray()) {
+            in = frame.array();
+            offset = frame.arrayOffset() + frame.position();
+        } else {
+            in = new byte[frame.remaining()];
+            frame.duplicate().get(in);
+            offset = 0;
+        }
+        int length = originalLength(in, offset, frame.remaining(), maxLength);
+        byte[] out = new byte[length];
+        decompress(in, offset, frame.remaining(), out, 0, length);
+        return ByteBuffer.wrap(out);
+    }
+
+    /**
+     * 解压到调用方提供的缓冲区
+     *
+     * @param capacity out 中可用的字节数
+     * @return 原始长度
+     */
+    public int decompress(byte[] in, int offset, int length, byte[] out, int outOffset, int capacity) throws IOException {
+        int originalLength = originalLength(in, offset, length, capacity);
+        synchronized (inflater) {
+            inflater.reset();
+            inflater.setInput(in, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+            int total = 0;
+            try {
+                while (total < originalLength) {
+                    int n = inflater.inflate(out, outOffset + total, originalLength - total);
+                    if (n > 0) {
+                        total += n;
+                    } else if (inflater.needsDictionary()) {
+                        if (dictionary == null || inflater.getAdler() != dictionaryId) {
+                            throw new IOException("压缩字典不一致");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else {
+                        break;
+                    }
+                }
+                if (total != originalLength) {
+                    throw new IOException("压缩数据长度不符");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("压缩数据格式错误", e);
+            }
+            return total;
+        }
+    }
+
+    private static int originalLength(byte[] in, int offset, int length, int maxLength) throws IOException {
+        if (!isCompressed(in, offset, length)) {
+            throw new IOException("不是压缩数据");
+        }
+        int originalLength = ((in[offset + 3] & 0xff) << 24) | ((in[offset + 4] & 0xff) << 16)
+                | ((in[offset + 5] & 0xff) << 8) | (in[offset + 6] & 0xff);
+        if (originalLength < 0 || originalLength > maxLength) {
+            throw new IOException("解压后长度超出限制：" + originalLength);
+        }
+        return originalLength;
+    }
+
+    private static int adler32(byte[] data) {
+        Adler32 adler = new Adler32();
+        adler.update(data, 0, data.length);
+        return (int) adler.getValue();
+    }
+
+    private static byte[] buildDefaultDictionary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\"loginTime\":\"")
+                .append("\"").append(Config.ROM_VERSION).append("\":")
+                .append("\"").append(Config.SOFT_VERSION).append("\":")
+                .append("\"").append(Config.DEVICE).append("\":\"")
+                .append("\"").append(Config.IMEI).append("\":\"")
+                .append("true,false,null,")
+                .append(Messages.PING)
+                .append(Messages.HEARTBREAK)
+                .append("\"").append(Config.TCP_PORT).append("\":\"")
+                .append(",\"").append(Config.TCP_IP).append("\":\"192.168.43.")
+                .append("{\"").append(Config.MSG).append("\":\"");
+        return sb.toString().getBytes(UTF_8);
+    }
+}
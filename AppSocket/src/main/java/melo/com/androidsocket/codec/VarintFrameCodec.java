@@ -0,0 +1,60 @@
+package melo.com.androidsocket.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * varint 长度帧头（与 protobuf 的 delimited 格式相同），小消息只需 1 字节帧头
+ */
+public class VarintFrameCodec extends LengthPrefixedFrameCodec {
+
+    private static final int MAX_VARINT_LENGTH = 5;
+
+    public VarintFrameCodec() {
+        super(DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public VarintFrameCodec(int maxFrameLength) {
+        super(maxFrameLength);
+    }
+
+    @Override
+    protected int headerLength(int length) {
+        int size = 1;
+        while ((length & ~0x7F) != 0) {
+            length >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    protected void writeHeader(ByteBuffer out, int length) {
+        while ((length & ~0x7F) != 0) {
+            out.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
+        }
+        out.put((byte) length);
+    }
+
+    @Override
+    protected int readHeader(ByteBuffer in) throws IOException {
+        int start = in.position();
+        int result = 0;
+        for (int i = 0; i < MAX_VARINT_LENGTH; i++) {
+            if (start + i >= in.limit()) {
+                return -1;
+            }
+            byte b = in.get(start + i);
+            result |= (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                if (result < 0) {
+                    throw new IOException("帧长度无效：" + result);
+                }
+                in.position(start + i + 1);
+                return result;
+            }
+        }
+        throw new IOException("varint 帧头格式错误");
+    }
+}
@@ -9,13 +9,30 @@ public class Config {
     public static final String MSG = "msg";
     public static final String HEARTBREAK = "heartbreak";
     public static final String PING = "ping";
+    public static final String PONG = "pong";
 
     public static final String TCP_IP = "ip";
     public static final String TCP_PORT = "port";
 
-    // 单个CPU线程池大小
+    // 广播中可选的设备信息字段
+    public static final String IMEI = "imei";
+    public static final String DEVICE = "device";
+    public static final String SOFT_VERSION = "softVersion";
+    public static final String ROM_VERSION = "romVersion";
+
+    /**
+     * @deprecated 线程统一由 SocketRuntime 管理，不再按 CPU 数创建线程池
+     */
+    @Deprecated
     public static final int POOL_SIZE = 5;
 
+    // 最多同时维持的 TCP 连接数
+    public static final int MAX_TCP_CONNECTIONS = 256;
+
+    // 发现表最多保存的对端数以及过期时间
+    public static final int PEER_CACHE_SIZE = 64;
+    public static final long PEER_TTL = 120 * 1000;
+
     /**
      * 错误处理
      */
@@ -24,6 +41,9 @@ public class Config {
         public static final int CREATE_TCP_ERROR = 1;
 
         public static final int PING_TCP_TIMEOUT = 2;
+
+        // 已建立的连接被对端关闭或读写出错
+        public static final int TCP_DISCONNECTED = 3;
     }
 
 }
@@ -0,0 +1,10 @@
+package melo.com.androidsocket.listener;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 接收二进制帧，frame 仅在回调内有效，需要保留请自行拷贝
+ */
+public interface OnBinaryMessageReceiveListener {
+    void onBinaryMessageReceived(ByteBuffer frame);
+}
@@ -0,0 +1,10 @@
+package melo.com.androidsocket.listener;
+
+import melo.com.androidsocket.socket.udp.UdpPacket;
+
+/**
+ * 接收原始 UDP 数据包，packet 仅在回调内有效
+ */
+public interface OnPacketReceiveListener {
+    void onPacketReceived(UdpPacket packet);
+}
@@ -0,0 +1,13 @@
+package melo.com.androidsocket.listener;
+
+/**
+ * 多连接模式下单个对端的连接状态
+ */
+public interface OnPeerConnectionListener {
+    void onPeerConnected(String ip, int port);
+
+    /**
+     * @param errorCode 见 Config.ErrorCode
+     */
+    void onPeerDisconnected(String ip, int port, int errorCode);
+}
@@ -0,0 +1,12 @@
+package melo.com.androidsocket.listener;
+
+import melo.com.androidsocket.socket.tcp.RpcRequest;
+
+/**
+ * 处理对端发来的请求，在 TCP 接收线程中回调。
+ * <p>
+ * 耗时的处理应交给其他线程，完成后再调用 RpcRequest.reply，回复的顺序不必与请求顺序一致
+ */
+public interface OnRpcRequestListener {
+    void onRequest(RpcRequest request);
+}
@@ -0,0 +1,14 @@
+package melo.com.androidsocket.listener;
+
+/**
+ * 请求的结果回调，在完成请求的线程中回调（TCP 接收线程或时间轮线程），不要做耗时操作
+ */
+public interface OnRpcResponseListener {
+
+    void onResponse(byte[] response);
+
+    /**
+     * @param e 超时为 TimeoutException，对端处理失败或连接断开为 IOException，主动取消为 CancellationException
+     */
+    void onFailure(Exception e);
+}
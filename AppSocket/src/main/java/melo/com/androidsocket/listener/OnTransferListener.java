@@ -0,0 +1,19 @@
+package melo.com.androidsocket.listener;
+
+import java.io.IOException;
+
+import melo.com.androidsocket.socket.tcp.StreamTransfer;
+
+/**
+ * 发送方的传输进度，在传输线程中回调
+ */
+public interface OnTransferListener {
+    /**
+     * @param acknowledged 对端已确认收到的字节数
+     */
+    void onTransferProgress(StreamTransfer transfer, long acknowledged, long length);
+
+    void onTransferCompleted(StreamTransfer transfer);
+
+    void onTransferFailed(StreamTransfer transfer, IOException e);
+}
@@ -0,0 +1,24 @@
+package melo.com.androidsocket.listener;
+
+import java.io.IOException;
+
+import melo.com.androidsocket.socket.tcp.TransferSink;
+
+/**
+ * 接收方的传输回调。onTransferOffered 在 TCP 接收线程中回调，不要做耗时操作；
+ * 其余回调在写入 TransferSink 的阻塞 I/O 线程中，同一传输的回调按顺序执行
+ */
+public interface OnTransferReceiveListener {
+    /**
+     * 对端请求发送数据
+     *
+     * @return 写入目标，返回 null 表示拒绝。TransferSink 的起始位置大于 0 时从该位置续传
+     */
+    TransferSink onTransferOffered(long id, String name, long length);
+
+    void onTransferProgress(long id, long received, long length);
+
+    void onTransferCompleted(long id);
+
+    void onTransferFailed(long id, IOException e);
+}
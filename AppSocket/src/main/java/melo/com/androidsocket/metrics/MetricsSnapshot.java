@@ -0,0 +1,65 @@
+package melo.com.androidsocket.metrics;
+
+import melo.com.androidsocket.codec.JsonWriter;
+
+/**
+ * 某一时刻的指标快照，不可变，便于上报
+ */
+public class MetricsSnapshot {
+
+    public final String name;
+    public final long timestamp;
+    public final long bytesIn;
+    public final long bytesOut;
+    public final long messagesIn;
+    public final long messagesOut;
+    public final long droppedPackets;
+    public final long reconnects;
+    public final long queueDepth;
+    public final long heartbeatRttP50;
+    public final long heartbeatRttP99;
+    public final long dispatchLatencyP50;
+    public final long dispatchLatencyP99;
+    public final long dispatchLatencyMax;
+
+    MetricsSnapshot(SocketMetrics metrics) {
+        name = metrics.getName();
+        timestamp = System.currentTimeMillis();
+        bytesIn = metrics.getBytesIn();
+        bytesOut = metrics.getBytesOut();
+        messagesIn = metrics.getMessagesIn();
+        messagesOut = metrics.getMessagesOut();
+        droppedPackets = metrics.getDroppedPackets();
+        reconnects = metrics.getReconnects();
+        queueDepth = metrics.getQueueDepth();
+        heartbeatRttP50 = metrics.getHeartbeatRtt().getPercentile(50);
+        heartbeatRttP99 = metrics.getHeartbeatRtt().getPercentile(99);
+        dispatchLatencyP50 = metrics.getDispatchLatency().getPercentile(50);
+        dispatchLatencyP99 = metrics.getDispatchLatency().getPercentile(99);
+        dispatchLatencyMax = metrics.getDispatchLatency().getMax();
+    }
+
+    public String toJson() {
+        return new JsonWriter(512).beginObject()
+                .name("name").value(name)
+                .name("timestamp").value(timestamp)
+                .name("bytesIn").value(bytesIn)
+                .name("bytesOut").value(bytesOut)
+                .name("messagesIn").value(messagesIn)
+                .name("messagesOut").value(messagesOut)
+                .name("droppedPackets").value(droppedPackets)
+                .name("reconnects").value(reconnects)
+                .name("queueDepth").value(queueDepth)
+                .name("heartbeatRttP50").value(heartbeatRttP50)
+                .name("heartbeatRttP99").value(heartbeatRttP99)
+                .name("dispatchLatencyP50").value(dispatchLatencyP50)
+                .name("dispatchLatencyP99").value(dispatchLatencyP99)
+                .name("dispatchLatencyMax").value(dispatchLatencyMax)
+                .endObject().toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
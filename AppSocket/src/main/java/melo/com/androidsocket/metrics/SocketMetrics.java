@@ -0,0 +1,113 @@
+package melo.com.androidsocket.metrics;
+
+/**
+ * 单个 socket（或单个对端）的流量与连接指标，可随时轮询或导出快照。
+ * <p>
+ * 延迟类指标单位均为微秒。
+ */
+public class SocketMetrics {
+
+    private final String name;
+
+    final StripedCounter bytesIn = new StripedCounter();
+    final StripedCounter bytesOut = new StripedCounter();
+    final StripedCounter messagesIn = new StripedCounter();
+    final StripedCounter messagesOut = new StripedCounter();
+    final StripedCounter droppedPackets = new StripedCounter();
+    final StripedCounter reconnects = new StripedCounter();
+    final LatencyHistogram heartbeatRtt = new LatencyHistogram();
+    final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private volatile Gauge queueDepthGauge;
+
+    public SocketMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 瞬时值的读取方式，例如写队列长度
+     */
+    public interface Gauge {
+        long get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void onReceived(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void onMessageReceived() {
+        messagesIn.increment();
+    }
+
+    public void onSent(long bytes) {
+        bytesOut.add(bytes);
+        messagesOut.increment();
+    }
+
+    public void onDropped() {
+        droppedPackets.increment();
+    }
+
+    public void onReconnect() {
+        reconnects.increment();
+    }
+
+    public void recordHeartbeatRtt(long micros) {
+        heartbeatRtt.record(micros);
+    }
+
+    /**
+     * @param nanos 从读到数据到交给监听器的耗时
+     */
+    public void recordDispatchLatency(long nanos) {
+        dispatchLatency.record(nanos / 1000);
+    }
+
+    public void setQueueDepthGauge(Gauge gauge) {
+        this.queueDepthGauge = gauge;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.sum();
+    }
+
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    public long getQueueDepth() {
+        Gauge gauge = queueDepthGauge;
+        return gauge == null ? 0 : gauge.get();
+    }
+
+    public LatencyHistogram getHeartbeatRtt() {
+        return heartbeatRtt;
+    }
+
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(this);
+    }
+}
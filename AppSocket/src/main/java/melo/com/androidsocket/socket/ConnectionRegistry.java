@@ -0,0 +1,119 @@
+package melo.com.androidsocket.socket;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import melo.com.androidsocket.socket.tcp.TCPSocket;
+
+/**
+ * 以 ip:port 为键的 TCP 连接表，读写均为并发安全
+ */
+public class ConnectionRegistry {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConcurrentMap<String, TCPSocket> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile int maxConnections;
+
+    public ConnectionRegistry(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public static String key(String ip, int port) {
+        return ip + ":" + port;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * 对端不存在且未达到上限时登记
+     *
+     * @return 登记成功返回 true，已存在或已满返回 false
+     */
+    public boolean register(String ip, int port, TCPSocket socket) {
+        if (size.incrementAndGet() > maxConnections) {
+            size.decrementAndGet();
+            return false;
+        }
+        if (connections.putIfAbsent(key(ip, port), socket) != null) {
+            size.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 只有当前登记的仍是该 socket 时才移除，避免误删重新建立的连接
+     */
+    public boolean unregister(String ip, int port, TCPSocket socket) {
+        if (connections.remove(key(ip, port), socket)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public TCPSocket get(String ip, int port) {
+        return connections.get(key(ip, port));
+    }
+
+    public boolean contains(String ip, int port) {
+        return connections.containsKey(key(ip, port));
+    }
+
+    public List<TCPSocket> getAll() {
+        return new ArrayList<>(connections.values());
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isFull() {
+        return size.get() >= maxConnections;
+    }
+
+    /**
+     * 向所有连接发送同一条消息
+     *
+     * @return 成功加入写队列的连接数
+     */
+    public int broadcast(String message) {
+        // 只编码一次
+        return broadcast(message.getBytes(UTF_8));
+    }
+
+    public int broadcast(byte[] data) {
+        int sent = 0;
+        for (TCPSocket socket : connections.values()) {
+            if (socket.sendBinaryMessage(data)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * 关闭并移除所有连接
+     */
+    public void closeAll() {
+        for (String key : connections.keySet()) {
+            TCPSocket socket = connections.remove(key);
+            if (socket != null) {
+                size.decrementAndGet();
+                socket.stopTcpConnection();
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package melo.com.androidsocket.socket;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.bean.Users;
+
+/**
+ * UDP 广播发现的对端表，以发送方地址为键。
+ * <p>
+ * 记录对端最后一次出现的时间、广播的 TCP 地址和设备信息。超过 ttl 未再收到广播的条目视为过期，
+ * 条目数超过容量时淘汰最久未访问的条目。
+ */
+public class PeerCache {
+
+    private final LruMap peers;
+    private long ttlNanos;
+
+    /**
+     * @param capacity 最多保存的对端数
+     * @param ttlMs    多久未收到广播后过期
+     */
+    public PeerCache(int capacity, long ttlMs) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.peers = new LruMap(capacity);
+    }
+
+    public synchronized void setOptions(int capacity, long ttlMs) {
+        peers.capacity = capacity;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        while (peers.size() > capacity) {
+            Iterator<Peer> iterator = peers.values().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 刷新已知对端的最后出现时间
+     *
+     * @return 对端的快照，未知或已过期时返回 null
+     */
+    public synchronized Peer touch(InetAddress address) {
+        Peer peer = peers.get(address);
+        if (peer == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (now - peer.lastSeenNanos > ttlNanos) {
+            peers.remove(address);
+            return null;
+        }
+        peer.lastSeenNanos = now;
+        peer.seenCount++;
+        return peer.copy();
+    }
+
+    /**
+     * 记录一次完整解析过的广播
+     *
+     * @return 更新后的快照
+     */
+    public synchronized Peer update(InetAddress address, Users user, String tcpIp, int tcpPort) {
+        long now = System.nanoTime();
+        purgeExpired(now);
+        Peer peer = peers.get(address);
+        if (peer == null) {
+            peer = new Peer(address, now);
+            peers.put(address, peer);
+        }
+        peer.user = user;
+        peer.tcpIp = tcpIp;
+        peer.tcpPort = tcpPort;
+        peer.lastSeenNanos = now;
+        peer.seenCount++;
+        return peer.copy();
+    }
+
+    /**
+     * @return 未过期的对端快照，不存在时返回 null
+     */
+    public synchronized Peer get(InetAddress address) {
+        Peer peer = peers.get(address);
+        if (peer == null || System.nanoTime() - peer.lastSeenNanos > ttlNanos) {
+            return null;
+        }
+        return peer.copy();
+    }
+
+    /**
+     * 按设备 id（imei）查找未过期的对端
+     */
+    public synchronized Peer findByDeviceId(String deviceId) {
+        if (deviceId == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        for (Peer peer : peers.values()) {
+            if (now - peer.lastSeenNanos <= ttlNanos && peer.user != null && deviceId.equals(peer.user.getImei())) {
+                return peer.copy();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 所有未过期对端的快照，按最近访问排序（最久的在前）
+     */
+    public synchronized List<Peer> getAll() {
+        purgeExpired(System.nanoTime());
+        List<Peer> list = new ArrayList<>(peers.size());
+        for (Peer peer : peers.values()) {
+            list.add(peer.copy());
+        }
+        return list;
+    }
+
+    public synchronized void remove(InetAddress address) {
+        peers.remove(address);
+    }
+
+    public synchronized int size() {
+        return peers.size();
+    }
+
+    public synchronized void clear() {
+        peers.clear();
+    }
+
+    /**
+     * @return 移除的过期条目数
+     */
+    public synchronized int purgeExpired() {
+        return purgeExpired(System.nanoTime());
+    }
+
+    private int purgeExpired(long now) {
+        int removed = 0;
+        Iterator<Peer> iterator = peers.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().lastSeenNanos > ttlNanos) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * accessOrder 为 true，迭代顺序即 LRU 顺序，超过容量时淘汰最久未访问的条目
+     */
+    private static final class LruMap extends LinkedHashMap<InetAddress, Peer> {
+
+        private static final long serialVersionUID = 1L;
+
+        int capacity;
+
+        LruMap(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetAddress, Peer> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * 对端信息，外部拿到的都是快照
+     */
+    public static final class Peer {
+
+        private final InetAddress address;
+        private final long firstSeenNanos;
+        private long lastSeenNanos;
+        private long seenCount;
+        private Users user;
+        private String tcpIp;
+        private int tcpPort;
+
+        private Peer(InetAddress address, long firstSeenNanos) {
+            this.address = address;
+            this.firstSeenNanos = firstSeenNanos;
+            this.lastSeenNanos = firstSeenNanos;
+        }
+
+        private Peer copy() {
+            Peer copy = new Peer(address, firstSeenNanos);
+            copy.lastSeenNanos = lastSeenNanos;
+            copy.seenCount = seenCount;
+            copy.user = user;
+            copy.tcpIp = tcpIp;
+            copy.tcpPort = tcpPort;
+            return copy;
+        }
+
+        public InetAddress getAddress() {
+            return address;
+        }
+
+        /**
+         * @return 首次收到广播时的 System.nanoTime()
+         */
+        public long getFirstSeenNanos() {
+            return firstSeenNanos;
+        }
+
+        /**
+         * @return 最后一次收到广播时的 System.nanoTime()
+         */
+        public long getLastSeenNanos() {
+            return lastSeenNanos;
+        }
+
+        public long getSeenCount() {
+            return seenCount;
+        }
+
+        /**
+         * @return 广播中携带的设备信息，可能为 null
+         */
+        public Users getUser() {
+            return user;
+        }
+
+        public String getTcpIp() {
+            return tcpIp;
+        }
+
+        public int getTcpPort() {
+            return tcpPort;
+        }
+    }
+}
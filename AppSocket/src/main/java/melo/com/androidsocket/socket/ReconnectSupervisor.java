@@ -0,0 +1,145 @@
+package melo.com.androidsocket.socket;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.utils.HashedWheelTimer;
+
+/**
+ * TCP 断线重连调度，按对端记录重试次数。
+ * <p>
+ * 第 n 次重试的等待时间在 [0, min(maxDelay, baseDelay * 2^n)] 内随机（full jitter），
+ * 热点重启后大量设备不会在同一时刻一起重连。
+ */
+public class ReconnectSupervisor {
+
+    public static final long DEFAULT_BASE_DELAY = 500;
+    public static final long DEFAULT_MAX_DELAY = 30 * 1000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    private final HashedWheelTimer timer;
+    private final Callback callback;
+    private final ConcurrentMap<String, Attempt> attempts = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    private volatile long baseDelay = DEFAULT_BASE_DELAY;
+    private volatile long maxDelay = DEFAULT_MAX_DELAY;
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    public interface Callback {
+        /**
+         * 到达重连时间，在时间轮线程中回调
+         *
+         * @param attempt 第几次重试，从 1 开始
+         */
+        void onReconnect(String ip, int port, int attempt);
+    }
+
+    public ReconnectSupervisor(HashedWheelTimer timer, Callback callback) {
+        this.timer = timer;
+        this.callback = callback;
+    }
+
+    /**
+     * @param baseDelayMs 首次重试的最大等待时间
+     * @param maxDelayMs  等待时间上限
+     * @param maxAttempts 连续失败多少次后放弃，0 表示不重连
+     */
+    public void setPolicy(long baseDelayMs, long maxDelayMs, int maxAttempts) {
+        this.baseDelay = baseDelayMs;
+        this.maxDelay = maxDelayMs;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * 为断开的对端安排下一次重连
+     *
+     * @return 重试次数已用完返回 false，调用方应回到 UDP 广播发现
+     */
+    public boolean scheduleReconnect(final String ip, final int port) {
+        final String key = ConnectionRegistry.key(ip, port);
+        Attempt attempt = attempts.get(key);
+        if (attempt == null) {
+            attempt = new Attempt();
+            Attempt existing = attempts.putIfAbsent(key, attempt);
+            if (existing != null) {
+                attempt = existing;
+            }
+        }
+        synchronized (attempt) {
+            if (attempt.count >= maxAttempts) {
+                attempts.remove(key, attempt);
+                return false;
+            }
+            if (attempt.timeout != null && !attempt.timeout.isExpired() && !attempt.timeout.isCancelled()) {
+                // 已经在等待重连
+                return true;
+            }
+            final int count = ++attempt.count;
+            attempt.timeout = timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onReconnect(ip, port, count);
+                }
+            }, computeDelay(count), TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * 连接成功后清零重试次数
+     */
+    public void onConnected(String ip, int port) {
+        Attempt attempt = attempts.remove(ConnectionRegistry.key(ip, port));
+        if (attempt != null) {
+            attempt.cancel();
+        }
+    }
+
+    /**
+     * @return 该对端是否正在退避等待中，此时收到的广播不应立即重连
+     */
+    public boolean isPending(String ip, int port) {
+        Attempt attempt = attempts.get(ConnectionRegistry.key(ip, port));
+        if (attempt == null) {
+            return false;
+        }
+        synchronized (attempt) {
+            return attempt.timeout != null && !attempt.timeout.isExpired() && !attempt.timeout.isCancelled();
+        }
+    }
+
+    public void cancel(String ip, int port) {
+        onConnected(ip, port);
+    }
+
+    public void cancelAll() {
+        for (String key : attempts.keySet()) {
+            Attempt attempt = attempts.remove(key);
+            if (attempt != null) {
+                attempt.cancel();
+            }
+        }
+    }
+
+    long computeDelay(int attempt) {
+        long cap = baseDelay << Math.min(attempt - 1, 30);
+        if (cap <= 0 || cap > maxDelay) {
+            cap = maxDelay;
+        }
+        return (long) (random.nextDouble() * cap);
+    }
+
+    private static final class Attempt {
+        int count;
+        HashedWheelTimer.Timeout timeout;
+
+        synchronized void cancel() {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+}
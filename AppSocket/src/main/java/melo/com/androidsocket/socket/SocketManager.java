@@ -3,14 +3,27 @@ package melo.com.androidsocket.socket;
 import android.content.Context;
 import android.text.TextUtils;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import melo.com.androidsocket.bean.Users;
+import melo.com.androidsocket.codec.JsonFieldReader;
 import melo.com.androidsocket.common.Config;
 import melo.com.androidsocket.listener.OnConnectionStateListener;
-import melo.com.androidsocket.listener.OnMessageReceiveListener;
+import melo.com.androidsocket.listener.OnPacketReceiveListener;
+import melo.com.androidsocket.listener.OnPeerConnectionListener;
+import melo.com.androidsocket.metrics.MetricsSnapshot;
+import melo.com.androidsocket.metrics.SocketMetrics;
+import melo.com.androidsocket.socket.tcp.NioSelectorEngine;
 import melo.com.androidsocket.socket.tcp.TCPSocket;
 import melo.com.androidsocket.socket.udp.UDPSocket;
+import melo.com.androidsocket.socket.udp.UdpPacket;
+import melo.com.androidsocket.transport.NetTransport;
+import melo.com.androidsocket.transport.Transport;
 
 /**
  * Created by melo on 2017/11/27.
@@ -20,11 +33,55 @@ public class SocketManager {
 
     private static volatile SocketManager instance = null;
     private UDPSocket udpSocket;
-    private TCPSocket tcpSocket;
+    private final ConnectionRegistry registry = new ConnectionRegistry(Config.MAX_TCP_CONNECTIONS);
+    private final List<OnPeerConnectionListener> peerListeners = new CopyOnWriteArrayList<>();
+    // 按对端保存指标，重连后继续累计
+    private final ConcurrentMap<String, SocketMetrics> peerMetrics = new ConcurrentHashMap<>();
+    private final ReconnectSupervisor reconnectSupervisor;
+    private final PeerCache peerCache = new PeerCache(Config.PEER_CACHE_SIZE, Config.PEER_TTL);
+    // 只注册一次，重复调用 startUdpConnection 不会重复处理广播
+    private final OnPacketReceiveListener udpPacketListener = new OnPacketReceiveListener() {
+        @Override
+        public void onPacketReceived(UdpPacket packet) {
+            handleUdpMessage(packet);
+        }
+    };
     private Context mContext;
+    private final Transport transport;
+    // UDP、TCP 和重连共用的线程和定时器
+    private final SocketRuntime runtime;
+    private NioSelectorEngine mEngine;
+    private int udpReceiveShards = 1;
 
     private SocketManager(Context context) {
-        mContext = context.getApplicationContext();
+        this(context.getApplicationContext(), NetTransport.getDefault());
+    }
+
+    /**
+     * 创建独立于单例的实例，用于测试或在同一进程中模拟多台设备
+     *
+     * @param context   可以为 null
+     * @param transport 传入 MemoryTransport 时 UDP 广播和 TCP 连接都在模拟网络上进行
+     */
+    public SocketManager(Context context, Transport transport) {
+        this(context, transport, SocketRuntime.getDefault());
+    }
+
+    /**
+     * @param context   可以为 null
+     * @param transport 传入 MemoryTransport 时 UDP 广播和 TCP 连接都在模拟网络上进行
+     * @param runtime   连接、心跳和重连使用的线程和定时器，测试中传入独立的运行时，结束后 shutdown 即可回收
+     */
+    public SocketManager(Context context, Transport transport, SocketRuntime runtime) {
+        mContext = context;
+        this.transport = transport;
+        this.runtime = runtime;
+        reconnectSupervisor = new ReconnectSupervisor(runtime.getTimer(), new ReconnectSupervisor.Callback() {
+            @Override
+            public void onReconnect(String ip, int port, int attempt) {
+                connectTcp(ip, port);
+            }
+        });
     }
 
     public static SocketManager getInstance(Context context) {
@@ -40,84 +97,275 @@ public class SocketManager {
         return instance;
     }
 
+    /**
+     * 设置后新建的 TCP 连接都跑在该 NIO 引擎上，传 null 恢复阻塞模式
+     *
+     * @param engine
+     */
+    public void setNioSelectorEngine(NioSelectorEngine engine) {
+        if (engine != null && !(transport instanceof NetTransport)) {
+            throw new IllegalStateException("NIO 引擎只支持系统 socket");
+        }
+        this.mEngine = engine;
+    }
+
+    /**
+     * 设置 UDP 广播处理的分片数，按发送方地址并行处理，需在 startUdpConnection 之前调用
+     *
+     * @param shards
+     */
+    public void setUdpReceiveShards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive");
+        }
+        this.udpReceiveShards = shards;
+    }
+
+    /**
+     * 设置最多同时维持的 TCP 连接数，达到上限后停止 UDP 广播
+     *
+     * @param maxConnections
+     */
+    public void setMaxTcpConnections(int maxConnections) {
+        registry.setMaxConnections(maxConnections);
+    }
+
+    /**
+     * 设置断线重连策略，等待时间为带随机抖动的指数退避
+     *
+     * @param baseDelayMs 首次重试的最大等待时间
+     * @param maxDelayMs  等待时间上限
+     * @param maxAttempts 连续失败多少次后放弃并回到 UDP 广播发现，0 表示不重连
+     */
+    public void setReconnectPolicy(long baseDelayMs, long maxDelayMs, int maxAttempts) {
+        reconnectSupervisor.setPolicy(baseDelayMs, maxDelayMs, maxAttempts);
+    }
+
+    /**
+     * 设置发现表的容量和过期时间
+     *
+     * @param capacity 最多保存的对端数，超出时淘汰最久未访问的
+     * @param ttlMs    多久未收到广播后过期
+     */
+    public void setPeerCacheOptions(int capacity, long ttlMs) {
+        peerCache.setOptions(capacity, ttlMs);
+    }
+
+    /**
+     * @return 通过 UDP 广播发现且未过期的对端
+     */
+    public List<PeerCache.Peer> getDiscoveredPeers() {
+        return peerCache.getAll();
+    }
+
+    public void addOnPeerConnectionListener(OnPeerConnectionListener listener) {
+        peerListeners.add(listener);
+    }
+
+    public void removeOnPeerConnectionListener(OnPeerConnectionListener listener) {
+        peerListeners.remove(listener);
+    }
+
+    /**
+     * @return 指定对端的连接，不存在时返回 null
+     */
+    public TCPSocket getTcpSocket(String ip, int port) {
+        return registry.get(ip, port);
+    }
+
+    /**
+     * @return 当前所有连接的快照
+     */
+    public List<TCPSocket> getTcpSockets() {
+        return registry.getAll();
+    }
+
+    /**
+     * 向所有已连接的对端发送消息
+     *
+     * @return 成功加入写队列的连接数
+     */
+    public int broadcastTcpMessage(String message) {
+        return registry.broadcast(message);
+    }
+
+    /**
+     * @return UDP 以及每个出现过的 TCP 对端的指标快照
+     */
+    public List<MetricsSnapshot> getMetricsSnapshots() {
+        List<MetricsSnapshot> snapshots = new ArrayList<>();
+        UDPSocket udp = udpSocket;
+        if (udp != null) {
+            snapshots.add(udp.getMetrics().snapshot());
+        }
+        for (SocketMetrics metrics : peerMetrics.values()) {
+            snapshots.add(metrics.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return 指定对端的指标，从未连接过时返回 null
+     */
+    public SocketMetrics getPeerMetrics(String ip, int port) {
+        return peerMetrics.get(ConnectionRegistry.key(ip, port));
+    }
+
+    /**
+     * 网络发生变化时调用（例如在 CONNECTIVITY_ACTION 广播中），丢弃缓存的广播地址
+     */
+    public void onNetworkChanged() {
+        transport.invalidateBroadcastAddress();
+    }
+
     public void startUdpConnection() {
         if (udpSocket == null) {
-            udpSocket = new UDPSocket(mContext);
+            udpSocket = new UDPSocket(mContext, runtime, transport);
+            udpSocket.setReceiveShards(udpReceiveShards);
         }
 
-        // 注册接收消息的接口
-        udpSocket.addOnMessageReceiveListener(new OnMessageReceiveListener() {
-            @Override
-            public void onMessageReceived(String message) {
-                handleUdpMessage(message);
-            }
-        });
+        // 注册接收消息的接口，直接在数据包字节上读取字段，不解码整条消息
+        udpSocket.addOnPacketReceiveListener(udpPacketListener);
 
         udpSocket.startUDPSocket();
 
     }
 
     /**
-     * 处理 udp 收到的消息
+     * 处理 udp 收到的消息。已知对端且连接仍在或正在重连时只刷新发现表，不再解析和连接
      *
-     * @param message
+     * @param packet
      */
-    private void handleUdpMessage(String message) {
+    private void handleUdpMessage(UdpPacket packet) {
+        InetAddress sender = packet.getAddress();
+        PeerCache.Peer peer = peerCache.touch(sender);
+        if (peer != null && isTracked(peer.getTcpIp(), peer.getTcpPort())) {
+            return;
+        }
+        // 只扫描到需要的字段为止
+        JsonFieldReader reader = new JsonFieldReader(packet.getData(), packet.getOffset(), packet.getLength());
+        String ip = reader.optString(Config.TCP_IP);
+        if (TextUtils.isEmpty(ip)) {
+            return;
+        }
+        String port = reader.optString(Config.TCP_PORT);
+        int portNumber;
         try {
-            JSONObject jsonObject = new JSONObject(message);
-            String ip = jsonObject.optString(Config.TCP_IP);
-            String port = jsonObject.optString(Config.TCP_PORT);
-            if (!TextUtils.isEmpty(ip) && !TextUtils.isEmpty(port)) {
-                startTcpConnection(ip, port);
-            }
-        } catch (JSONException e) {
+            portNumber = Integer.parseInt(port);
+        } catch (NumberFormatException e) {
             e.printStackTrace();
+            return;
+        }
+        peerCache.update(sender, readUser(reader, sender), ip, portNumber);
+        if (isTracked(ip, portNumber)) {// 已连接，或退避等待中由重连调度负责
+            return;
         }
+        connectTcp(ip, portNumber);
+    }
+
+    private boolean isTracked(String ip, int port) {
+        return registry.contains(ip, port) || reconnectSupervisor.isPending(ip, port);
     }
 
     /**
-     * 开始 TCP 连接
+     * 读取广播中携带的设备信息
+     */
+    private static Users readUser(JsonFieldReader reader, InetAddress sender) {
+        Users user = new Users();
+        user.setIp(sender.getHostAddress());
+        user.setImei(reader.optString(Config.IMEI));
+        user.setDevice(reader.optString(Config.DEVICE));
+        user.setSoftVersion((int) reader.optLong(Config.SOFT_VERSION, 0));
+        user.setRomVersion((int) reader.optLong(Config.ROM_VERSION, 0));
+        return user;
+    }
+
+    /**
+     * 建立到指定对端的 TCP 连接
      *
      * @param ip
-     * @param port
+     * @param portNumber
      */
-    private void startTcpConnection(String ip, String port) {
-        if (tcpSocket == null) {// 保证收到消息后，只创建一次
-            tcpSocket = new TCPSocket(mContext);
-            tcpSocket.startTcpSocket(ip, port);
+    private void connectTcp(final String ip, final int portNumber) {
+        if (registry.contains(ip, portNumber)) {// 同一个对端只创建一次
+            return;
+        }
+        final TCPSocket tcpSocket = mEngine != null ? new TCPSocket(mContext, runtime, mEngine) : new TCPSocket(mContext, runtime, transport);
+        if (!registry.register(ip, portNumber, tcpSocket)) {
+            tcpSocket.stopTcpConnection();
+            return;
+        }
+        tcpSocket.setMetrics(obtainPeerMetrics(ip, portNumber));
 
-            tcpSocket.setOnConnectionStateListener(new OnConnectionStateListener() {
-                @Override
-                public void onSuccess() {// tcp 创建成功
+        tcpSocket.setOnConnectionStateListener(new OnConnectionStateListener() {
+            @Override
+            public void onSuccess() {// tcp 创建成功
+                reconnectSupervisor.onConnected(ip, portNumber);
+                if (registry.isFull() && udpSocket != null) {
                     udpSocket.stopHeartbeatTimer();
                 }
+                for (OnPeerConnectionListener listener : peerListeners) {
+                    listener.onPeerConnected(ip, portNumber);
+                }
+            }
 
-                @Override
-                public void onFailed(int errorCode) {// tcp 异常处理
-                    switch (errorCode) {
-                        case Config.ErrorCode.CREATE_TCP_ERROR:
-                            break;
-                        case Config.ErrorCode.PING_TCP_TIMEOUT:
-                            udpSocket.startHeartbeatTimer();
-                            tcpSocket = null;
-                            break;
-                    }
+            @Override
+            public void onFailed(int errorCode) {// tcp 异常处理，按退避策略重连最后一次已知的地址
+                tcpSocket.stopTcpConnection();
+                if (!registry.unregister(ip, portNumber, tcpSocket)) {
+                    return;
+                }
+                for (OnPeerConnectionListener listener : peerListeners) {
+                    listener.onPeerDisconnected(ip, portNumber, errorCode);
+                }
+                reconnectSupervisor.scheduleReconnect(ip, portNumber);
+                // 连接数已低于上限，恢复 UDP 广播：既能发现新的对端，也能在重连的对端更换地址后重新找到它
+                if (udpSocket != null) {
+                    udpSocket.startHeartbeatTimer();
                 }
-            });
+            }
+        });
+        tcpSocket.startTcpSocket(ip, String.valueOf(portNumber));
+    }
+
+    /**
+     * 获取对端的指标对象，已存在说明是重连
+     */
+    private SocketMetrics obtainPeerMetrics(String ip, int port) {
+        String key = ConnectionRegistry.key(ip, port);
+        SocketMetrics metrics = peerMetrics.get(key);
+        if (metrics != null) {
+            metrics.onReconnect();
+            return metrics;
         }
+        metrics = new SocketMetrics("tcp/" + key);
+        SocketMetrics existing = peerMetrics.putIfAbsent(key, metrics);
+        return existing != null ? existing : metrics;
+    }
 
+    /**
+     * 断开与指定对端的连接
+     */
+    public void stopTcpConnection(String ip, int port) {
+        reconnectSupervisor.cancel(ip, port);
+        TCPSocket tcpSocket = registry.get(ip, port);
+        if (tcpSocket != null && registry.unregister(ip, port, tcpSocket)) {
+            tcpSocket.stopTcpConnection();
+            // 空出了位置，恢复 UDP 广播以便发现其他对端
+            if (udpSocket != null) {
+                udpSocket.startHeartbeatTimer();
+            }
+        }
     }
 
     public void stopSocket() {
-        udpSocket.stopUDPSocket();
-        tcpSocket.stopTcpConnection();
-
         if (udpSocket != null) {
+            udpSocket.stopUDPSocket();
             udpSocket = null;
         }
-        if (tcpSocket != null) {
-            tcpSocket = null;
-        }
+        reconnectSupervisor.cancelAll();
+        registry.closeAll();
+        peerCache.clear();
     }
 
 }
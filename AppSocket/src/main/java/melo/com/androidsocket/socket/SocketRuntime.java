@@ -0,0 +1,200 @@
+package melo.com.androidsocket.socket;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import melo.com.androidsocket.buffer.BufferPool;
+import melo.com.androidsocket.common.Config;
+import melo.com.androidsocket.socket.tcp.NioSelectorEngine;
+import melo.com.androidsocket.utils.HashedWheelTimer;
+
+/**
+ * 进程内所有 TCPSocket / UDPSocket 共用的线程，不再为每个对象创建线程池。
+ * <p>
+ * <ul>
+ * <li>事件循环：NioSelectorEngine 的 I/O 线程，首次使用时创建</li>
+ * <li>工作线程：固定数量，执行监听回调和短小的发送任务，队列满时拒绝，由提交方计入丢弃数，不占用接收或定时器线程</li>
+ * <li>阻塞 I/O 线程：按需创建、空闲回收，用于阻塞模式的收发循环和分块传输这类长时间占用线程的任务。
+ * 每条阻塞模式的连接占两个，每个进行中的分块传输再占一个；达到上限后拒绝，连接或传输直接失败，不排队等待</li>
+ * <li>定时器：运行时自己的 HashedWheelTimer，随运行时关闭</li>
+ * <li>缓冲区：共享的 BufferPool</li>
+ * </ul>
+ * 所有线程都是守护线程。需要调整大小时在创建任何 socket 之前调用 setDefault。
+ */
+public class SocketRuntime {
+
+    public static final int DEFAULT_EVENT_LOOPS = 1;
+    public static final int DEFAULT_WORKER_QUEUE_CAPACITY = 1024;
+    // 足够 Config.MAX_TCP_CONNECTIONS 条阻塞模式的连接，另留一些给 UDP 接收和分块传输
+    public static final int DEFAULT_MAX_BLOCKING_THREADS = 2 * Config.MAX_TCP_CONNECTIONS + 64;
+    // 阻塞 I/O 线程空闲多久后回收
+    private static final long IO_KEEP_ALIVE_SECONDS = 60;
+
+    private static volatile SocketRuntime defaultRuntime = null;
+
+    private final int eventLoops;
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor blockingIo;
+    private final HashedWheelTimer timer;
+    private NioSelectorEngine engine;
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param eventLoops          NIO 事件循环线程数
+     * @param workerThreads       工作线程数
+     * @param workerQueueCapacity 工作线程的任务队列容量
+     */
+    public SocketRuntime(int eventLoops, int workerThreads, int workerQueueCapacity) {
+        this(eventLoops, workerThreads, workerQueueCapacity, DEFAULT_MAX_BLOCKING_THREADS);
+    }
+
+    /**
+     * @param eventLoops          NIO 事件循环线程数
+     * @param workerThreads       工作线程数
+     * @param workerQueueCapacity 工作线程的任务队列容量
+     * @param maxBlockingThreads  阻塞 I/O 线程数上限
+     */
+    public SocketRuntime(int eventLoops, int workerThreads, int workerQueueCapacity, int maxBlockingThreads) {
+        if (eventLoops <= 0 || workerThreads <= 0 || workerQueueCapacity <= 0 || maxBlockingThreads <= 0) {
+            throw new IllegalArgumentException("eventLoops, workerThreads, workerQueueCapacity and maxBlockingThreads must be positive");
+        }
+        this.eventLoops = eventLoops;
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(workerQueueCapacity), new NamedThreadFactory("SocketWorker"),
+                new ThreadPoolExecutor.AbortPolicy());
+        // 没有排队，每个任务都有自己的线程，线程数到上限时拒绝，见类注释
+        this.blockingIo = new ThreadPoolExecutor(0, maxBlockingThreads, IO_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory("SocketIo"), new ThreadPoolExecutor.AbortPolicy());
+        this.timer = new HashedWheelTimer();
+    }
+
+    /**
+     * 获取进程内共享的运行时，默认一个事件循环、与 CPU 核数相同的工作线程
+     */
+    public static SocketRuntime getDefault() {
+        if (defaultRuntime == null) {
+            synchronized (SocketRuntime.class) {
+                if (defaultRuntime == null) {
+                    int cpuNumbers = Runtime.getRuntime().availableProcessors();
+                    defaultRuntime = new SocketRuntime(DEFAULT_EVENT_LOOPS, Math.max(2, cpuNumbers), DEFAULT_WORKER_QUEUE_CAPACITY);
+                }
+            }
+        }
+        return defaultRuntime;
+    }
+
+    /**
+     * 替换共享的运行时，只影响之后创建的 socket，原来的运行时需自行 shutdown
+     */
+    public static void setDefault(SocketRuntime runtime) {
+        synchronized (SocketRuntime.class) {
+            defaultRuntime = runtime;
+        }
+    }
+
+    /**
+     * 事件循环，首次调用时创建
+     */
+    public synchronized NioSelectorEngine getEventLoopGroup() {
+        if (shutdown) {
+            throw new IllegalStateException("SocketRuntime 已关闭");
+        }
+        if (engine == null || engine.isShutdown()) {
+            try {
+                engine = new NioSelectorEngine(eventLoops);
+            } catch (IOException e) {
+                throw new IllegalStateException("无法创建 Selector", e);
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * 执行回调等短小任务，不要在其中做阻塞读写。队列满时 execute 抛出 RejectedExecutionException
+     */
+    public ExecutorService getWorkers() {
+        return workers;
+    }
+
+    /**
+     * 执行长时间阻塞的任务，每个任务占用一个线程，结束后线程回收复用。
+     * 线程数达到上限或运行时已关闭时 execute 抛出 RejectedExecutionException
+     */
+    public ExecutorService getBlockingExecutor() {
+        return blockingIo;
+    }
+
+    /**
+     * 心跳、请求超时和重连延时使用的定时器，运行时关闭后不再执行任务
+     */
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    public BufferPool getBufferPool() {
+        return BufferPool.getDefault();
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * 关闭事件循环及其上的连接，工作线程执行完已提交的任务后退出，阻塞 I/O 线程被中断，定时器停止。
+     * 共享的运行时被关闭后，下次 getDefault 会重新创建。
+     */
+    public void shutdown() {
+        NioSelectorEngine toClose;
+        synchronized (this) {
+            shutdown = true;
+            toClose = engine;
+            engine = null;
+        }
+        if (toClose != null) {
+            toClose.shutdown();
+        }
+        workers.shutdown();
+        blockingIo.shutdownNow();
+        timer.stop();
+        synchronized (SocketRuntime.class) {
+            if (defaultRuntime == this) {
+                defaultRuntime = null;
+            }
+        }
+    }
+
+    /**
+     * 等待工作线程和阻塞 I/O 线程退出
+     *
+     * @return 超时仍未全部退出时返回 false
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!workers.awaitTermination(timeout, unit)) {
+            return false;
+        }
+        return blockingIo.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package melo.com.androidsocket.socket.tcp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.buffer.PooledBuffer;
+import melo.com.androidsocket.transport.StreamConnection;
+
+/**
+ * 阻塞模式下的单线程写出器。
+ * <p>
+ * 发送方只负责入队，写线程每次醒来把队列中已有的帧合并成一次聚集写，
+ * 队列满时发送方最多等待 offerTimeout，超时则发送失败。
+ * <p>
+ * 队列中也可以是 FileRegion，它不参与合并，在前面的批次写完后单独通过 transferTo 写出。
+ * <p>
+ * 出队顺序由 SendLanes 决定，控制消息总是排在下一批的最前面。每批的字节数也有上限，
+ * 控制消息最多等待正在写出的一批，不会排在整个队列的批量数据之后。
+ * <p>
+ * 帧的所有权随 offer 交给写出器，写出、丢弃或入队失败后都由写出器 release。
+ * <p>
+ * 写出失败时写线程停止，丢弃队列中剩余的帧，再通过 Callback 通知连接的持有者关闭连接。
+ */
+class BatchWriter implements Runnable {
+
+    private static final String TAG = "BatchWriter";
+
+    // 队列为空时的轮询间隔，用于及时响应 stop
+    private static final long IDLE_POLL_MILLIS = 500;
+    // 一次聚集写最多合并的字节数，超过后先写出，让新到的控制消息插到下一批
+    private static final long MAX_BATCH_BYTES = 64 * 1024;
+
+    private final StreamConnection channel;
+    private final SendLanes queue;
+    private final Callback callback;
+    private final ByteBuffer[] batch;
+    // batch 中各帧所属的缓冲区，写完后释放
+    private final PooledBuffer[] owners;
+    // 凑批时取出的 FileRegion，等当前批次写完后再写
+    private FileRegion pendingRegion;
+    private final long maxBatchDelayNanos;
+    private volatile boolean running = true;
+
+    /**
+     * @param channel         阻塞模式的连接
+     * @param queue           各优先级的写队列
+     * @param maxBatchSize    一次聚集写最多包含的帧数
+     * @param maxBatchDelayMs 凑批最多等待的时间，0 表示只合并已经在队列中的帧
+     * @param callback        写出失败时在写线程中回调
+     */
+    BatchWriter(StreamConnection channel, SendLanes queue, int maxBatchSize, long maxBatchDelayMs, Callback callback) {
+        this.channel = channel;
+        this.queue = queue;
+        this.callback = callback;
+        this.batch = new ByteBuffer[maxBatchSize];
+        this.owners = new PooledBuffer[maxBatchSize];
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMs);
+    }
+
+    /**
+     * @param frame         处于读模式，失败时同样会被释放
+     * @param timeoutMillis 队列满时最多等待的时间，0 表示不等待，心跳等不能阻塞调用线程的发送使用
+     * @return 该优先级的队列已满且等待超时返回 false
+     */
+    boolean offer(PooledBuffer frame, SendPriority priority, long timeoutMillis) {
+        return enqueue(frame, priority, timeoutMillis);
+    }
+
+    boolean offer(FileRegion region, SendPriority priority, long timeoutMillis) {
+        return enqueue(region, priority, timeoutMillis);
+    }
+
+    private boolean enqueue(Object item, SendPriority priority, long timeoutMillis) {
+        if (!running) {
+            discard(item);
+            return false;
+        }
+        try {
+            if (!queue.offer(item, priority, TimeUnit.MILLISECONDS.toNanos(timeoutMillis))) {
+                discard(item);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard(item);
+            return false;
+        }
+        if (!running) {
+            // 写线程可能已在入队前清空队列并退出，留在队列里的缓冲区不会再被释放
+            queue.clear();
+            return false;
+        }
+        return true;
+    }
+
+    private static void discard(Object item) {
+        if (item instanceof PooledBuffer) {
+            ((PooledBuffer) item).release();
+        }
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        IOException failure = null;
+        try {
+            while (running) {
+                Object first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                if (first instanceof FileRegion) {
+                    ((FileRegion) first).writeTo(channel);
+                    continue;
+                }
+                int count = fillBatch((PooledBuffer) first);
+                writeBatch(count);
+                if (pendingRegion != null) {
+                    FileRegion region = pendingRegion;
+                    pendingRegion = null;
+                    region.writeTo(channel);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(TAG, "tcp 写出失败，写线程停止");
+            e.printStackTrace();
+            failure = e;
+        } finally {
+            running = false;
+            // 未写完的文件片段直接丢弃，连接关闭后所属的传输会失败并关闭文件
+            pendingRegion = null;
+            // 凑批时被中断，已取出的帧还没写出
+            releaseBatch(owners.length);
+            queue.clear();
+        }
+        if (failure != null && callback != null) {
+            callback.onWriteFailed(failure);
+        }
+    }
+
+    private int fillBatch(PooledBuffer first) throws InterruptedException {
+        int count = 0;
+        add(count++, first);
+        long bytes = batch[0].remaining();
+        Object next;
+        while (count < batch.length && bytes < MAX_BATCH_BYTES && (next = queue.poll()) != null) {
+            if (next instanceof FileRegion) {
+                pendingRegion = (FileRegion) next;
+                return count;
+            }
+            add(count, (PooledBuffer) next);
+            bytes += batch[count++].remaining();
+        }
+        if (maxBatchDelayNanos > 0) {
+            long deadline = System.nanoTime() + maxBatchDelayNanos;
+            while (count < batch.length && bytes < MAX_BATCH_BYTES) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                    break;
+                }
+                if (next instanceof FileRegion) {
+                    pendingRegion = (FileRegion) next;
+                    return count;
+                }
+                add(count, (PooledBuffer) next);
+                bytes += batch[count++].remaining();
+            }
+        }
+        return count;
+    }
+
+    private void add(int index, PooledBuffer frame) {
+        owners[index] = frame;
+        batch[index] = frame.buffer();
+    }
+
+    private void writeBatch(int count) throws IOException {
+        try {
+            int offset = 0;
+            while (offset < count) {
+                channel.write(batch, offset, count - offset);
+                while (offset < count && !batch[offset].hasRemaining()) {
+                    offset++;
+                }
+            }
+        } finally {
+            releaseBatch(count);
+        }
+    }
+
+    private void releaseBatch(int count) {
+        for (int i = 0; i < count; i++) {
+            if (owners[i] != null) {
+                owners[i].release();
+                owners[i] = null;
+                batch[i] = null;
+            }
+        }
+    }
+
+    /**
+     * 写出失败的通知
+     */
+    interface Callback {
+        void onWriteFailed(IOException e);
+    }
+}
@@ -0,0 +1,98 @@
+package melo.com.androidsocket.socket.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import melo.com.androidsocket.buffer.BufferPool;
+import melo.com.androidsocket.buffer.PooledBuffer;
+import melo.com.androidsocket.transport.StreamConnection;
+
+/**
+ * 由帧头和文件中的一段组成的帧，文件部分通过 transferTo 直接写入 socket，不经过用户态缓冲区
+ */
+class FileRegion {
+
+    // transferTo 没有进展时改为读出再写入，每次读取的字节数
+    private static final int COPY_CHUNK = 8 * 1024;
+
+    final ByteBuffer header;
+    final FileChannel file;
+    final long position;
+    final long count;
+
+    FileRegion(ByteBuffer header, FileChannel file, long position, long count) {
+        this.header = header;
+        this.file = file;
+        this.position = position;
+        this.count = count;
+    }
+
+    long length() {
+        return header.remaining() + count;
+    }
+
+    /**
+     * 在阻塞模式的连接上完整写出
+     *
+     * @throws EOFException 文件比这一段短，例如发送过程中被截断
+     */
+    void writeTo(StreamConnection channel) throws IOException {
+        if (file.size() < position + count) {
+            throw new EOFException("文件在发送过程中被截断");
+        }
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        long offset = position;
+        long remaining = count;
+        while (remaining > 0) {
+            long written = channel.transferFrom(file, offset, remaining);
+            if (written <= 0) {
+                // 不能原地重试，否则会一直空转；改为普通读写，每轮要么有进展要么抛出 EOFException
+                written = copy(channel, offset, remaining);
+            }
+            offset += written;
+            remaining -= written;
+        }
+    }
+
+    private long copy(StreamConnection channel, long offset, long remaining) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(remaining, COPY_CHUNK));
+        int read = file.read(buffer, offset);
+        if (read <= 0) {
+            throw new EOFException("文件在发送过程中被截断");
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return read;
+    }
+
+    /**
+     * 读入池中的一个完整缓冲区，用于不支持 transferTo 的非阻塞写出。缓冲区是直接内存时文件内容不经过堆，
+     * 长度超过 BufferPool.MAX_CHUNK_SIZE 时退回堆内缓冲区，TransferManager 的默认块大小保证不会超过
+     */
+    PooledBuffer toBuffer(BufferPool pool) throws IOException {
+        PooledBuffer pooled = pool.allocate((int) length());
+        try {
+            ByteBuffer buffer = pooled.buffer();
+            buffer.put(header.duplicate());
+            long offset = position;
+            while (buffer.hasRemaining()) {
+                int read = file.read(buffer, offset);
+                if (read < 0) {
+                    throw new EOFException("文件在发送过程中被截断");
+                }
+                offset += read;
+            }
+            buffer.flip();
+            return pooled;
+        } catch (IOException e) {
+            pooled.release();
+            throw e;
+        }
+    }
+}
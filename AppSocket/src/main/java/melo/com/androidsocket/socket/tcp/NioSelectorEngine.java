@@ -0,0 +1,281 @@
+package melo.com.androidsocket.socket.tcp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import melo.com.androidsocket.buffer.BufferPool;
+import melo.com.androidsocket.buffer.PooledBuffer;
+import melo.com.androidsocket.socket.SocketRuntime;
+
+/**
+ * 基于 Selector 的非阻塞 TCP 引擎，少量 I/O 线程即可承载大量连接。
+ * <p>
+ * 每个 I/O 线程持有一个 Selector，新连接按轮询方式分配到各线程上，
+ * 连接上的读写回调都在其所属的 I/O 线程中执行，回调里不要做耗时操作。
+ */
+public class NioSelectorEngine {
+
+    private static final String TAG = "NioSelectorEngine";
+
+    // 每个 I/O 线程复用的读缓冲区大小，从 BufferPool 分配直接内存
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param ioThreads I/O 线程数，一般 1 个即可
+     */
+    public NioSelectorEngine(int ioThreads) throws IOException {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("ioThreads must be positive: " + ioThreads);
+        }
+        loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop("NioSelectorEngine-" + i);
+            loops[i].start();
+        }
+    }
+
+    /**
+     * 获取进程内共享的引擎，即 SocketRuntime 的事件循环
+     */
+    public static NioSelectorEngine getDefault() {
+        return SocketRuntime.getDefault().getEventLoopGroup();
+    }
+
+    /**
+     * 发起非阻塞连接，结果通过 callback 回调
+     *
+     * @param ip
+     * @param port
+     * @param callback
+     * @return 连接会话，连接完成前也可以调用 close 取消
+     */
+    public NioSession connect(String ip, int port, Callback callback) {
+        NioSession session = newSession(callback);
+        connect(session, ip, port);
+        return session;
+    }
+
+    /**
+     * 创建尚未连接的会话，分配到某个 I/O 线程。调用方可以先设置写队列参数并保存引用，再调用 connect，
+     * 这样 onConnected 中看到的会话已经配置完毕
+     *
+     * @param callback
+     */
+    NioSession newSession(Callback callback) {
+        IoLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        return new NioSession(loop, callback);
+    }
+
+    /**
+     * 在会话所属的 I/O 线程中发起非阻塞连接，结果通过会话的 callback 回调
+     *
+     * @param session 由 newSession 创建，每个会话只能连接一次
+     */
+    void connect(final NioSession session, final String ip, final int port) {
+        final IoLoop loop = session.loop;
+        final Callback callback = session.callback;
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                SocketChannel channel = null;
+                try {
+                    channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.socket().setKeepAlive(true);
+                    channel.socket().setTcpNoDelay(true);
+                    channel.socket().setReuseAddress(true);
+                    session.channel = channel;
+                    if (channel.connect(new InetSocketAddress(ip, port))) {
+                        session.key = channel.register(loop.selector, SelectionKey.OP_READ, session);
+                        callback.onConnected(session);
+                        session.flush();
+                    } else {
+                        session.key = channel.register(loop.selector, SelectionKey.OP_CONNECT, session);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "tcp 连接失败：" + ip + ":" + port);
+                    session.closeQuietly();
+                    callback.onConnectFailed(session, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 关闭所有 I/O 线程以及其上的连接
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (IoLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * 连接事件回调，均在 I/O 线程中执行
+     */
+    public interface Callback {
+        void onConnected(NioSession session);
+
+        void onConnectFailed(NioSession session, IOException e);
+
+        /**
+         * @param buffer 处于读模式的复用缓冲区，仅在回调内有效
+         */
+        void onRead(NioSession session, ByteBuffer buffer);
+
+        void onClosed(NioSession session);
+    }
+
+    /**
+     * 单个 Selector 线程
+     */
+    static final class IoLoop extends Thread {
+
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // 只在本线程中使用，线程退出时归还
+        private PooledBuffer readBuffer;
+        private volatile boolean running = true;
+
+        IoLoop(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            if (Thread.currentThread() == this) {
+                task.run();
+                return;
+            }
+            tasks.offer(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            readBuffer = BufferPool.getDefault().allocate(READ_BUFFER_SIZE);
+            try {
+                loop();
+            } finally {
+                readBuffer.release();
+                readBuffer = null;
+            }
+        }
+
+        private void loop() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    Log.e(TAG, "select 失败，线程停止");
+                    e.printStackTrace();
+                    break;
+                }
+                runTasks();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    processKey(key);
+                }
+            }
+            closeAll();
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void processKey(SelectionKey key) {
+            NioSession session = (NioSession) key.attachment();
+            if (!key.isValid()) {
+                session.close();
+                return;
+            }
+            try {
+                if (key.isConnectable()) {
+                    try {
+                        session.channel.finishConnect();
+                    } catch (IOException e) {
+                        session.closeQuietly();
+                        session.callback.onConnectFailed(session, e);
+                        return;
+                    }
+                    key.interestOps(SelectionKey.OP_READ);
+                    session.callback.onConnected(session);
+                    session.flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    ByteBuffer buffer = readBuffer.buffer();
+                    buffer.clear();
+                    int read = session.channel.read(buffer);
+                    if (read < 0) {
+                        session.close();
+                        return;
+                    }
+                    if (read > 0) {
+                        buffer.flip();
+                        session.callback.onRead(session, buffer);
+                    }
+                }
+                if (key.isValid() && key.isWritable()) {
+                    session.flush();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                session.close();
+            } catch (RuntimeException e) {
+                // 解码或监听器抛出的异常只关闭这一个连接，不能让共享的 I/O 线程退出
+                Log.e(TAG, "处理连接事件失败，关闭连接");
+                e.printStackTrace();
+                session.close();
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof NioSession) {
+                    ((NioSession) attachment).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
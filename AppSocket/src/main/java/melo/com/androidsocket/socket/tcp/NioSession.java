@@ -0,0 +1,222 @@
+package melo.com.androidsocket.socket.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import melo.com.androidsocket.buffer.PooledBuffer;
+
+/**
+ * NioSelectorEngine 上的一条 TCP 连接。
+ * <p>
+ * 写出的数据按 SendPriority 分队列，每次聚集写按 SendLanes 的调度顺序取出，并限制字节数，
+ * 控制消息最多等待已经取出的一批写完。写完、关闭或入队失败的 PooledBuffer 都在这里 release。
+ */
+public class NioSession {
+
+    final NioSelectorEngine.IoLoop loop;
+    final NioSelectorEngine.Callback callback;
+    SocketChannel channel;
+    SelectionKey key;
+
+    // 一次聚集写最多取出的字节数，与 BatchWriter 一致
+    private static final long MAX_GATHER_BYTES = 64 * 1024;
+
+    private final SendLanes writeQueue = new SendLanes();
+    // 已入队但尚未写出的帧数，包括已取出但没写完的
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile int maxBatchSize = TCPSocket.DEFAULT_MAX_BATCH_SIZE;
+    // 以下仅在 I/O 线程中使用
+    private ByteBuffer[] gather = new ByteBuffer[TCPSocket.DEFAULT_MAX_BATCH_SIZE];
+    // gather 中各帧所属的缓冲区
+    private PooledBuffer[] owners = new PooledBuffer[TCPSocket.DEFAULT_MAX_BATCH_SIZE];
+    private int gatherCount = 0;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            try {
+                flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                close();
+            }
+        }
+    };
+
+    NioSession(NioSelectorEngine.IoLoop loop, NioSelectorEngine.Callback callback) {
+        this.loop = loop;
+        this.callback = callback;
+    }
+
+    /**
+     * 设置各优先级的队列容量、权重和单次聚集写的最大帧数
+     */
+    void setWriteLimits(int[] laneCapacities, int[] laneWeights, int maxBatchSize) {
+        writeQueue.setOptions(laneCapacities, laneWeights);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 以 INTERACTIVE 优先级写出
+     */
+    public boolean write(ByteBuffer buffer) {
+        return write(buffer, SendPriority.INTERACTIVE);
+    }
+
+    /**
+     * 异步写出数据，可在任意线程调用。同一次唤醒内入队的数据会合并成一次聚集写。
+     *
+     * @param buffer 处于读模式的缓冲区，调用后不要再修改
+     * @return 连接已关闭或该优先级的队列已满时返回 false
+     */
+    public boolean write(ByteBuffer buffer, SendPriority priority) {
+        return write(PooledBuffer.wrap(buffer), priority);
+    }
+
+    /**
+     * 写出池中的缓冲区，所有权交给会话，失败时同样会被释放
+     */
+    boolean write(PooledBuffer buffer, SendPriority priority) {
+        if (closed.get()) {
+            buffer.release();
+            return false;
+        }
+        // 先计数，避免 I/O 线程在入队后立即写出时计数暂时为负
+        queuedCount.incrementAndGet();
+        boolean queued;
+        try {
+            // I/O 线程不能阻塞，队列满时直接拒绝
+            queued = writeQueue.offer(buffer, priority, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued) {
+            queuedCount.decrementAndGet();
+            buffer.release();
+            return false;
+        }
+        if (closed.get()) {
+            // 关闭任务可能已在入队前清空过队列
+            writeQueue.clear();
+            queuedCount.decrementAndGet();
+            return false;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushTask);
+        }
+        return true;
+    }
+
+    public int getQueuedWrites() {
+        return queuedCount.get();
+    }
+
+    public boolean isOpen() {
+        return !closed.get() && channel != null && channel.isConnected();
+    }
+
+    /**
+     * 将队列中的数据一次性聚集写出，写不完则关注 OP_WRITE 等待下次可写
+     */
+    void flush() throws IOException {
+        if (key == null || !key.isValid() || !channel.isConnected()) {
+            return;
+        }
+        if (gatherCount == 0 && gather.length != maxBatchSize) {
+            gather = new ByteBuffer[maxBatchSize];
+            owners = new PooledBuffer[maxBatchSize];
+        }
+        while (true) {
+            long bytes = 0;
+            for (int i = 0; i < gatherCount; i++) {
+                bytes += gather[i].remaining();
+            }
+            Object buffer;
+            while (gatherCount < gather.length && bytes < MAX_GATHER_BYTES && (buffer = writeQueue.poll()) != null) {
+                owners[gatherCount] = (PooledBuffer) buffer;
+                gather[gatherCount] = owners[gatherCount].buffer();
+                bytes += gather[gatherCount++].remaining();
+            }
+            if (gatherCount == 0) {
+                break;
+            }
+            channel.write(gather, 0, gatherCount);
+            int written = 0;
+            while (written < gatherCount && !gather[written].hasRemaining()) {
+                written++;
+            }
+            if (written > 0) {
+                for (int i = 0; i < written; i++) {
+                    owners[i].release();
+                }
+                System.arraycopy(gather, written, gather, 0, gatherCount - written);
+                System.arraycopy(owners, written, owners, 0, gatherCount - written);
+                for (int i = gatherCount - written; i < gatherCount; i++) {
+                    gather[i] = null;
+                    owners[i] = null;
+                }
+                gatherCount -= written;
+                queuedCount.addAndGet(-written);
+            }
+            if (gatherCount > 0) {
+                // 发送缓冲区已满，等待下次可写
+                break;
+            }
+        }
+        if (gatherCount == 0) {
+            key.interestOps(SelectionKey.OP_READ);
+        } else {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * 关闭连接，可在任意线程调用
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeQuietly();
+                callback.onClosed(NioSession.this);
+            }
+        });
+    }
+
+    /**
+     * 关闭通道并释放尚未写出的数据，不回调 onClosed，只能在 I/O 线程中调用
+     */
+    void closeQuietly() {
+        closed.set(true);
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        // 标记关闭之后再清空，之后入队的一方会自己清空
+        writeQueue.clear();
+        for (int i = 0; i < gatherCount; i++) {
+            owners[i].release();
+            owners[i] = null;
+            gather[i] = null;
+        }
+        gatherCount = 0;
+        queuedCount.set(0);
+    }
+}
@@ -0,0 +1,167 @@
+package melo.com.androidsocket.socket.tcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import melo.com.androidsocket.listener.OnRpcResponseListener;
+import melo.com.androidsocket.utils.HashedWheelTimer;
+
+/**
+ * 一次请求的结果，由 TCPSocket.sendRequest 创建。
+ * <p>
+ * 可以阻塞等待 get，也可以 addListener 异步回调，结果只会被设置一次
+ */
+public class RpcFuture implements Future<byte[]> {
+
+    private final RpcManager manager;
+    private final int id;
+
+    // 以下字段均在 this 上同步
+    private boolean done;
+    private byte[] response;
+    private Exception failure;
+    private List<OnRpcResponseListener> listeners;
+    private HashedWheelTimer.Timeout timeout;
+
+    RpcFuture(RpcManager manager, int id) {
+        this.manager = manager;
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * 添加结果回调，已完成时立即在当前线程中回调
+     */
+    public void addListener(OnRpcResponseListener listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    /**
+     * 取消请求，对端仍可能处理该请求，但其回复会被忽略
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!manager.remove(id, this)) {
+            return false;
+        }
+        return fail(new CancellationException("请求已取消"));
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return failure instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public byte[] get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (!done) {
+                wait();
+            }
+            return report();
+        }
+    }
+
+    @Override
+    public byte[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (!done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return report();
+        }
+    }
+
+    synchronized void setTimeout(HashedWheelTimer.Timeout timeout) {
+        if (done) {
+            timeout.cancel();
+        } else {
+            this.timeout = timeout;
+        }
+    }
+
+    boolean complete(byte[] response) {
+        return finish(response, null);
+    }
+
+    boolean fail(Exception e) {
+        return finish(null, e);
+    }
+
+    private boolean finish(byte[] response, Exception failure) {
+        List<OnRpcResponseListener> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            this.response = response;
+            this.failure = failure;
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        if (toNotify != null) {
+            for (OnRpcResponseListener listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+        return true;
+    }
+
+    private void notifyListener(OnRpcResponseListener listener) {
+        // done 之后 response 和 failure 不再变化
+        byte[] result;
+        Exception error;
+        synchronized (this) {
+            result = response;
+            error = failure;
+        }
+        if (error == null) {
+            listener.onResponse(result);
+        } else {
+            listener.onFailure(error);
+        }
+    }
+
+    private byte[] report() throws ExecutionException {
+        if (failure instanceof CancellationException) {
+            throw (CancellationException) failure;
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,171 @@
+package melo.com.androidsocket.socket.tcp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import melo.com.androidsocket.listener.OnRpcRequestListener;
+import melo.com.androidsocket.utils.HashedWheelTimer;
+
+/**
+ * 在一条 TCP 连接上收发请求和回复。
+ * <p>
+ * 帧以 0x00 'Q' 开头，后跟一个字节的类型和 4 字节的请求号：
+ * <pre>
+ * REQUEST  id(4) 数据
+ * RESPONSE id(4) 数据
+ * ERROR    id(4) 错误信息(UTF-8)
+ * </pre>
+ * 用户消息开头的 0x00 会被转义，不会被误认为请求或回复，见 InternalFrames。
+ * 请求号由发起方分配，回复按请求号对应，多个请求可以同时在途，回复的顺序不限。
+ * 超时由共享的时间轮管理，不占用额外线程。
+ */
+class RpcManager {
+
+    private static final String TAG = "RpcManager";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte MAGIC_0 = 0x00;
+    private static final byte MAGIC_1 = 'Q';
+
+    private static final byte TYPE_REQUEST = 1;
+    private static final byte TYPE_RESPONSE = 2;
+    private static final byte TYPE_ERROR = 3;
+
+    // magic(2) + type(1) + id(4)
+    private static final int HEADER_LENGTH = 7;
+
+    private final TCPSocket socket;
+    // 请求超时使用所属 socket 的运行时定时器
+    private final HashedWheelTimer timer;
+    private final ConcurrentMap<Integer, RpcFuture> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile OnRpcRequestListener requestListener;
+    private volatile boolean closed;
+
+    RpcManager(TCPSocket socket, HashedWheelTimer timer) {
+        this.socket = socket;
+        this.timer = timer;
+    }
+
+    static boolean isRpcFrame(ByteBuffer frame) {
+        int position = frame.position();
+        return frame.remaining() >= HEADER_LENGTH && frame.get(position) == MAGIC_0 && frame.get(position + 1) == MAGIC_1;
+    }
+
+    void setRequestListener(OnRpcRequestListener listener) {
+        this.requestListener = listener;
+    }
+
+    /**
+     * @return 在途的请求数
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    RpcFuture send(byte[] payload, long timeoutMs) {
+        int id;
+        RpcFuture future;
+        do {
+            id = nextId.incrementAndGet();
+            future = new RpcFuture(this, id);
+        } while (pending.putIfAbsent(id, future) != null);
+        if (closed) {
+            // 与 close 并发时可能漏掉刚放入的请求，这里补上
+            fail(id, new IOException("连接已断开"));
+            return future;
+        }
+        final int timeoutId = id;
+        future.setTimeout(timer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                fail(timeoutId, new TimeoutException("请求超时"));
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS));
+        if (!socket.sendInternalMessage(encode(TYPE_REQUEST, id, payload), SendPriority.INTERACTIVE)) {
+            fail(id, new IOException("连接未建立或写队列已满"));
+        }
+        return future;
+    }
+
+    boolean sendResponse(int id, byte[] response) {
+        return socket.sendInternalMessage(encode(TYPE_RESPONSE, id, response), SendPriority.INTERACTIVE);
+    }
+
+    boolean sendError(int id, String message) {
+        return socket.sendInternalMessage(encode(TYPE_ERROR, id, message == null ? new byte[0] : message.getBytes(UTF_8)), SendPriority.INTERACTIVE);
+    }
+
+    /**
+     * 只有仍在等待中的请求才能被移除，用于保证结果只设置一次
+     */
+    boolean remove(int id, RpcFuture future) {
+        return pending.remove(id, future);
+    }
+
+    /**
+     * 连接断开时让所有在途的请求失败
+     */
+    void close() {
+        closed = true;
+        for (Integer id : pending.keySet()) {
+            fail(id, new IOException("连接已断开"));
+        }
+    }
+
+    /**
+     * 处理收到的请求帧，在接收线程中调用
+     */
+    void handleFrame(ByteBuffer frame) {
+        ByteBuffer in = frame.duplicate();
+        in.position(in.position() + 2);
+        byte type = in.get();
+        int id = in.getInt();
+        byte[] body = new byte[in.remaining()];
+        in.get(body);
+        switch (type) {
+            case TYPE_REQUEST:
+                OnRpcRequestListener listener = requestListener;
+                RpcRequest request = new RpcRequest(this, id, body);
+                if (listener == null) {
+                    request.fail("对端没有处理请求的监听");
+                } else {
+                    listener.onRequest(request);
+                }
+                break;
+            case TYPE_RESPONSE:
+                RpcFuture future = pending.remove(id);
+                if (future != null) {
+                    future.complete(body);
+                }
+                break;
+            case TYPE_ERROR:
+                fail(id, new IOException("对端处理失败：" + new String(body, UTF_8)));
+                break;
+            default:
+                Log.w(TAG, "未知的请求帧类型：" + type);
+                break;
+        }
+    }
+
+    private void fail(int id, Exception e) {
+        RpcFuture future = pending.remove(id);
+        if (future != null) {
+            future.fail(e);
+        }
+    }
+
+    private static byte[] encode(byte type, int id, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        buffer.put(MAGIC_0).put(MAGIC_1).put(type).putInt(id).put(payload);
+        return buffer.array();
+    }
+}
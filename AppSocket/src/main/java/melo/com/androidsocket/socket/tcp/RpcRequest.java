@@ -0,0 +1,46 @@
+package melo.com.androidsocket.socket.tcp;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 对端发来的一次请求，可在任意线程中回复，只有第一次回复有效
+ */
+public class RpcRequest {
+
+    private final RpcManager manager;
+    private final int id;
+    private final byte[] payload;
+    private final AtomicBoolean replied = new AtomicBoolean();
+
+    RpcRequest(RpcManager manager, int id, byte[] payload) {
+        this.manager = manager;
+        this.id = id;
+        this.payload = payload;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return 是否成功加入写队列，已回复过时返回 false
+     */
+    public boolean reply(byte[] response) {
+        return replied.compareAndSet(false, true) && manager.sendResponse(id, response);
+    }
+
+    /**
+     * 告知对端处理失败，对端的请求会以 IOException 结束
+     */
+    public boolean fail(String message) {
+        return replied.compareAndSet(false, true) && manager.sendError(id, message);
+    }
+
+    public boolean isReplied() {
+        return replied.get();
+    }
+}
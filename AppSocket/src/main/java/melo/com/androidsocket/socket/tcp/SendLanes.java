@@ -0,0 +1,214 @@
+package melo.com.androidsocket.socket.tcp;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import melo.com.androidsocket.buffer.PooledBuffer;
+
+/**
+ * 按 SendPriority 分开的多条写队列，BatchWriter 和 NioSession 共用。
+ * <p>
+ * 控制队列严格优先，只要其中有消息就先取出；普通和批量两条队列按字节数做加权轮转（DRR），
+ * 每轮各自获得 QUANTUM * 权重 的额度，批量数据再多也只能占用自己那份带宽。
+ * 每条队列有独立的容量上限，批量数据塞满自己的队列不会挤占其他队列。
+ * <p>
+ * 队列中是 PooledBuffer 或 FileRegion，clear 时释放还没取出的 PooledBuffer。所有方法在同一把锁上同步，可在任意线程调用。
+ */
+class SendLanes {
+
+    static final int DEFAULT_CONTROL_CAPACITY = 64;
+    static final int DEFAULT_BULK_CAPACITY = 64;
+    static final int DEFAULT_INTERACTIVE_WEIGHT = 4;
+    static final int DEFAULT_BULK_WEIGHT = 1;
+
+    // 每轮的基本额度，与传输的默认分块大小相当
+    private static final int QUANTUM = 16 * 1024;
+
+    private static final int CONTROL = SendPriority.CONTROL.ordinal();
+    private static final int LANE_COUNT = SendPriority.values().length;
+
+    private final ArrayDeque<Object>[] lanes;
+    private final int[] capacity = new int[LANE_COUNT];
+    private final int[] weight = new int[LANE_COUNT];
+    // 各队列剩余的额度，只用于普通和批量队列
+    private final long[] deficit = new long[LANE_COUNT];
+    // 当前轮到的队列以及它在本轮是否已领取额度
+    private int cursor = CONTROL + 1;
+    private boolean granted = false;
+    private int size = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SendLanes() {
+        lanes = new ArrayDeque[LANE_COUNT];
+        for (int i = 0; i < LANE_COUNT; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+        capacity[CONTROL] = DEFAULT_CONTROL_CAPACITY;
+        capacity[SendPriority.INTERACTIVE.ordinal()] = TCPSocket.DEFAULT_WRITE_QUEUE_CAPACITY;
+        capacity[SendPriority.BULK.ordinal()] = DEFAULT_BULK_CAPACITY;
+        weight[SendPriority.INTERACTIVE.ordinal()] = DEFAULT_INTERACTIVE_WEIGHT;
+        weight[SendPriority.BULK.ordinal()] = DEFAULT_BULK_WEIGHT;
+    }
+
+    /**
+     * @param capacities 各优先级的队列容量，按 SendPriority 的顺序
+     * @param weights    各优先级的权重，CONTROL 的权重不使用
+     */
+    void setOptions(int[] capacities, int[] weights) {
+        lock.lock();
+        try {
+            for (int i = 0; i < LANE_COUNT; i++) {
+                if (capacities[i] <= 0 || (i != CONTROL && weights[i] <= 0)) {
+                    throw new IllegalArgumentException("lane capacity and weight must be positive");
+                }
+                capacity[i] = capacities[i];
+                weight[i] = weights[i];
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param timeoutNanos 队列满时最多等待的时间，0 表示不等待
+     * @return 队列已满且等待超时返回 false
+     */
+    boolean offer(Object item, SendPriority priority, long timeoutNanos) throws InterruptedException {
+        int index = priority.ordinal();
+        lock.lock();
+        try {
+            ArrayDeque<Object> lane = lanes[index];
+            while (lane.size() >= capacity[index]) {
+                if (timeoutNanos <= 0) {
+                    return false;
+                }
+                timeoutNanos = notFull.awaitNanos(timeoutNanos);
+            }
+            lane.offerLast(item);
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按调度顺序取出下一条，不等待
+     */
+    Object poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按调度顺序取出下一条，队列为空时最多等待 timeout
+     */
+    Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size(SendPriority priority) {
+        lock.lock();
+        try {
+            return lanes[priority.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            for (ArrayDeque<Object> lane : lanes) {
+                Object item;
+                while ((item = lane.pollFirst()) != null) {
+                    if (item instanceof PooledBuffer) {
+                        ((PooledBuffer) item).release();
+                    }
+                }
+            }
+            size = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object next() {
+        if (!lanes[CONTROL].isEmpty()) {
+            return take(CONTROL);
+        }
+        // size > 0 且控制队列为空时，普通或批量队列必有一条非空，额度累计足够后一定能取出
+        while (true) {
+            ArrayDeque<Object> lane = lanes[cursor];
+            if (lane.isEmpty()) {
+                // 空闲的队列不积攒额度
+                deficit[cursor] = 0;
+                advance();
+                continue;
+            }
+            if (!granted) {
+                deficit[cursor] += (long) QUANTUM * weight[cursor];
+                granted = true;
+            }
+            long length = lengthOf(lane.peekFirst());
+            if (deficit[cursor] >= length) {
+                deficit[cursor] -= length;
+                return take(cursor);
+            }
+            advance();
+        }
+    }
+
+    private Object take(int index) {
+        Object item = lanes[index].pollFirst();
+        size--;
+        notFull.signalAll();
+        return item;
+    }
+
+    private void advance() {
+        cursor = cursor + 1 < LANE_COUNT ? cursor + 1 : CONTROL + 1;
+        granted = false;
+    }
+
+    static long lengthOf(Object item) {
+        if (item instanceof FileRegion) {
+            return ((FileRegion) item).length();
+        }
+        return ((PooledBuffer) item).buffer().remaining();
+    }
+}
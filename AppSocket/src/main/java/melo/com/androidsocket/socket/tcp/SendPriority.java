@@ -0,0 +1,19 @@
+package melo.com.androidsocket.socket.tcp;
+
+/**
+ * 发送通道的优先级，每个优先级有独立的写队列
+ */
+public enum SendPriority {
+    /**
+     * 心跳、压缩协商、传输的确认和取消等控制消息，总是最先写出
+     */
+    CONTROL,
+    /**
+     * 普通消息和请求/回复，默认的优先级
+     */
+    INTERACTIVE,
+    /**
+     * 文件和流传输的数据块
+     */
+    BULK
+}
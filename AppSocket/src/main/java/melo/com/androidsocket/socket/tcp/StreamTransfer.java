@@ -0,0 +1,165 @@
+package melo.com.androidsocket.socket.tcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+import melo.com.androidsocket.listener.OnTransferListener;
+
+/**
+ * 一次向对端发送文件或流的传输，由 TCPSocket.sendFile / sendStream 创建
+ */
+public class StreamTransfer {
+
+    private final long id;
+    private final String name;
+    private final long length;
+    final FileChannel file;
+    final InputStream stream;
+    final OnTransferListener listener;
+
+    // 以下字段由传输线程和接收线程共同访问，均在 this 上同步
+    private long startOffset = -1;
+    private int window;
+    private long acknowledged;
+    private boolean rejected;
+    private boolean cancelled;
+    private boolean remoteCancelled;
+    private boolean done;
+
+    StreamTransfer(long id, String name, long length, FileChannel file, InputStream stream, OnTransferListener listener) {
+        this.id = id;
+        this.name = name;
+        this.length = length;
+        this.file = file;
+        this.stream = stream;
+        this.listener = listener;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return 对端已确认收到的字节数
+     */
+    public synchronized long getAcknowledged() {
+        return acknowledged;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 取消传输，对端会收到取消通知
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    synchronized void onAccepted(long startOffset, int window) {
+        this.startOffset = startOffset;
+        this.window = window;
+        this.acknowledged = startOffset;
+        notifyAll();
+    }
+
+    synchronized void onRejected() {
+        rejected = true;
+        notifyAll();
+    }
+
+    synchronized void onRemoteCancelled() {
+        remoteCancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * @return 确认数是否有前进
+     */
+    synchronized boolean onAcknowledged(long acknowledged) {
+        if (acknowledged <= this.acknowledged) {
+            return false;
+        }
+        this.acknowledged = acknowledged;
+        notifyAll();
+        return true;
+    }
+
+    synchronized void markDone() {
+        done = true;
+    }
+
+    synchronized boolean isRemoteCancelled() {
+        return remoteCancelled;
+    }
+
+    synchronized int getWindow() {
+        return window;
+    }
+
+    /**
+     * 等待对端接受
+     *
+     * @return 对端要求的起始位置
+     */
+    synchronized long awaitAccepted(long timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (startOffset < 0) {
+            checkState();
+            if (rejected) {
+                throw new IOException("对端拒绝接收");
+            }
+            waitUntil(deadline, "等待对端接受超时");
+        }
+        return startOffset;
+    }
+
+    /**
+     * 等待已发出但未确认的字节数小于 inFlight，超过 timeoutMillis 确认数都没有前进则失败
+     */
+    synchronized void awaitAcknowledged(long sent, long inFlight, long timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long last = acknowledged;
+        while (sent - acknowledged >= inFlight) {
+            checkState();
+            if (acknowledged != last) {
+                last = acknowledged;
+                deadline = System.currentTimeMillis() + timeoutMillis;
+            }
+            waitUntil(deadline, "等待对端确认超时");
+        }
+    }
+
+    synchronized void checkState() throws IOException {
+        if (cancelled) {
+            throw new IOException("传输已取消");
+        }
+        if (remoteCancelled) {
+            throw new IOException("对端取消了传输");
+        }
+    }
+
+    private void waitUntil(long deadline, String timeoutMessage) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new IOException(timeoutMessage);
+        }
+        try {
+            wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("传输线程被中断");
+        }
+    }
+}
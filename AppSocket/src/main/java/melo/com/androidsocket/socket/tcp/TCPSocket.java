@@ -3,23 +3,43 @@ package melo.com.androidsocket.socket.tcp;
 import android.content.Context;
 import android.util.Log;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
+import melo.com.androidsocket.buffer.BufferPool;
+import melo.com.androidsocket.buffer.PooledBuffer;
+import melo.com.androidsocket.codec.AbstractFrameCodec;
+import melo.com.androidsocket.codec.FrameCodec;
+import melo.com.androidsocket.codec.InternalFrames;
+import melo.com.androidsocket.codec.LengthPrefixedFrameCodec;
+import melo.com.androidsocket.codec.LineFrameCodec;
+import melo.com.androidsocket.codec.Messages;
+import melo.com.androidsocket.codec.PayloadCompressor;
 import melo.com.androidsocket.common.Config;
+import melo.com.androidsocket.listener.OnBinaryMessageReceiveListener;
 import melo.com.androidsocket.listener.OnConnectionStateListener;
+import melo.com.androidsocket.listener.OnMessageReceiveListener;
+import melo.com.androidsocket.listener.OnRpcRequestListener;
+import melo.com.androidsocket.listener.OnTransferListener;
+import melo.com.androidsocket.listener.OnTransferReceiveListener;
+import melo.com.androidsocket.metrics.SocketMetrics;
+import melo.com.androidsocket.socket.SocketRuntime;
+import melo.com.androidsocket.transport.NetTransport;
+import melo.com.androidsocket.transport.StreamConnection;
+import melo.com.androidsocket.transport.Transport;
+import melo.com.androidsocket.utils.HashedWheelTimer;
+import melo.com.androidsocket.utils.HeartbeatPolicy;
 import melo.com.androidsocket.utils.HeartbeatTimer;
 
 /**
@@ -31,46 +51,217 @@ public class TCPSocket {
     private static final String TAG = "TCPSocket";
 
     private Context mContext;
+    // 阻塞模式下连接、接收和写线程所在的线程池，由 SocketRuntime 共享；NIO 模式下只执行可能阻塞的磁盘写入
     private ExecutorService mThreadPool;
-    private Socket mSocket;
-    private BufferedReader br;
-    private PrintWriter pw;
+    // 阻塞模式下建立连接，NIO 模式只支持系统 socket
+    private final Transport transport;
+    // 读缓冲区和发送的帧从池中分配直接内存
+    private final BufferPool mBufferPool;
+    // 心跳和请求超时使用运行时的定时器
+    private final HashedWheelTimer mTimer;
+    private StreamConnection mChannel;
+    private BatchWriter mWriter;
     private HeartbeatTimer timer;
-    private long lastReceiveTime = 0;
+    // 最近一次从 socket 读到数据的时间，用于统计分发延迟
+    private long lastReadNanos = 0;
+    // 何时发 ping、何时判定对端下线
+    private HeartbeatPolicy mHeartbeat = new HeartbeatPolicy();
+    private SocketMetrics mMetrics;
 
     private OnConnectionStateListener mListener;
+    private final List<OnMessageReceiveListener> messageReceiveList = new CopyOnWriteArrayList<>();
+    private final List<OnBinaryMessageReceiveListener> binaryReceiveList = new CopyOnWriteArrayList<>();
+
+    // 非空时使用 NIO 引擎，否则沿用每个连接独占线程的阻塞模式
+    private NioSelectorEngine mEngine;
+    private volatile NioSession mSession;
+    // 分帧方式，默认按行分帧以兼容旧版本
+    private FrameCodec mCodec = new LineFrameCodec();
+    // 大数据分块传输，分帧方式为长度前缀时才可用
+    private TransferManager mTransfers;
+    // 请求/回复，分帧方式为长度前缀时才可用
+    private RpcManager mRpc;
+    // 消息压缩，为 null 时不压缩；收到对端的握手后才开始压缩发送
+    private PayloadCompressor mCompressor;
+    private volatile boolean compressionAgreed = false;
+    private volatile boolean dictionaryAgreed = false;
+
+    private final FrameCodec.FrameHandler frameHandler = new FrameCodec.FrameHandler() {
+        @Override
+        public void onFrame(ByteBuffer frame) {
+            handleReceiveTcpFrame(frame);
+        }
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // 阻塞模式下接收线程复用的缓冲区大小
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    // 写队列默认容量、单次聚集写的帧数、凑批等待时间和队列满时发送方的等待时间
+    public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+    public static final long DEFAULT_MAX_BATCH_DELAY = 0;
+    public static final long DEFAULT_SEND_TIMEOUT = 1000;
+
+    // 各优先级的写队列容量和权重，按 SendPriority 的顺序
+    private final int[] laneCapacities = {SendLanes.DEFAULT_CONTROL_CAPACITY, DEFAULT_WRITE_QUEUE_CAPACITY, SendLanes.DEFAULT_BULK_CAPACITY};
+    private final int[] laneWeights = {0, SendLanes.DEFAULT_INTERACTIVE_WEIGHT, SendLanes.DEFAULT_BULK_WEIGHT};
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long maxBatchDelay = DEFAULT_MAX_BATCH_DELAY;
+    private long sendTimeout = DEFAULT_SEND_TIMEOUT;
+    // 内核发送缓冲区大小，0 表示使用系统默认
+    private int sendBufferSize = 0;
 
-    private static final long TIME_OUT = 15 * 1000;
-    private static final long HEARTBEAT_MESSAGE_DURATION = 2 * 1000;
 
 
     public TCPSocket(Context context) {
+        this(context, SocketRuntime.getDefault());
+    }
+
+    /**
+     * 使用阻塞模式，每条连接在运行时的阻塞 I/O 线程中占用一个接收线程和一个写线程
+     *
+     * @param context
+     * @param runtime
+     */
+    public TCPSocket(Context context, SocketRuntime runtime) {
+        this(context, runtime, NetTransport.getDefault());
+    }
+
+    /**
+     * 使用阻塞模式，通过 transport 建立连接
+     *
+     * @param context
+     * @param runtime
+     * @param transport 传入 MemoryTransport 时连接模拟网络中的设备
+     */
+    public TCPSocket(Context context, SocketRuntime runtime, Transport transport) {
         this.mContext = context;
+        this.transport = transport;
+        this.mBufferPool = runtime.getBufferPool();
+        this.mTimer = runtime.getTimer();
+        mThreadPool = runtime.getBlockingExecutor();
+        setMetrics(new SocketMetrics("tcp"));
+    }
+
+    /**
+     * 使用 NIO 引擎收发数据，不再为连接单独创建线程池
+     *
+     * @param context
+     * @param engine  可多个 TCPSocket 共享
+     */
+    public TCPSocket(Context context, NioSelectorEngine engine) {
+        this(context, SocketRuntime.getDefault(), engine);
+    }
 
-        int cpuNumbers = Runtime.getRuntime().availableProcessors();
-        // 根据CPU数目初始化线程池
-        mThreadPool = Executors.newFixedThreadPool(cpuNumbers * Config.POOL_SIZE);
-        // 记录创建对象时的时间
-        lastReceiveTime = System.currentTimeMillis();
+    /**
+     * 使用 NIO 引擎收发数据，定时器和可能阻塞的任务使用 runtime
+     *
+     * @param context
+     * @param runtime
+     * @param engine  可多个 TCPSocket 共享
+     */
+    public TCPSocket(Context context, SocketRuntime runtime, NioSelectorEngine engine) {
+        this.mContext = context;
+        this.transport = NetTransport.getDefault();
+        this.mBufferPool = runtime.getBufferPool();
+        this.mTimer = runtime.getTimer();
+        // 只用于分块传输这类可能阻塞的操作，收发仍在引擎的 I/O 线程中
+        this.mThreadPool = runtime.getBlockingExecutor();
+        this.mEngine = engine;
+        setMetrics(new SocketMetrics("tcp"));
     }
 
     public void startTcpSocket(final String ip, final String port) {
-        mThreadPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                if (startTcpConnection(ip, Integer.valueOf(port))) {// 尝试建立 TCP 连接
-                    if (mListener != null) {
-                        mListener.onSuccess();
+        if (mEngine != null) {
+            startNioTcpSocket(ip, Integer.valueOf(port));
+            return;
+        }
+        try {
+            mThreadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (startTcpConnection(ip, Integer.valueOf(port))) {// 尝试建立 TCP 连接
+                        // 先启动写线程，保证 onSuccess 中即可发送消息
+                        if (!startWriteTcpThread()) {
+                            return;
+                        }
+                        sendCompressionHello();
+                        if (mListener != null) {
+                            mListener.onSuccess();
+                        }
+                        if (startReceiveTcpThread()) {
+                            startHeartbeatTimer();
+                        }
+                    } else {
+                        if (mListener != null) {
+                            mListener.onFailed(Config.ErrorCode.CREATE_TCP_ERROR);
+                        }
                     }
-                    startReceiveTcpThread();
-                    startHeartbeatTimer();
-                } else {
-                    if (mListener != null) {
-                        mListener.onFailed(Config.ErrorCode.CREATE_TCP_ERROR);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "运行时已关闭或阻塞 I/O 线程已满，无法建立 tcp 连接");
+            if (mListener != null) {
+                mListener.onFailed(Config.ErrorCode.CREATE_TCP_ERROR);
+            }
+        }
+    }
+
+    /**
+     * 通过 NIO 引擎建立连接，读写都在引擎的 I/O 线程中完成
+     */
+    private void startNioTcpSocket(String ip, int port) {
+        NioSession session = mEngine.newSession(new NioSelectorEngine.Callback() {
+            @Override
+            public void onConnected(NioSession session) {
+                Log.d(TAG, "tcp 创建成功...");
+                applySendBufferSize(session.channel.socket());
+                sendCompressionHello();
+                if (mListener != null) {
+                    mListener.onSuccess();
+                }
+                startHeartbeatTimer();
+            }
+
+            @Override
+            public void onConnectFailed(NioSession session, IOException e) {
+                e.printStackTrace();
+                synchronized (TCPSocket.this) {
+                    if (mSession == session) {
+                        mSession = null;
                     }
                 }
+                if (mListener != null) {
+                    mListener.onFailed(Config.ErrorCode.CREATE_TCP_ERROR);
+                }
+            }
+
+            @Override
+            public void onRead(NioSession session, ByteBuffer buffer) {
+                lastReadNanos = System.nanoTime();
+                mMetrics.onReceived(buffer.remaining());
+                try {
+                    mCodec.decode(buffer, frameHandler);
+                } catch (IOException e) {
+                    Log.e(TAG, "tcp 帧解析失败，关闭连接");
+                    e.printStackTrace();
+                    session.close();
+                }
+            }
+
+            @Override
+            public void onClosed(NioSession session) {
+                Log.d(TAG, "tcp 连接已关闭");
+                onConnectionLost(session, Config.ErrorCode.TCP_DISCONNECTED);
             }
         });
+        // 连接任务可能立即在 I/O 线程中执行，先配置好并保存会话，onConnected 中的发送才不会丢失
+        session.setWriteLimits(laneCapacities, laneWeights, maxBatchSize);
+        synchronized (this) {
+            mSession = session;
+        }
+        mEngine.connect(session, ip, port);
     }
 
     public void setOnConnectionStateListener(OnConnectionStateListener listener) {
@@ -78,71 +269,615 @@ public class TCPSocket {
     }
 
     /**
-     * 创建接收线程
+     * 设置分帧方式，需在 startTcpSocket 之前调用，且两端必须一致
+     *
+     * @param codec 每个 TCPSocket 独占一个实例
+     */
+    public void setFrameCodec(FrameCodec codec) {
+        this.mCodec = codec;
+        boolean binary = codec instanceof LengthPrefixedFrameCodec;
+        this.mTransfers = binary ? new TransferManager(this, (LengthPrefixedFrameCodec) codec, mThreadPool, mBufferPool) : null;
+        this.mRpc = binary ? new RpcManager(this, mTimer) : null;
+        if (!binary) {
+            this.mCompressor = null;
+        }
+    }
+
+    /**
+     * 启用消息压缩，需在 setFrameCodec 之后、startTcpSocket 之前调用。
+     * <p>
+     * 连接建立后双方互发握手，只有对端也启用了压缩才会压缩发送，两端字典一致时使用字典。
+     * 未启用压缩的对端仍能正常通信。
+     *
+     * @param compressor 每个 TCPSocket 独占一个实例，为 null 时关闭压缩
+     */
+    public void setCompression(PayloadCompressor compressor) {
+        if (compressor != null && !(mCodec instanceof LengthPrefixedFrameCodec)) {
+            throw new IllegalStateException("压缩需要长度前缀的分帧方式，请先调用 setFrameCodec");
+        }
+        this.mCompressor = compressor;
+    }
+
+    /**
+     * @return 是否已与对端协商好压缩发送
+     */
+    public boolean isCompressionAgreed() {
+        return compressionAgreed;
+    }
+
+    /**
+     * 设置分块传输参数，需在 setFrameCodec 之后调用
+     *
+     * @param chunkSize 每块的字节数，加上 19 字节的块头后不能超过分帧的最大长度；
+     *                  默认值使帧头、块头和数据正好放进 BufferPool 的最大规格，更大的块发送时退回堆内缓冲区
+     * @param window    作为接收方时允许对端未确认的块数
+     */
+    public void setTransferOptions(int chunkSize, int window) {
+        requireTransfers().setOptions(chunkSize, window);
+    }
+
+    /**
+     * 接收对端发来的文件或数据流
      */
-    private void startReceiveTcpThread() {
-        mThreadPool.execute(new Runnable() {
+    public void setOnTransferReceiveListener(OnTransferReceiveListener listener) {
+        requireTransfers().setReceiveListener(listener);
+    }
+
+    /**
+     * 分块发送文件，在独立线程中进行，不阻塞心跳。阻塞模式下文件内容通过 transferTo 直接写入 socket。
+     * 对端接收目标中已有数据时从断点续传。
+     *
+     * @param name     告知对端的名称
+     * @param listener 可为 null
+     */
+    public StreamTransfer sendFile(File file, String name, OnTransferListener listener) throws IOException {
+        TransferManager transfers = requireTransfers();
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        return transfers.send(name, channel.size(), channel, null, listener);
+    }
+
+    /**
+     * 分块发送数据流，续传时会跳过流开头已发送的部分。流在传输结束后被关闭
+     *
+     * @param length 流的总长度
+     */
+    public StreamTransfer sendStream(InputStream stream, long length, String name, OnTransferListener listener) {
+        return requireTransfers().send(name, length, null, stream, listener);
+    }
+
+    private TransferManager requireTransfers() {
+        TransferManager transfers = mTransfers;
+        if (transfers == null) {
+            throw new IllegalStateException("分块传输需要长度前缀的分帧方式，请先调用 setFrameCodec");
+        }
+        return transfers;
+    }
+
+    /**
+     * 发送请求，同一连接上可以同时有多个请求在途，回复按请求号对应
+     *
+     * @param timeoutMs 超过该时间没有收到回复则以 TimeoutException 结束
+     * @return 连接未建立或写队列已满时返回已失败的结果
+     */
+    public RpcFuture sendRequest(byte[] payload, long timeoutMs) {
+        return requireRpc().send(payload, timeoutMs);
+    }
+
+    public RpcFuture sendRequest(String payload, long timeoutMs) {
+        return sendRequest(payload.getBytes(UTF_8), timeoutMs);
+    }
+
+    /**
+     * 处理对端发来的请求，未设置时对端的请求会收到失败回复
+     */
+    public void setOnRpcRequestListener(OnRpcRequestListener listener) {
+        requireRpc().setRequestListener(listener);
+    }
+
+    /**
+     * @return 已发出但还没有结果的请求数
+     */
+    public int getPendingRequestCount() {
+        RpcManager rpc = mRpc;
+        return rpc == null ? 0 : rpc.getPendingCount();
+    }
+
+    private RpcManager requireRpc() {
+        RpcManager rpc = mRpc;
+        if (rpc == null) {
+            throw new IllegalStateException("请求/回复需要长度前缀的分帧方式，请先调用 setFrameCodec");
+        }
+        return rpc;
+    }
+
+    /**
+     * 设置写队列参数，需在 startTcpSocket 之前调用
+     *
+     * @param queueCapacity   INTERACTIVE 写队列容量，满了之后发送方会等待或失败
+     * @param maxBatchSize    一次聚集写最多合并的消息数
+     * @param maxBatchDelayMs 凑批最多等待的毫秒数，0 表示只合并已在队列中的消息，仅阻塞模式有效
+     */
+    public void setWriteOptions(int queueCapacity, int maxBatchSize, long maxBatchDelayMs) {
+        setLaneOptions(SendPriority.INTERACTIVE, queueCapacity, laneWeights[SendPriority.INTERACTIVE.ordinal()]);
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelay = maxBatchDelayMs;
+    }
+
+    /**
+     * 设置某一优先级的写队列，需在 startTcpSocket 之前调用。
+     * CONTROL 总是先写出，不使用权重；INTERACTIVE 和 BULK 同时有数据时按权重分配带宽，默认 4:1。
+     *
+     * @param priority 优先级
+     * @param capacity 队列容量，各优先级独立计算
+     * @param weight   权重
+     */
+    public void setLaneOptions(SendPriority priority, int capacity, int weight) {
+        if (capacity <= 0 || (priority != SendPriority.CONTROL && weight <= 0)) {
+            throw new IllegalArgumentException("capacity and weight must be positive");
+        }
+        laneCapacities[priority.ordinal()] = capacity;
+        laneWeights[priority.ordinal()] = weight;
+    }
+
+    /**
+     * 写队列满时发送方最多等待的毫秒数，仅阻塞模式有效，NIO 模式下队列满会立即失败
+     *
+     * @param timeoutMs
+     */
+    public void setSendTimeout(long timeoutMs) {
+        this.sendTimeout = timeoutMs;
+    }
+
+    /**
+     * 设置内核发送缓冲区大小，需在 startTcpSocket 之前调用。
+     * 写队列的优先级只在进入内核之前起作用，已写入内核缓冲区的数据仍按顺序发出，
+     * 链路带宽低而系统默认的缓冲区很大时，控制消息会在其中排队，调小它可以降低控制消息的延迟，代价是吞吐量。
+     *
+     * @param bytes 0 表示使用系统默认
+     */
+    public void setSendBufferSize(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must not be negative");
+        }
+        this.sendBufferSize = bytes;
+    }
+
+    /**
+     * 替换指标对象，用于同一对端重连后继续累计
+     *
+     * @param metrics
+     */
+    public void setMetrics(SocketMetrics metrics) {
+        metrics.setQueueDepthGauge(new SocketMetrics.Gauge() {
             @Override
-            public void run() {
-                String line = "";
-                try {
-                    while ((line = br.readLine()) != null) {
-                        handleReceiveTcpMessage(line);
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+            public long get() {
+                return getSendQueueSize();
+            }
+        });
+        this.mMetrics = metrics;
+    }
+
+    public SocketMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 接收解码后的文本消息
+     */
+    public void addOnMessageReceiveListener(OnMessageReceiveListener listener) {
+        messageReceiveList.add(listener);
+    }
+
+    public void removeOnMessageReceiveListener(OnMessageReceiveListener listener) {
+        messageReceiveList.remove(listener);
+    }
+
+    /**
+     * 直接接收二进制帧，不做字符解码
+     */
+    public void addOnBinaryMessageReceiveListener(OnBinaryMessageReceiveListener listener) {
+        binaryReceiveList.add(listener);
+    }
+
+    public void removeOnBinaryMessageReceiveListener(OnBinaryMessageReceiveListener listener) {
+        binaryReceiveList.remove(listener);
+    }
+
+    /**
+     * 创建接收线程
+     *
+     * @return 线程池拒绝时关闭连接并通知监听，返回 false
+     */
+    private boolean startReceiveTcpThread() {
+        final StreamConnection channel = mChannel;
+        try {
+            mThreadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readLoop(channel);
                 }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "无法启动 tcp 接收线程，关闭连接");
+            onConnectionLost(channel, Config.ErrorCode.TCP_DISCONNECTED);
+            return false;
+        }
+    }
+
+    private void readLoop(StreamConnection channel) {
+        PooledBuffer readBuffer = mBufferPool.allocate(READ_BUFFER_SIZE);
+        ByteBuffer buffer = readBuffer.buffer();
+        try {
+            int read;
+            while (channel != null && (read = channel.read(buffer)) >= 0) {
+                lastReadNanos = System.nanoTime();
+                mMetrics.onReceived(read);
+                buffer.flip();
+                mCodec.decode(buffer, frameHandler);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            readBuffer.release();
+        }
+        // 对端关闭或读出错；本端主动断开时 mChannel 已被清空，不会重复报告
+        onConnectionLost(channel, Config.ErrorCode.TCP_DISCONNECTED);
+    }
+
+    /**
+     * 创建写线程，所有发送都经由写队列合并后写出
+     *
+     * @return 线程池拒绝时关闭连接并通知监听，返回 false
+     */
+    private boolean startWriteTcpThread() {
+        SendLanes lanes = new SendLanes();
+        lanes.setOptions(laneCapacities, laneWeights);
+        final StreamConnection channel = mChannel;
+        BatchWriter writer = new BatchWriter(channel, lanes, maxBatchSize, maxBatchDelay, new BatchWriter.Callback() {
+            @Override
+            public void onWriteFailed(IOException e) {
+                // 与读线程发现断开走同一流程，进行中的传输随之失败并关闭文件
+                onConnectionLost(channel, Config.ErrorCode.TCP_DISCONNECTED);
             }
         });
+        try {
+            mThreadPool.execute(writer);
+        } catch (RejectedExecutionException e) {
+            // 写线程没有发布出去，不会有数据入队
+            Log.e(TAG, "无法启动 tcp 写线程，关闭连接");
+            onConnectionLost(channel, Config.ErrorCode.CREATE_TCP_ERROR);
+            return false;
+        }
+        mWriter = writer;
+        return true;
+    }
+
+    /**
+     * 处理 tcp 收到的帧，只有注册了文本监听时才做字符解码
+     *
+     * @param frame
+     */
+    private void handleReceiveTcpFrame(ByteBuffer frame) {
+        long now = System.nanoTime();
+        mMetrics.onMessageReceived();
+        mMetrics.recordDispatchLatency(now - lastReadNanos);
+        // 以 ping 发出后收到的第一帧作为对端的回应
+        long rtt = mHeartbeat.onReceived(now);
+        if (rtt >= 0) {
+            mMetrics.recordHeartbeatRtt(rtt);
+        }
+        if (Messages.isPong(frame)) {
+            // 只用于心跳，不交给监听
+            return;
+        }
+        if (Messages.isPing(frame)) {
+            // 立即回应，对端据此测量 RTT，不必等本端自己的心跳
+            sendControlFrame(Messages.pongBytes());
+        }
+        // 只有长度前缀的分帧方式才有内部帧，按行分帧时所有消息都交给监听
+        if (isBinaryFraming()) {
+            if (PayloadCompressor.isCompressionFrame(frame)) {
+                if (PayloadCompressor.isHello(frame)) {
+                    onCompressionHello(frame);
+                    return;
+                }
+                frame = decompress(frame);
+                if (frame == null) {
+                    return;
+                }
+            }
+            if (InternalFrames.isEscaped(frame)) {
+                frame = InternalFrames.unescape(frame);
+            } else if (InternalFrames.isInternal(frame)) {
+                handleInternalFrame(frame);
+                return;
+            }
+        }
+        for (OnBinaryMessageReceiveListener listener : binaryReceiveList) {
+            listener.onBinaryMessageReceived(frame.duplicate());
+        }
+        if (!messageReceiveList.isEmpty()) {
+            String message = decodeText(frame);
+            for (OnMessageReceiveListener listener : messageReceiveList) {
+                listener.onMessageReceived(message);
+            }
+        }
+    }
+
+    /**
+     * 分块传输和请求/回复的帧，本端未启用对应功能时丢弃
+     */
+    private void handleInternalFrame(ByteBuffer frame) {
+        TransferManager transfers = mTransfers;
+        if (transfers != null && TransferManager.isTransferFrame(frame)) {
+            transfers.handleFrame(frame);
+            return;
+        }
+        RpcManager rpc = mRpc;
+        if (rpc != null && RpcManager.isRpcFrame(frame)) {
+            rpc.handleFrame(frame);
+            return;
+        }
+        mMetrics.onDropped();
+        Log.w(TAG, "未知的内部帧类型：" + frame.get(frame.position() + 1));
+    }
+
+    private boolean isBinaryFraming() {
+        return mCodec instanceof LengthPrefixedFrameCodec;
+    }
+
+    /**
+     * 按 UTF-8 解码，读缓冲区是直接内存时先拷贝出来
+     */
+    private static String decodeText(ByteBuffer frame) {
+        if (frame.hasArray()) {
+            return new String(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), UTF_8);
+        }
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void sendCompressionHello() {
+        PayloadCompressor compressor = mCompressor;
+        if (compressor != null) {
+            sendFrame(compressor.hello(), SendPriority.CONTROL);
+        }
+    }
+
+    /**
+     * 对端启用了压缩，字典一致时使用字典
+     */
+    private void onCompressionHello(ByteBuffer frame) {
+        PayloadCompressor compressor = mCompressor;
+        if (compressor == null) {
+            // 本端未启用，对端不会收到握手，也就不会压缩
+            return;
+        }
+        int dictionaryId = PayloadCompressor.readHelloDictionaryId(frame);
+        dictionaryAgreed = dictionaryId != 0 && dictionaryId == compressor.getDictionaryId();
+        compressionAgreed = true;
+        Log.d(TAG, "对端支持压缩，字典" + (dictionaryAgreed ? "一致" : "不可用"));
+    }
+
+    /**
+     * @return 解压失败时返回 null
+     */
+    private ByteBuffer decompress(ByteBuffer frame) {
+        PayloadCompressor compressor = mCompressor;
+        if (compressor == null) {
+            mMetrics.onDropped();
+            Log.w(TAG, "收到压缩消息但本端未启用压缩，丢弃");
+            return null;
+        }
+        int maxLength = mCodec instanceof AbstractFrameCodec ? ((AbstractFrameCodec) mCodec).getMaxFrameLength() : AbstractFrameCodec.DEFAULT_MAX_FRAME_LENGTH;
+        try {
+            return compressor.decompress(frame, maxLength);
+        } catch (IOException e) {
+            mMetrics.onDropped();
+            Log.e(TAG, "消息解压失败，丢弃");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 发送文本消息
+     *
+     * @param message
+     * @return 是否成功加入写队列
+     */
+    public boolean sendTcpMessage(String message) {
+        return sendBinaryMessage(message.getBytes(UTF_8));
+    }
+
+    /**
+     * 发送二进制消息，按当前 FrameCodec 编码成帧后放入写队列，协商好压缩后超过阈值的消息会被压缩
+     *
+     * @param data
+     * @return 是否成功加入写队列，连接未建立或队列已满时返回 false
+     */
+    public boolean sendBinaryMessage(byte[] data) {
+        return sendBinaryMessage(data, SendPriority.INTERACTIVE);
+    }
+
+    /**
+     * 以指定优先级发送二进制消息，不同优先级的消息之间不保证顺序。
+     * 长度前缀的分帧方式下，以 0x00 开头的消息会被转义，对端收到的仍是原消息，见 InternalFrames
+     *
+     * @param data
+     * @param priority 写队列的优先级
+     * @return 是否成功加入写队列，连接未建立或该优先级的队列已满时返回 false
+     */
+    public boolean sendBinaryMessage(byte[] data, SendPriority priority) {
+        if (isBinaryFraming()) {
+            data = InternalFrames.escape(data);
+        }
+        return sendPayload(data, priority);
+    }
+
+    /**
+     * 发送分块传输、请求/回复等内部帧，不做转义
+     *
+     * @param frame 以 0x00 和非零类型字节开头
+     */
+    boolean sendInternalMessage(byte[] frame, SendPriority priority) {
+        return sendPayload(frame, priority);
+    }
+
+    /**
+     * 协商好压缩后超过阈值的消息压缩后发送
+     */
+    private boolean sendPayload(byte[] data, SendPriority priority) {
+        PayloadCompressor compressor = mCompressor;
+        if (compressor != null && compressionAgreed) {
+            data = compressor.compress(data, dictionaryAgreed);
+        }
+        return sendFrame(data, priority);
+    }
+
+    /**
+     * 发送心跳等控制消息，CONTROL 队列满时立即放弃，不阻塞定时器线程和接收线程
+     */
+    private boolean sendControlFrame(byte[] data) {
+        return sendFrame(data, SendPriority.CONTROL, 0);
+    }
+
+    private boolean sendFrame(byte[] data, SendPriority priority) {
+        return sendFrame(data, priority, sendTimeout);
+    }
+
+    /**
+     * @param timeoutMs 阻塞模式下队列满时最多等待的时间
+     */
+    private boolean sendFrame(byte[] data, SendPriority priority, long timeoutMs) {
+        PooledBuffer frame = encodeFrame(data);
+        int length = frame.buffer().remaining();
+        boolean queued;
+        NioSession session = mSession;
+        BatchWriter writer = mWriter;
+        if (session != null) {
+            queued = session.write(frame, priority);
+        } else if (writer != null) {
+            queued = writer.offer(frame, priority, timeoutMs);
+        } else {
+            frame.release();
+            return false;
+        }
+        if (queued) {
+            mMetrics.onSent(length);
+        } else {
+            mMetrics.onDropped();
+            Log.w(TAG, "tcp 写队列已满，消息被丢弃");
+        }
+        return queued;
+    }
+
+    /**
+     * 内置的分帧方式直接编码到池中的缓冲区，写出时不必再拷贝到临时的直接内存；
+     * 自定义的 FrameCodec 仍按原来的方式编码。写队列负责 release
+     */
+    private PooledBuffer encodeFrame(byte[] data) {
+        FrameCodec codec = mCodec;
+        if (!(codec instanceof AbstractFrameCodec)) {
+            return PooledBuffer.wrap(codec.encode(data, 0, data.length));
+        }
+        AbstractFrameCodec framing = (AbstractFrameCodec) codec;
+        PooledBuffer frame = mBufferPool.allocate(framing.encodedLength(data.length));
+        ByteBuffer out = frame.buffer();
+        framing.encode(data, 0, data.length, out);
+        out.flip();
+        return frame;
+    }
+
+    /**
+     * 以 BULK 优先级发送由帧头和文件片段组成的帧，阻塞模式下由写线程 transferTo 写出，NIO 模式下读入池中的缓冲区后写出
+     */
+    boolean sendRegion(FileRegion region) throws IOException {
+        long length = region.length();
+        boolean queued;
+        NioSession session = mSession;
+        BatchWriter writer = mWriter;
+        if (session != null) {
+            queued = session.write(region.toBuffer(mBufferPool), SendPriority.BULK);
+        } else if (writer != null) {
+            queued = writer.offer(region, SendPriority.BULK, sendTimeout);
+        } else {
+            return false;
+        }
+        if (queued) {
+            mMetrics.onSent(length);
+        }
+        return queued;
     }
 
     /**
-     * 处理 tcp 收到的消息
+     * @return 连接是否仍可写入
+     */
+    boolean isWritable() {
+        NioSession session = mSession;
+        if (session != null) {
+            return session.isOpen();
+        }
+        return mWriter != null;
+    }
+
+    /**
+     * @return 写队列中等待发送的消息数
+     */
+    public int getSendQueueSize() {
+        NioSession session = mSession;
+        if (session != null) {
+            return session.getQueuedWrites();
+        }
+        BatchWriter writer = mWriter;
+        return writer == null ? 0 : writer.size();
+    }
+
+    /**
+     * 设置心跳策略，需在 startTcpSocket 之前调用
      *
-     * @param line
+     * @param policy 每个 TCPSocket 独占一个实例
      */
-    private void handleReceiveTcpMessage(String line) {
-        Log.d(TAG, "接收 tcp 消息：" + line);
-        lastReceiveTime = System.currentTimeMillis();
+    public void setHeartbeatPolicy(HeartbeatPolicy policy) {
+        this.mHeartbeat = policy;
     }
 
-    private void sendTcpMessage(String json) {
-        pw.println(json);
-        Log.d(TAG, "tcp 消息发送成功...");
+    public HeartbeatPolicy getHeartbeatPolicy() {
+        return mHeartbeat;
     }
 
     /**
-     * 启动心跳
+     * 启动心跳，由 HeartbeatPolicy 决定是否发 ping 以及何时判定对端下线
      */
     private void startHeartbeatTimer() {
         if (timer == null) {
-            timer = new HeartbeatTimer();
+            timer = new HeartbeatTimer(mTimer);
         }
+        final HeartbeatPolicy heartbeat = mHeartbeat;
+        heartbeat.reset(System.nanoTime());
         timer.setOnScheduleListener(new HeartbeatTimer.OnScheduleListener() {
             @Override
             public void onSchedule() {
-                Log.d(TAG, "timer is onSchedule...");
-                long duration = System.currentTimeMillis() - lastReceiveTime;
-                Log.d(TAG, "duration:" + duration);
-                if (duration > TIME_OUT) {//若超过十五秒都没收到我的心跳包，则认为对方不在线。
-                    Log.d(TAG, "tcp ping 超时，对方已经下线");
-                    stopTcpConnection();
-                    if (mListener != null) {
-                        mListener.onFailed(Config.ErrorCode.PING_TCP_TIMEOUT);
-                    }
-                } else if (duration > HEARTBEAT_MESSAGE_DURATION) {//若超过两秒他没收到我的心跳包，则重新发一个。
-                    JSONObject jsonObject = new JSONObject();
-                    try {
-                        jsonObject.put(Config.MSG, Config.PING);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-                    sendTcpMessage(jsonObject.toString());
+                switch (heartbeat.poll(System.nanoTime())) {
+                    case HeartbeatPolicy.ACTION_DEAD:
+                        Log.d(TAG, "tcp ping 超时，对方已经下线");
+                        onConnectionLost(currentConnection(), Config.ErrorCode.PING_TCP_TIMEOUT);
+                        break;
+                    case HeartbeatPolicy.ACTION_PING:
+                        Log.d(TAG, "空闲 " + heartbeat.getInterval() + "ms，发送 ping");
+                        // 在定时器线程中，不能等待写队列，队列满时放弃这次 ping
+                        sendControlFrame(Messages.pingBytes());
+                        break;
+                    default:
+                        break;
                 }
             }
 
         });
-        timer.startTimer(0, 1000 * 2);
+        timer.startTimer(0, heartbeat.getPollInterval());
     }
 
     public void stopHeartbeatTimer() {
@@ -160,16 +895,13 @@ public class TCPSocket {
      */
     private boolean startTcpConnection(final String ip, final int port) {
         try {
-            if (mSocket == null) {
-                mSocket = new Socket(ip, port);
-                mSocket.setKeepAlive(true);
-                mSocket.setTcpNoDelay(true);
-                mSocket.setReuseAddress(true);
-            }
-            InputStream is = mSocket.getInputStream();
-            br = new BufferedReader(new InputStreamReader(is));
-            OutputStream os = mSocket.getOutputStream();
-            pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(os)), true);
+            if (mChannel == null) {
+                // 阻塞模式的连接，读写直接基于 ByteBuffer
+                mChannel = transport.connect(ip, port);
+                if (sendBufferSize > 0) {
+                    mChannel.setSendBufferSize(sendBufferSize);
+                }
+            }
             Log.d(TAG, "tcp 创建成功...");
             return true;
         } catch (Exception e) {
@@ -178,22 +910,61 @@ public class TCPSocket {
         return false;
     }
 
-    public void stopTcpConnection() {
+    private void applySendBufferSize(Socket socket) {
+        if (sendBufferSize <= 0) {
+            return;
+        }
+        try {
+            socket.setSendBufferSize(sendBufferSize);
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 连接在本端未主动断开时失效：关闭连接并停止心跳，再通知监听方，由其负责重连和移除登记
+     *
+     * @param connection 发现失效的连接，与当前连接不同说明已被关闭或替换，不再报告
+     * @param errorCode  Config.ErrorCode
+     */
+    private void onConnectionLost(Object connection, int errorCode) {
+        synchronized (this) {
+            if (connection == null || connection != currentConnection()) {
+                return;
+            }
+            stopTcpConnection();
+        }
+        if (mListener != null) {
+            mListener.onFailed(errorCode);
+        }
+    }
+
+    private synchronized Object currentConnection() {
+        return mSession != null ? mSession : mChannel;
+    }
+
+    public synchronized void stopTcpConnection() {
         try {
             stopHeartbeatTimer();
-            if (br != null) {
-                br.close();
+            compressionAgreed = false;
+            dictionaryAgreed = false;
+            if (mTransfers != null) {
+                mTransfers.close();
+            }
+            if (mRpc != null) {
+                mRpc.close();
             }
-            if (pw != null) {
-                pw.close();
+            if (mWriter != null) {
+                mWriter.stop();
+                mWriter = null;
             }
-            if (mThreadPool != null) {
-                mThreadPool.shutdown();
-                mThreadPool = null;
+            if (mSession != null) {
+                mSession.close();
+                mSession = null;
             }
-            if (mSocket != null) {
-                mSocket.close();
-                mSocket = null;
+            if (mChannel != null) {
+                mChannel.close();
+                mChannel = null;
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,552 @@
+package melo.com.androidsocket.socket.tcp;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import melo.com.androidsocket.buffer.BufferPool;
+import melo.com.androidsocket.buffer.PooledBuffer;
+import melo.com.androidsocket.codec.LengthPrefixedFrameCodec;
+import melo.com.androidsocket.listener.OnTransferListener;
+import melo.com.androidsocket.listener.OnTransferReceiveListener;
+
+/**
+ * 在一条 TCP 连接上分块传输大数据。
+ * <p>
+ * 传输帧以 0x00 'X' 开头，后跟一个字节的类型，用户消息开头的 0x00 会被转义，不会与之混淆（见 InternalFrames）：
+ * <pre>
+ * OFFER  id(8) length(8) name(UTF-8)   发送方请求发送
+ * ACCEPT id(8) startOffset(8) window(4) 接收方同意，从 startOffset 续传，最多 window 块未确认
+ * REJECT id(8)
+ * DATA   id(8) offset(8) 数据
+ * ACK    id(8) received(8)             累计收到的字节数
+ * CANCEL id(8)
+ * </pre>
+ * 每块数据是一个独立的帧，走 BULK 写队列，其余帧走 CONTROL 写队列，心跳等消息可以插在块之间发送。发送方在阻塞模式下用 FileChannel.transferTo 直接写出文件内容。
+ * <p>
+ * 接收方把收到的块拷贝到池中的缓冲区，交给阻塞 I/O 线程按顺序写入 TransferSink，NIO 模式下磁盘写入不会占用 I/O 线程。
+ * 块写入后才确认，未写入的块最多为对端的发送窗口。
+ */
+class TransferManager {
+
+    private static final String TAG = "TransferManager";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte MAGIC_0 = 0x00;
+    private static final byte MAGIC_1 = 'X';
+
+    private static final byte TYPE_OFFER = 1;
+    private static final byte TYPE_ACCEPT = 2;
+    private static final byte TYPE_REJECT = 3;
+    private static final byte TYPE_DATA = 4;
+    private static final byte TYPE_ACK = 5;
+    private static final byte TYPE_CANCEL = 6;
+
+    // magic(2) + type(1) + id(8) + offset(8)
+    private static final int DATA_HEADER_LENGTH = 19;
+
+    // 帧头、块头和数据加起来正好是缓冲区池的最大规格，发送整块时不会退回堆内缓冲区
+    static final int DEFAULT_CHUNK_SIZE = BufferPool.MAX_CHUNK_SIZE - LengthPrefixedFrameCodec.MAX_HEADER_LENGTH - DATA_HEADER_LENGTH;
+    static final int DEFAULT_WINDOW = 8;
+    // 对端无响应的最长时间
+    private static final long RESPONSE_TIMEOUT = 15 * 1000;
+    // 写队列满时重试的间隔
+    private static final long RETRY_INTERVAL = 10;
+
+    private final TCPSocket socket;
+    private final LengthPrefixedFrameCodec codec;
+    // 发送方等待确认、接收方写入 TransferSink 的线程
+    private final Executor blockingExecutor;
+    private final BufferPool bufferPool;
+    private final ConcurrentMap<Long, StreamTransfer> outgoing = new ConcurrentHashMap<>();
+    // 正在接收的传输
+    private final ConcurrentMap<Long, Incoming> incoming = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    private volatile OnTransferReceiveListener receiveListener;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile int window = DEFAULT_WINDOW;
+
+    /**
+     * @param blockingExecutor 所属 socket 的阻塞 I/O 线程，用于发送方等待确认和写入 TransferSink
+     * @param bufferPool       暂存收到的块
+     */
+    TransferManager(TCPSocket socket, LengthPrefixedFrameCodec codec, Executor blockingExecutor, BufferPool bufferPool) {
+        this.socket = socket;
+        this.codec = codec;
+        this.blockingExecutor = blockingExecutor;
+        this.bufferPool = bufferPool;
+    }
+
+    static boolean isTransferFrame(ByteBuffer frame) {
+        int position = frame.position();
+        return frame.remaining() >= 3 && frame.get(position) == MAGIC_0 && frame.get(position + 1) == MAGIC_1;
+    }
+
+    void setReceiveListener(OnTransferReceiveListener listener) {
+        this.receiveListener = listener;
+    }
+
+    /**
+     * @param chunkSize 每块的字节数，加上帧头后不能超过分帧的最大长度，超过 DEFAULT_CHUNK_SIZE 时整块从堆内分配
+     * @param window    作为接收方时允许对端未确认的块数
+     */
+    void setOptions(int chunkSize, int window) {
+        if (chunkSize <= 0 || window <= 0) {
+            throw new IllegalArgumentException("chunkSize and window must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.window = window;
+    }
+
+    StreamTransfer send(String name, long length, FileChannel file, InputStream stream, OnTransferListener listener) {
+        long id;
+        StreamTransfer transfer;
+        do {
+            id = random.nextLong();
+            transfer = new StreamTransfer(id, name, length, file, stream, listener);
+        } while (outgoing.putIfAbsent(id, transfer) != null);
+        final StreamTransfer target = transfer;
+        // 发送过程会阻塞等待对端确认，放在阻塞 I/O 线程中
+        try {
+            blockingExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runSender(target);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            outgoing.remove(id);
+            closeSource(transfer);
+            if (listener != null) {
+                listener.onTransferFailed(transfer, new IOException("运行时已关闭"));
+            }
+        }
+        return transfer;
+    }
+
+    /**
+     * 连接断开时让所有进行中的传输失败
+     */
+    void close() {
+        for (StreamTransfer transfer : outgoing.values()) {
+            transfer.onRemoteCancelled();
+        }
+        for (Long id : incoming.keySet()) {
+            failIncoming(id, new IOException("连接已断开"), false);
+        }
+    }
+
+    private void runSender(StreamTransfer transfer) {
+        try {
+            ByteBuffer offer = control(TYPE_OFFER, transfer.getId(), 8 + transfer.getName().getBytes(UTF_8).length);
+            offer.putLong(transfer.getLength());
+            offer.put(transfer.getName().getBytes(UTF_8));
+            sendControl(transfer, offer);
+
+            long position = transfer.awaitAccepted(RESPONSE_TIMEOUT);
+            if (transfer.stream != null) {
+                skipFully(transfer.stream, position);
+            }
+            int chunk = chunkSize;
+            long inFlight = (long) transfer.getWindow() * chunk;
+            while (position < transfer.getLength()) {
+                transfer.awaitAcknowledged(position, inFlight, RESPONSE_TIMEOUT);
+                int count = (int) Math.min(chunk, transfer.getLength() - position);
+                sendData(transfer, position, count);
+                position += count;
+            }
+            // 等待最后一块被确认
+            transfer.awaitAcknowledged(position, 1, RESPONSE_TIMEOUT);
+            transfer.markDone();
+            if (transfer.listener != null) {
+                transfer.listener.onTransferCompleted(transfer);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "传输失败：" + e.getMessage());
+            if (!transfer.isRemoteCancelled()) {
+                socket.sendInternalMessage(control(TYPE_CANCEL, transfer.getId(), 0).array(), SendPriority.CONTROL);
+            }
+            if (transfer.listener != null) {
+                transfer.listener.onTransferFailed(transfer, e);
+            }
+        } finally {
+            outgoing.remove(transfer.getId());
+            closeSource(transfer);
+        }
+    }
+
+    private void sendData(StreamTransfer transfer, long position, int count) throws IOException {
+        if (transfer.file != null) {
+            byte[] header = dataHeader(transfer.getId(), position, 0);
+            FileRegion region = new FileRegion(codec.encodePrefix(header, 0, DATA_HEADER_LENGTH, count), transfer.file, position, count);
+            while (!socket.sendRegion(region)) {
+                waitForWritable(transfer);
+            }
+        } else {
+            byte[] frame = dataHeader(transfer.getId(), position, count);
+            readFully(transfer.stream, frame, DATA_HEADER_LENGTH, count);
+            while (!socket.sendInternalMessage(frame, SendPriority.BULK)) {
+                waitForWritable(transfer);
+            }
+        }
+    }
+
+    private void sendControl(StreamTransfer transfer, ByteBuffer message) throws IOException {
+        while (!socket.sendInternalMessage(message.array(), SendPriority.CONTROL)) {
+            waitForWritable(transfer);
+        }
+    }
+
+    /**
+     * 写队列已满时稍后重试，连接已断开则失败
+     */
+    private void waitForWritable(StreamTransfer transfer) throws IOException {
+        transfer.checkState();
+        if (!socket.isWritable()) {
+            throw new IOException("连接已断开");
+        }
+        try {
+            Thread.sleep(RETRY_INTERVAL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("传输线程被中断");
+        }
+    }
+
+    /**
+     * 处理收到的传输帧，在接收线程中调用。块的内容写入前会拷贝出来，frame 只在调用期间有效
+     */
+    void handleFrame(ByteBuffer frame) {
+        ByteBuffer in = frame.duplicate();
+        if (in.remaining() < 11) {
+            return;
+        }
+        in.position(in.position() + 2);
+        byte type = in.get();
+        long id = in.getLong();
+        try {
+            switch (type) {
+                case TYPE_OFFER:
+                    handleOffer(id, in);
+                    break;
+                case TYPE_DATA:
+                    handleData(id, in);
+                    break;
+                case TYPE_CANCEL:
+                    StreamTransfer transfer = outgoing.get(id);
+                    if (transfer != null) {
+                        transfer.onRemoteCancelled();
+                    }
+                    failIncoming(id, new IOException("对端取消了传输"), false);
+                    break;
+                case TYPE_ACCEPT:
+                    transfer = outgoing.get(id);
+                    if (transfer != null) {
+                        long startOffset = in.getLong();
+                        transfer.onAccepted(startOffset, Math.max(1, in.getInt()));
+                    }
+                    break;
+                case TYPE_REJECT:
+                    transfer = outgoing.get(id);
+                    if (transfer != null) {
+                        transfer.onRejected();
+                    }
+                    break;
+                case TYPE_ACK:
+                    transfer = outgoing.get(id);
+                    if (transfer != null) {
+                        long acknowledged = in.getLong();
+                        if (transfer.onAcknowledged(acknowledged) && transfer.listener != null) {
+                            transfer.listener.onTransferProgress(transfer, acknowledged, transfer.getLength());
+                        }
+                    }
+                    break;
+                default:
+                    Log.w(TAG, "未知的传输帧类型：" + type);
+            }
+        } catch (RuntimeException e) {
+            // 帧内容不完整
+            Log.e(TAG, "传输帧格式错误");
+            failIncoming(id, new IOException("传输帧格式错误"), true);
+        }
+    }
+
+    private void handleOffer(long id, ByteBuffer in) {
+        long length = in.getLong();
+        byte[] nameBytes = new byte[in.remaining()];
+        in.get(nameBytes);
+        String name = new String(nameBytes, UTF_8);
+        OnTransferReceiveListener listener = receiveListener;
+        TransferSink sink = listener == null ? null : listener.onTransferOffered(id, name, length);
+        if (sink == null || sink.getStartOffset() > length) {
+            closeQuietly(sink);
+            socket.sendInternalMessage(control(TYPE_REJECT, id, 0).array(), SendPriority.CONTROL);
+            return;
+        }
+        int chunks = window;
+        Incoming transfer = new Incoming(id, length, sink, Math.max(1, chunks / 2), listener);
+        incoming.put(id, transfer);
+        ByteBuffer accept = control(TYPE_ACCEPT, id, 12);
+        accept.putLong(sink.getStartOffset());
+        accept.putInt(chunks);
+        socket.sendInternalMessage(accept.array(), SendPriority.CONTROL);
+        if (transfer.received == length) {
+            sendAck(id, transfer);
+            completeIncoming(id, transfer);
+        }
+    }
+
+    private void handleData(long id, ByteBuffer in) {
+        Incoming transfer = incoming.get(id);
+        if (transfer == null) {
+            return;
+        }
+        long offset = in.getLong();
+        if (offset != transfer.expected || transfer.expected + in.remaining() > transfer.length) {
+            failIncoming(id, new IOException("数据位置不连续：" + offset + "，期望 " + transfer.expected), true);
+            return;
+        }
+        transfer.expected += in.remaining();
+        PooledBuffer chunk = bufferPool.allocate(in.remaining());
+        chunk.buffer().put(in).flip();
+        if (!transfer.enqueue(chunk)) {
+            // 已有写入任务在处理队列
+            return;
+        }
+        try {
+            blockingExecutor.execute(transfer);
+        } catch (RejectedExecutionException e) {
+            failIncoming(id, new IOException("写入线程已关闭"), true);
+        }
+    }
+
+    /**
+     * 在阻塞 I/O 线程中按顺序写入一块，由 Incoming.run 调用
+     *
+     * @return 写入失败时返回 false，传输已结束
+     */
+    private boolean writeChunk(Incoming transfer, ByteBuffer chunk) {
+        long id = transfer.id;
+        if (incoming.get(id) != transfer) {
+            // 已被取消或连接已断开
+            return false;
+        }
+        try {
+            int count = chunk.remaining();
+            while (chunk.hasRemaining()) {
+                transfer.sink.getChannel().write(chunk);
+            }
+            transfer.received += count;
+        } catch (IOException e) {
+            failIncoming(id, e, true);
+            return false;
+        }
+        if (transfer.listener != null) {
+            transfer.listener.onTransferProgress(id, transfer.received, transfer.length);
+        }
+        if (++transfer.chunksSinceAck >= transfer.ackEvery || transfer.received == transfer.length) {
+            sendAck(id, transfer);
+        }
+        if (transfer.received == transfer.length) {
+            completeIncoming(id, transfer);
+        }
+        return true;
+    }
+
+    private void sendAck(long id, Incoming transfer) {
+        transfer.chunksSinceAck = 0;
+        ByteBuffer ack = control(TYPE_ACK, id, 8);
+        ack.putLong(transfer.received);
+        socket.sendInternalMessage(ack.array(), SendPriority.CONTROL);
+    }
+
+    private void completeIncoming(long id, Incoming transfer) {
+        if (!incoming.remove(id, transfer)) {
+            // 已经失败
+            return;
+        }
+        closeQuietly(transfer.sink);
+        if (transfer.listener != null) {
+            transfer.listener.onTransferCompleted(id);
+        }
+    }
+
+    private void failIncoming(long id, IOException e, boolean notifyPeer) {
+        Incoming transfer = incoming.remove(id);
+        if (transfer == null) {
+            return;
+        }
+        transfer.discard();
+        closeQuietly(transfer.sink);
+        if (notifyPeer) {
+            socket.sendInternalMessage(control(TYPE_CANCEL, id, 0).array(), SendPriority.CONTROL);
+        }
+        if (transfer.listener != null) {
+            transfer.listener.onTransferFailed(id, e);
+        }
+    }
+
+    /**
+     * @return 已写好头部、position 位于 body 开始处的缓冲区，其 array() 即完整消息
+     */
+    private static ByteBuffer control(byte type, long id, int bodyLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(11 + bodyLength);
+        buffer.put(MAGIC_0).put(MAGIC_1).put(type).putLong(id);
+        return buffer;
+    }
+
+    private static byte[] dataHeader(long id, long offset, int bodyLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(DATA_HEADER_LENGTH + bodyLength);
+        buffer.put(MAGIC_0).put(MAGIC_1).put(TYPE_DATA).putLong(id).putLong(offset);
+        return buffer.array();
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read < 0) {
+                throw new EOFException("数据流提前结束");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        byte[] scratch = null;
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                // 部分流不支持 skip，改为读取丢弃
+                if (scratch == null) {
+                    scratch = new byte[8 * 1024];
+                }
+                int read = in.read(scratch, 0, (int) Math.min(scratch.length, count));
+                if (read < 0) {
+                    throw new EOFException("数据流比续传位置短");
+                }
+                skipped = read;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void closeSource(StreamTransfer transfer) {
+        try {
+            if (transfer.file != null) {
+                transfer.file.close();
+            }
+            if (transfer.stream != null) {
+                transfer.stream.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void closeQuietly(TransferSink sink) {
+        if (sink == null) {
+            return;
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 正在接收的传输，同时是把排队的块写入 sink 的任务，同一时刻最多一个线程在执行
+     */
+    private final class Incoming implements Runnable {
+        final long id;
+        final long length;
+        final TransferSink sink;
+        final int ackEvery;
+        final OnTransferReceiveListener listener;
+        // 下一块的位置，只在接收线程中读写
+        long expected;
+        // 已写入 sink 的字节数，只在写入任务中读写
+        long received;
+        int chunksSinceAck;
+        // 等待写入的块，在 this 上同步
+        private final ArrayDeque<PooledBuffer> chunks = new ArrayDeque<>();
+        private boolean draining = false;
+        private boolean discarded = false;
+
+        Incoming(long id, long length, TransferSink sink, int ackEvery, OnTransferReceiveListener listener) {
+            this.id = id;
+            this.length = length;
+            this.sink = sink;
+            this.ackEvery = ackEvery;
+            this.listener = listener;
+            this.expected = sink.getStartOffset();
+            this.received = sink.getStartOffset();
+        }
+
+        /**
+         * @return 需要提交写入任务时返回 true
+         */
+        synchronized boolean enqueue(PooledBuffer chunk) {
+            if (discarded) {
+                chunk.release();
+                return false;
+            }
+            chunks.addLast(chunk);
+            if (draining) {
+                return false;
+            }
+            draining = true;
+            return true;
+        }
+
+        /**
+         * 传输结束，丢弃还没写入的块
+         */
+        synchronized void discard() {
+            discarded = true;
+            PooledBuffer chunk;
+            while ((chunk = chunks.pollFirst()) != null) {
+                chunk.release();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                PooledBuffer chunk;
+                synchronized (this) {
+                    chunk = chunks.pollFirst();
+                    if (chunk == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                boolean written;
+                try {
+                    written = writeChunk(this, chunk.buffer());
+                } finally {
+                    chunk.release();
+                }
+                if (!written) {
+                    discard();
+                    synchronized (this) {
+                        draining = false;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package melo.com.androidsocket.socket.tcp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 接收数据的写入目标
+ */
+public class TransferSink implements Closeable {
+
+    private final WritableByteChannel channel;
+    private final long startOffset;
+
+    /**
+     * @param channel     已定位到 startOffset 的通道，传输结束或失败后会被关闭
+     * @param startOffset 已经拥有的字节数，发送方从这里继续
+     */
+    public TransferSink(WritableByteChannel channel, long startOffset) {
+        this.channel = channel;
+        this.startOffset = startOffset;
+    }
+
+    /**
+     * 写入文件，文件已存在时从末尾续传
+     */
+    public static TransferSink file(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        long size = channel.size();
+        channel.position(size);
+        return new TransferSink(channel, size);
+    }
+
+    /**
+     * 写入文件，丢弃已有内容从头开始
+     */
+    public static TransferSink newFile(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        return new TransferSink(channel, 0);
+    }
+
+    public WritableByteChannel getChannel() {
+        return channel;
+    }
+
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
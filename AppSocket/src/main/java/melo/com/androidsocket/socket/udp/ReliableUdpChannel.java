@@ -0,0 +1,504 @@
+package melo.com.androidsocket.socket.udp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import melo.com.androidsocket.listener.OnPacketReceiveListener;
+import melo.com.androidsocket.utils.HashedWheelTimer;
+import melo.com.androidsocket.utils.OrderedDispatcher;
+
+/**
+ * 基于 UDPSocket 同一个 DatagramSocket 的可靠单播，适合短小的控制消息和请求应答。
+ * <p>
+ * 每个对端独立编号，接收方回复累计确认加 64 位选择确认，发送方按 RTT 估算重传超时（RFC 6298），
+ * 重传的包不参与 RTT 采样。接收方按序号去重，收到即交付，不保证顺序。
+ * <pre>
+ * DATA 0x00 'R' 0x01 session(4) seq(4) 数据
+ * ACK  0x00 'R' 0x02 session(4) next(4) sack(8)   next 之前全部收到，sack 第 i 位表示 next+1+i 已收到
+ * </pre>
+ * session 是发送方为该对端选的会话号，接收方看到新的会话号就从序号 0 重新开始。
+ * <p>
+ * 对端状态不会一直保留：超过 peerIdleTimeout 没有发送过消息时，下次发送换一个会话号从 0 开始编号；
+ * 两倍时间内没有任何收发且没有未确认消息的对端被删除。对端的接收状态被删除时，本端的发送也已空闲超过 peerIdleTimeout，
+ * 会换用新的会话号，不会因为序号对不上而被当作重复消息丢弃。
+ */
+public class ReliableUdpChannel {
+
+    private static final String TAG = "ReliableUdpChannel";
+
+    private static final byte MAGIC_0 = 0x00;
+    private static final byte MAGIC_1 = 'R';
+    private static final byte TYPE_DATA = 1;
+    private static final byte TYPE_ACK = 2;
+    static final int DATA_HEADER_LENGTH = 11;
+    private static final int ACK_LENGTH = 19;
+
+    // 选择确认能覆盖的范围，也是每个对端未确认包数的上限
+    public static final int MAX_IN_FLIGHT = 64;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    private static final long INITIAL_RTO_MILLIS = 300;
+    // 时间轮精度为 100ms，更小的超时没有意义
+    private static final long MIN_RTO_MILLIS = 200;
+    private static final long MAX_RTO_MILLIS = 5 * 1000;
+    public static final long DEFAULT_PEER_IDLE_TIMEOUT = 60 * 1000;
+
+    public interface DeliveryListener {
+        void onDelivered();
+
+        void onDeliveryFailed();
+    }
+
+    private final UDPSocket owner;
+    private final HashedWheelTimer timer;
+    private final OrderedDispatcher<UdpPacket> dispatcher;
+    private final ConcurrentMap<InetSocketAddress, Peer> peers = new ConcurrentHashMap<>();
+    // 生成各对端的会话号，对端据此识别本端重启或重新编号
+    private final Random random = new Random();
+    private final AtomicLong retransmits = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile long peerIdleNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PEER_IDLE_TIMEOUT);
+
+    ReliableUdpChannel(UDPSocket owner, HashedWheelTimer timer, OrderedDispatcher<UdpPacket> dispatcher) {
+        this.owner = owner;
+        this.timer = timer;
+        this.dispatcher = dispatcher;
+    }
+
+    static boolean isReliablePacket(UdpPacket packet) {
+        byte[] data = packet.getData();
+        int offset = packet.getOffset();
+        return packet.getLength() >= DATA_HEADER_LENGTH && data[offset] == MAGIC_0 && data[offset + 1] == MAGIC_1;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * 设置对端空闲多久后重新编号，空闲两倍时间后删除该对端的状态。两端应设置相同的值
+     */
+    public void setPeerIdleTimeout(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeoutMs must be positive");
+        }
+        this.peerIdleNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    /**
+     * 接收可靠消息，UdpPacket 中只包含数据部分。回调在线程池中执行，同一个监听只注册一次
+     */
+    public boolean addOnPacketReceiveListener(final OnPacketReceiveListener listener) {
+        return dispatcher.addHandler(listener, new OrderedDispatcher.Handler<UdpPacket>() {
+            @Override
+            public void handle(UdpPacket packet) {
+                listener.onPacketReceived(packet);
+            }
+        }, null);
+    }
+
+    public boolean removeOnPacketReceiveListener(OnPacketReceiveListener listener) {
+        return dispatcher.removeHandler(listener);
+    }
+
+    /**
+     * 可靠地发送一条消息，可在任意线程调用
+     *
+     * @param listener 可为 null，在发送线程、接收线程或时间轮线程中回调
+     * @return 该对端未确认的消息已达 MAX_IN_FLIGHT 或数据过长时返回 false
+     */
+    public boolean send(InetAddress address, int port, byte[] data, DeliveryListener listener) {
+        if (DATA_HEADER_LENGTH + data.length > owner.getBufferLength()) {
+            Log.w(TAG, "消息过长：" + data.length);
+            return false;
+        }
+        InetSocketAddress target = new InetSocketAddress(address, port);
+        Outgoing outgoing;
+        while (true) {
+            Peer peer = obtainPeer(target);
+            synchronized (peer) {
+                if (peer.removed) {
+                    continue;
+                }
+                if (peer.unacked.size() >= MAX_IN_FLIGHT) {
+                    return false;
+                }
+                long now = System.nanoTime();
+                if (peer.unacked.isEmpty() && now - peer.lastSendNanos > peerIdleNanos) {
+                    // 对端可能已删除本端的状态，换一个会话号让它从 0 开始接收
+                    peer.restartSending(random.nextInt());
+                }
+                peer.lastSendNanos = now;
+                peer.lastActiveNanos = now;
+                int seq = peer.nextSeq++;
+                byte[] datagram = new byte[DATA_HEADER_LENGTH + data.length];
+                ByteBuffer.wrap(datagram).put(MAGIC_0).put(MAGIC_1).put(TYPE_DATA).putInt(peer.localSession).putInt(seq).put(data);
+                outgoing = new Outgoing(seq, new DatagramPacket(datagram, datagram.length, address, port), listener, peer.rto);
+                peer.unacked.put(seq, outgoing);
+                outgoing.sentNanos = now;
+                scheduleRetransmit(peer, outgoing);
+                break;
+            }
+        }
+        transmit(outgoing);
+        return true;
+    }
+
+    /**
+     * @return 累计重传次数
+     */
+    public long getRetransmitCount() {
+        return retransmits.get();
+    }
+
+    /**
+     * @return 累计丢弃的重复消息数
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * @return 当前保存状态的对端数
+     */
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    /**
+     * @return 该对端当前的重传超时，从未通信过时返回初始值
+     */
+    public long getRetransmitTimeout(InetAddress address, int port) {
+        Peer peer = peers.get(new InetSocketAddress(address, port));
+        if (peer == null) {
+            return INITIAL_RTO_MILLIS;
+        }
+        synchronized (peer) {
+            return peer.rto;
+        }
+    }
+
+    /**
+     * 处理收到的可靠消息，在接收线程中调用
+     */
+    void onPacket(UdpPacket packet) {
+        ByteBuffer in = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+        in.position(in.position() + 2);
+        byte type = in.get();
+        int remoteSession = in.getInt();
+        InetSocketAddress address = new InetSocketAddress(packet.getAddress(), packet.getPort());
+        if (type == TYPE_DATA) {
+            onData(address, remoteSession, in.getInt(), packet);
+        } else if (type == TYPE_ACK && packet.getLength() >= ACK_LENGTH) {
+            onAck(address, remoteSession, in.getInt(), in.getLong());
+        }
+    }
+
+    private void onData(InetSocketAddress address, int remoteSession, int seq, UdpPacket packet) {
+        boolean deliver;
+        int next;
+        long sack;
+        while (true) {
+            Peer peer = obtainPeer(address);
+            synchronized (peer) {
+                if (peer.removed) {
+                    continue;
+                }
+                peer.lastActiveNanos = System.nanoTime();
+                if (!peer.hasRemoteSession || peer.remoteSession != remoteSession) {
+                    // 新的对端、对端已重启或重新编号，序号从 0 开始
+                    peer.hasRemoteSession = true;
+                    peer.remoteSession = remoteSession;
+                    peer.receiveNext = 0;
+                    peer.receiveBits = 0;
+                }
+                deliver = peer.markReceived(seq);
+                next = peer.receiveNext;
+                sack = peer.receiveBits;
+                break;
+            }
+        }
+        // 重复的包也要确认，对端可能没收到上一次的确认
+        sendAck(address, remoteSession, next, sack);
+        if (!deliver) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        packet.skip(DATA_HEADER_LENGTH);
+        dispatcher.dispatch(packet);
+    }
+
+    private void onAck(InetSocketAddress address, int localSession, int next, long sack) {
+        Peer peer = peers.get(address);
+        if (peer == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        TreeMap<Integer, Outgoing> acked = new TreeMap<>();
+        synchronized (peer) {
+            if (peer.localSession != localSession) {
+                // 重新编号之前的确认
+                return;
+            }
+            peer.lastSendNanos = now;
+            peer.lastActiveNanos = now;
+            long sample = peer.removeAcked(next, sack, now, acked);
+            if (sample >= 0) {
+                peer.updateRto(TimeUnit.NANOSECONDS.toMillis(sample));
+            }
+        }
+        for (Outgoing outgoing : acked.values()) {
+            if (outgoing.timeout != null) {
+                outgoing.timeout.cancel();
+            }
+            if (outgoing.listener != null) {
+                outgoing.listener.onDelivered();
+            }
+        }
+    }
+
+    private void scheduleRetransmit(final Peer peer, final Outgoing outgoing) {
+        outgoing.timeout = timer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                retransmit(peer, outgoing);
+            }
+        }, outgoing.rto, TimeUnit.MILLISECONDS);
+    }
+
+    private void retransmit(Peer peer, Outgoing outgoing) {
+        boolean failed;
+        synchronized (peer) {
+            if (peer.unacked.get(outgoing.seq) != outgoing) {
+                return;
+            }
+            failed = outgoing.retries >= maxRetries;
+            if (failed) {
+                peer.unacked.remove(outgoing.seq);
+            } else {
+                outgoing.retries++;
+                // 指数退避
+                outgoing.rto = Math.min(outgoing.rto * 2, MAX_RTO_MILLIS);
+                peer.rto = Math.max(peer.rto, outgoing.rto);
+                scheduleRetransmit(peer, outgoing);
+            }
+        }
+        if (failed) {
+            Log.w(TAG, "可靠消息发送失败，seq=" + outgoing.seq);
+            if (outgoing.listener != null) {
+                outgoing.listener.onDeliveryFailed();
+            }
+            return;
+        }
+        retransmits.incrementAndGet();
+        transmit(outgoing);
+    }
+
+    private void transmit(Outgoing outgoing) {
+        try {
+            owner.sendDatagram(outgoing.datagram);
+        } catch (IOException e) {
+            // 交给重传处理
+            e.printStackTrace();
+        }
+    }
+
+    private void sendAck(InetSocketAddress address, int remoteSession, int next, long sack) {
+        byte[] ack = new byte[ACK_LENGTH];
+        ByteBuffer.wrap(ack).put(MAGIC_0).put(MAGIC_1).put(TYPE_ACK).putInt(remoteSession).putInt(next).putLong(sack);
+        try {
+            owner.sendDatagram(new DatagramPacket(ack, ack.length, address.getAddress(), address.getPort()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Peer obtainPeer(InetSocketAddress address) {
+        Peer peer = peers.get(address);
+        if (peer == null) {
+            long now = System.nanoTime();
+            expireIdlePeers(now);
+            peer = new Peer(random.nextInt(), now);
+            Peer existing = peers.putIfAbsent(address, peer);
+            if (existing != null) {
+                peer = existing;
+            }
+        }
+        return peer;
+    }
+
+    /**
+     * 删除两倍 peerIdleTimeout 内没有收发且没有未确认消息的对端。在新增对端时调用，每个 peerIdleTimeout 最多扫描一次
+     */
+    void expireIdlePeers(long now) {
+        long idle = peerIdleNanos;
+        long last = lastSweepNanos.get();
+        if (now - last < idle || !lastSweepNanos.compareAndSet(last, now)) {
+            return;
+        }
+        for (Map.Entry<InetSocketAddress, Peer> entry : peers.entrySet()) {
+            Peer peer = entry.getValue();
+            synchronized (peer) {
+                if (peer.unacked.isEmpty() && now - peer.lastActiveNanos > 2 * idle) {
+                    // 正在等这把锁的收发线程看到 removed 后会重新创建
+                    peer.removed = true;
+                    peers.remove(entry.getKey(), peer);
+                }
+            }
+        }
+    }
+
+    /**
+     * 丢弃所有对端状态，未确认的消息回调失败
+     */
+    void close() {
+        for (Peer peer : peers.values()) {
+            Outgoing[] pending;
+            synchronized (peer) {
+                pending = peer.unacked.values().toArray(new Outgoing[peer.unacked.size()]);
+                peer.unacked.clear();
+            }
+            for (Outgoing outgoing : pending) {
+                if (outgoing.timeout != null) {
+                    outgoing.timeout.cancel();
+                }
+                if (outgoing.listener != null) {
+                    outgoing.listener.onDeliveryFailed();
+                }
+            }
+        }
+        peers.clear();
+        dispatcher.clear();
+    }
+
+    /**
+     * 与一个对端的收发状态，均在自身上同步
+     */
+    static final class Peer {
+        // 已从 peers 中删除，不能再使用
+        boolean removed;
+        long lastActiveNanos;
+        // 发送
+        int localSession;
+        long lastSendNanos;
+        int nextSeq = 0;
+        final TreeMap<Integer, Outgoing> unacked = new TreeMap<>();
+        long srtt = -1;
+        long rttvar;
+        long rto = INITIAL_RTO_MILLIS;
+        // 接收
+        boolean hasRemoteSession;
+        int remoteSession;
+        int receiveNext;
+        // 第 i 位表示 receiveNext + 1 + i 已收到
+        long receiveBits;
+
+        Peer(int localSession, long now) {
+            this.localSession = localSession;
+            this.lastSendNanos = now;
+            this.lastActiveNanos = now;
+        }
+
+        /**
+         * 换用新的会话号，序号从 0 开始，调用时不能有未确认的消息
+         */
+        void restartSending(int localSession) {
+            this.localSession = localSession;
+            this.nextSeq = 0;
+        }
+
+        /**
+         * @return 第一次收到该序号时返回 true
+         */
+        boolean markReceived(int seq) {
+            int distance = seq - receiveNext;
+            if (distance < 0 || distance > 64) {
+                // 已经收到过，或者超出接收窗口
+                return false;
+            }
+            if (distance > 0) {
+                long bit = 1L << (distance - 1);
+                if ((receiveBits & bit) != 0) {
+                    return false;
+                }
+                receiveBits |= bit;
+                return true;
+            }
+            receiveNext++;
+            boolean received = (receiveBits & 1) != 0;
+            receiveBits >>>= 1;
+            while (received) {
+                receiveNext++;
+                received = (receiveBits & 1) != 0;
+                receiveBits >>>= 1;
+            }
+            return true;
+        }
+
+        /**
+         * 按累计确认和选择确认移除已送达的消息
+         *
+         * @param acked 放入被确认的消息
+         * @return 其中未重传过的消息的最小 RTT 纳秒数，没有时返回 -1
+         */
+        long removeAcked(int next, long sack, long now, Map<Integer, Outgoing> acked) {
+            long sample = -1;
+            Iterator<Outgoing> iterator = unacked.values().iterator();
+            while (iterator.hasNext()) {
+                Outgoing outgoing = iterator.next();
+                int distance = outgoing.seq - next;
+                if (distance < 0 || (distance > 0 && distance <= 64 && (sack & (1L << (distance - 1))) != 0)) {
+                    iterator.remove();
+                    acked.put(outgoing.seq, outgoing);
+                    if (outgoing.retries == 0) {
+                        long rtt = now - outgoing.sentNanos;
+                        sample = sample < 0 ? rtt : Math.min(sample, rtt);
+                    }
+                }
+            }
+            return sample;
+        }
+
+        void updateRto(long sampleMillis) {
+            if (srtt < 0) {
+                srtt = sampleMillis;
+                rttvar = sampleMillis / 2;
+            } else {
+                rttvar = (3 * rttvar + Math.abs(srtt - sampleMillis)) / 4;
+                srtt = (7 * srtt + sampleMillis) / 8;
+            }
+            rto = Math.max(MIN_RTO_MILLIS, Math.min(MAX_RTO_MILLIS, srtt + Math.max(1, 4 * rttvar)));
+        }
+    }
+
+    static final class Outgoing {
+        final int seq;
+        final DatagramPacket datagram;
+        final DeliveryListener listener;
+        long sentNanos;
+        int retries;
+        long rto;
+        HashedWheelTimer.Timeout timeout;
+
+        Outgoing(int seq, DatagramPacket datagram, DeliveryListener listener, long rto) {
+            this.seq = seq;
+            this.datagram = datagram;
+            this.listener = listener;
+            this.rto = rto;
+        }
+    }
+}
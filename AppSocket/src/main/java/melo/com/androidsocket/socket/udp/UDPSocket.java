@@ -3,25 +3,30 @@ package melo.com.androidsocket.socket.udp;
 import android.content.Context;
 import android.util.Log;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import melo.com.androidsocket.bean.Users;
-import melo.com.androidsocket.common.Config;
+import melo.com.androidsocket.codec.InternalFrames;
+import melo.com.androidsocket.codec.Messages;
+import melo.com.androidsocket.codec.PayloadCompressor;
 import melo.com.androidsocket.listener.OnMessageReceiveListener;
+import melo.com.androidsocket.listener.OnPacketReceiveListener;
+import melo.com.androidsocket.metrics.SocketMetrics;
+import melo.com.androidsocket.socket.SocketRuntime;
+import melo.com.androidsocket.transport.DatagramEndpoint;
+import melo.com.androidsocket.transport.NetTransport;
+import melo.com.androidsocket.transport.Transport;
 import melo.com.androidsocket.utils.DeviceUtil;
+import melo.com.androidsocket.utils.HashedWheelTimer;
 import melo.com.androidsocket.utils.HeartbeatTimer;
+import melo.com.androidsocket.utils.OrderedDispatcher;
 import melo.com.androidsocket.utils.WifiUtil;
 
 
@@ -32,11 +37,23 @@ import melo.com.androidsocket.utils.WifiUtil;
 public class UDPSocket {
 
     private static final String TAG = "UDPSocket";
-
-    private static final int BUFFER_LENGTH = 1024;
-    private byte[] receiveByte = new byte[BUFFER_LENGTH];
-
-    private static String BROADCAST_IP = "192.168.43.255";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 以太网 MTU 1500 减去 IP 头 20 字节和 UDP 头 8 字节，局域网内不会被 IP 分片
+    public static final int DEFAULT_BUFFER_LENGTH = 1472;
+    // UDP 数据包的理论上限
+    private static final int MAX_BUFFER_LENGTH = 65507;
+    // 数据包池大小，所有监听处理完后归还，池空时临时新建
+    private static final int PACKET_POOL_SIZE = 32;
+    private static final int DEFAULT_DISPATCH_QUEUE_CAPACITY = 256;
+    // 解压后单条消息的上限
+    private static final int MAX_MESSAGE_LENGTH = 0xffff;
+    private int bufferLength = DEFAULT_BUFFER_LENGTH;
+    // 缓冲区比 bufferLength 多一个字节，收满说明数据包被截断
+    private UdpPacketPool packetPool = new UdpPacketPool(PACKET_POOL_SIZE, DEFAULT_BUFFER_LENGTH + 1);
+
+    // 收发数据报和解析广播地址，默认使用系统 socket
+    private final Transport transport;
 
     // 端口号，飞鸽协议默认端口2425
     public static final int CLIENT_PORT = 2425;
@@ -44,38 +61,229 @@ public class UDPSocket {
     private boolean isThreadRunning = false;
 
     private Context mContext;
-    private DatagramSocket client;
+    private DatagramEndpoint client;
     private DatagramPacket receivePacket;
 
-    private long lastReceiveTime = 0;
+    private volatile long lastReceiveTime = 0;
+    // 最近一次发出数据的时间，自己的消息同样能让对端发现本机
+    private volatile long lastSendTime = 0;
     private static final long TIME_OUT = 120 * 1000;
-    private static final long HEARTBEAT_MESSAGE_DURATION = 5 * 1000;
-
-    private ExecutorService mThreadPool;
-    private Thread clientThread;
+    // 心跳广播的间隔，网络空闲稳定时逐步翻倍到上限，有变化时退回最小值
+    private static final long MIN_HEARTBEAT_INTERVAL = 5 * 1000;
+    private static final long MAX_HEARTBEAT_INTERVAL = 60 * 1000;
+    private static final long HEARTBEAT_CHECK_PERIOD = 1000;
+    private volatile long heartbeatInterval = MIN_HEARTBEAT_INTERVAL;
+
+    // 回调和发送在运行时的工作线程中执行，接收循环占用一个阻塞 I/O 线程
+    private final ExecutorService mThreadPool;
+    private final ExecutorService mIoExecutor;
+    // 心跳和可靠单播的重传使用运行时的定时器
+    private final HashedWheelTimer wheelTimer;
+    private Future<?> receiveTask;
     private HeartbeatTimer timer;
     private Users localUser;
     private Users remoteUser;
-    private final List<OnMessageReceiveListener> messageReceiveList;
+    // 接收线程只做 I/O，监听回调由分发器在线程池中执行
+    private final OrderedDispatcher<UdpPacket> dispatcher;
+    private final SocketMetrics mMetrics = new SocketMetrics("udp");
+    // 可靠单播，首次使用时创建
+    private volatile ReliableUdpChannel reliableChannel;
+    // 广播没有连接可以协商，启用后超过阈值的消息压缩发送
+    private volatile PayloadCompressor compressor;
+    // 超过一个数据包的消息分片发送，接收时重组
+    private final UdpFragmenter fragmenter = new UdpFragmenter(mMetrics);
+
+    // 数据包每进入一个监听队列引用一次，处理完或被丢弃后释放
+    private final OrderedDispatcher.Lifecycle<UdpPacket> packetLifecycle = new OrderedDispatcher.Lifecycle<UdpPacket>() {
+        @Override
+        public void retain(UdpPacket packet) {
+            packet.retain();
+        }
+
+        @Override
+        public void release(UdpPacket packet, boolean dropped) {
+            if (dropped) {
+                mMetrics.onDropped();
+            }
+            packet.release();
+        }
+    };
 
     public UDPSocket(Context context) {
+        this(context, SocketRuntime.getDefault());
+    }
+
+    public UDPSocket(Context context, SocketRuntime runtime) {
+        this(context, runtime, NetTransport.getDefault());
+    }
+
+    /**
+     * @param transport 传入 MemoryTransport 时在模拟网络上收发，不需要真实的网络和设备
+     */
+    public UDPSocket(Context context, SocketRuntime runtime, Transport transport) {
 
         this.mContext = context;
+        this.transport = transport;
 
-        int cpuNumbers = Runtime.getRuntime().availableProcessors();
-        // 根据CPU数目初始化线程池
-        mThreadPool = Executors.newFixedThreadPool(cpuNumbers * Config.POOL_SIZE);
+        mThreadPool = runtime.getWorkers();
+        mIoExecutor = runtime.getBlockingExecutor();
+        wheelTimer = runtime.getTimer();
         // 记录创建对象时的时间
         lastReceiveTime = System.currentTimeMillis();
 
-        messageReceiveList = new ArrayList<>();
+        dispatcher = new OrderedDispatcher<>(mThreadPool, packetLifecycle, DEFAULT_DISPATCH_QUEUE_CAPACITY, OrderedDispatcher.OverflowPolicy.DROP_OLDEST);
+        dispatcher.setShardSelector(new OrderedDispatcher.ShardSelector<UdpPacket>() {
+            @Override
+            public int shardOf(UdpPacket packet) {
+                // 按发送方地址分片，同一设备的消息保持顺序
+                return packet.getAddress().hashCode();
+            }
+        });
+        dispatcher.setTopicExtractor(new OrderedDispatcher.TopicExtractor<UdpPacket>() {
+            @Override
+            public String topicOf(UdpPacket packet) {
+                return packet.getTopic();
+            }
+        });
 
         Log.d(TAG, "创建 UDP 对象");
 //        createUser();
     }
 
-    public void addOnMessageReceiveListener(OnMessageReceiveListener listener) {
-        messageReceiveList.add(listener);
+    public SocketMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 设置每个监听的分发队列容量和溢出策略，只对之后添加的监听生效
+     *
+     * @param queueCapacity 每个监听最多堆积的消息数
+     * @param policy        队列满时的处理方式，默认丢弃最旧的消息
+     */
+    public void setDispatchOptions(int queueCapacity, OrderedDispatcher.OverflowPolicy policy) {
+        dispatcher.setOptions(queueCapacity, policy);
+    }
+
+    /**
+     * 设置单个数据包的最大长度，需在 startUDPSocket 之前调用，同一网段的设备应保持一致。
+     * <p>
+     * 超过该长度的消息拆分成多个数据包发送，收到超过该长度的数据包视为被截断并丢弃。
+     *
+     * @param length 默认为 DEFAULT_BUFFER_LENGTH，按路径 MTU 减去 28 字节设置可避免 IP 分片
+     */
+    public void setBufferLength(int length) {
+        if (length <= UdpFragmenter.HEADER_LENGTH || length > MAX_BUFFER_LENGTH) {
+            throw new IllegalArgumentException("invalid buffer length: " + length);
+        }
+        if (client != null) {
+            throw new IllegalStateException("需在 startUDPSocket 之前调用");
+        }
+        this.bufferLength = length;
+        this.packetPool = new UdpPacketPool(PACKET_POOL_SIZE, length + 1);
+    }
+
+    /**
+     * 设置分片重组参数，需在 startUDPSocket 之前调用
+     *
+     * @param maxFragments 一条消息最多拆成的数据包数，超过的消息无法发送
+     * @param maxPending   同时重组的消息数上限，超过时丢弃最早的
+     * @param timeoutMs    收到第一个分片后多久还没收齐就丢弃
+     */
+    public void setFragmentOptions(int maxFragments, int maxPending, long timeoutMs) {
+        fragmenter.setOptions(maxFragments, maxPending, timeoutMs);
+    }
+
+    /**
+     * 启用消息压缩。
+     * <p>
+     * 广播无法逐个对端协商，只有同一网段的设备都启用了相同的压缩设置才应打开；
+     * 先压缩再分片，解压后的长度不能超过 65535 字节。
+     *
+     * @param compressor 为 null 时关闭压缩，收到的压缩消息会被丢弃；以 0x00 开头的用户消息经过转义，不会被误认为压缩消息
+     */
+    public void setCompression(PayloadCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    /**
+     * 获取同一端口上的可靠单播通道，用于需要确认和重传的短消息
+     */
+    public ReliableUdpChannel getReliableChannel() {
+        if (reliableChannel == null) {
+            synchronized (this) {
+                if (reliableChannel == null) {
+                    OrderedDispatcher<UdpPacket> reliableDispatcher = new OrderedDispatcher<>(mThreadPool, packetLifecycle,
+                            DEFAULT_DISPATCH_QUEUE_CAPACITY, OrderedDispatcher.OverflowPolicy.DROP_OLDEST);
+                    reliableChannel = new ReliableUdpChannel(this, wheelTimer, reliableDispatcher);
+                }
+            }
+        }
+        return reliableChannel;
+    }
+
+    /**
+     * 设置每个监听的接收分片数，只对之后添加的监听生效。
+     * <p>
+     * 接收线程只负责收包，按发送方地址分到不同分片，各分片在线程池中并行回调；
+     * 同一发送方的消息始终进入同一分片并保持顺序，不同发送方之间不保证顺序。
+     * 每个分片都有独立的队列，容量见 setDispatchOptions。
+     *
+     * @param shards 默认为 1，即每个监听单线程按接收顺序回调
+     */
+    public void setReceiveShards(int shards) {
+        dispatcher.setShards(shards);
+    }
+
+    /**
+     * @return 因监听处理太慢被丢弃的消息数
+     */
+    public long getDispatchDroppedCount() {
+        return dispatcher.getDroppedCount();
+    }
+
+    /**
+     * 注册文本消息监听。回调在线程池中执行，单个监听收到的消息保持接收顺序
+     *
+     * @param listener 同一个对象重复注册会被忽略
+     * @param topics   只接收 msg 字段为这些值的消息，不传表示全部接收
+     * @return 已经注册过时返回 false
+     */
+    public boolean addOnMessageReceiveListener(final OnMessageReceiveListener listener, String... topics) {
+        return dispatcher.addHandler(listener, new OrderedDispatcher.Handler<UdpPacket>() {
+            @Override
+            public void handle(UdpPacket packet) {
+                mMetrics.recordDispatchLatency(System.nanoTime() - packet.getReceiveNanos());
+                listener.onMessageReceived(packet.getText());
+            }
+        }, topics);
+    }
+
+    /**
+     * 注册原始数据包监听，不做字符解码。回调在线程池中执行，单个监听收到的数据包保持接收顺序
+     *
+     * @param listener 同一个对象重复注册会被忽略
+     * @param topics   只接收 msg 字段为这些值的数据包，不传表示全部接收
+     * @return 已经注册过时返回 false
+     */
+    public boolean addOnPacketReceiveListener(final OnPacketReceiveListener listener, String... topics) {
+        return dispatcher.addHandler(listener, new OrderedDispatcher.Handler<UdpPacket>() {
+            @Override
+            public void handle(UdpPacket packet) {
+                mMetrics.recordDispatchLatency(System.nanoTime() - packet.getReceiveNanos());
+                listener.onPacketReceived(packet);
+            }
+        }, topics);
+    }
+
+    /**
+     * 取消注册，队列中尚未回调的消息直接丢弃
+     */
+    public boolean removeOnMessageReceiveListener(OnMessageReceiveListener listener) {
+        return dispatcher.removeHandler(listener);
+    }
+
+    public boolean removeOnPacketReceiveListener(OnPacketReceiveListener listener) {
+        return dispatcher.removeHandler(listener);
     }
 
     /**
@@ -105,16 +313,20 @@ public class UDPSocket {
         if (client != null) return;
         try {
             // 表明这个 Socket 在设置的端口上监听数据。
-            client = new DatagramSocket(CLIENT_PORT);
-            client.setReuseAddress(true);
+            client = transport.bindDatagram(CLIENT_PORT);
             if (receivePacket == null) {
-                // 创建接受数据的 packet
-                receivePacket = new DatagramPacket(receiveByte, BUFFER_LENGTH);
+                // 创建接受数据的 packet，缓冲区在每次接收前换成池中的数据包
+                receivePacket = new DatagramPacket(new byte[0], 0);
             }
 
             startSocketThread();
-        } catch (SocketException e) {
+        } catch (IOException e) {
             e.printStackTrace();
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "运行时已关闭或阻塞 I/O 线程已满，无法启动 UDP 接收线程");
+            isThreadRunning = false;
+            client.close();
+            client = null;
         }
     }
 
@@ -122,14 +334,13 @@ public class UDPSocket {
      * 开启接收数据的线程
      */
     private void startSocketThread() {
-        clientThread = new Thread(new Runnable() {
+        isThreadRunning = true;
+        receiveTask = mIoExecutor.submit(new Runnable() {
             @Override
             public void run() {
                 receiveMessage();
             }
         });
-        isThreadRunning = true;
-        clientThread.start();
         Log.d(TAG, "开启 UDP 数据接收线程");
 
         startHeartbeatTimer();
@@ -140,46 +351,102 @@ public class UDPSocket {
      */
     private void receiveMessage() {
         while (isThreadRunning) {
+            DatagramPacket datagram = receivePacket;
+            DatagramEndpoint socket = client;
+            if (datagram == null || socket == null) {
+                return;
+            }
+            UdpPacket packet = packetPool.acquire();
             try {
-                if (client != null) {
-                    client.receive(receivePacket);
+                // setData 会同时重置长度，避免下次收到数据包被截断
+                datagram.setData(packet.getData());
+                socket.receive(datagram);
+                long now = System.currentTimeMillis();
+                if (now - lastReceiveTime > heartbeatInterval) {
+                    // 沉寂一段时间后又有设备出现，尽快广播让它发现本机
+                    heartbeatInterval = MIN_HEARTBEAT_INTERVAL;
                 }
-                lastReceiveTime = System.currentTimeMillis();
-                Log.d(TAG, "receive packet success...");
+                lastReceiveTime = now;
             } catch (IOException e) {
+                packet.recycle();
                 Log.e(TAG, "UDP数据包接收失败！线程停止");
                 stopUDPSocket();
                 e.printStackTrace();
                 return;
             }
 
-            if (receivePacket == null || receivePacket.getLength() == 0) {
+            if (datagram.getLength() == 0) {
+                packet.recycle();
+                mMetrics.onDropped();
                 Log.e(TAG, "无法接收UDP数据或者接收到的UDP数据为空");
                 continue;
             }
+            if (datagram.getLength() > bufferLength) {
+                packet.recycle();
+                mMetrics.onDropped();
+                Log.w(TAG, "数据包超过接收缓冲区 " + bufferLength + " 字节，已被截断，丢弃");
+                continue;
+            }
 
-            String strReceive = new String(receivePacket.getData(), receivePacket.getOffset(), receivePacket.getLength());
-            Log.d(TAG, strReceive + " from " + receivePacket.getAddress().getHostAddress() + ":" + receivePacket.getPort());
+            packet.set(datagram.getOffset(), datagram.getLength(), datagram.getAddress(), datagram.getPort(), System.nanoTime());
+            mMetrics.onReceived(packet.getLength());
+            if (UdpFragmenter.isFragment(packet)) {
+                UdpPacket message = fragmenter.add(packet);
+                packet.release();
+                if (message == null) {
+                    continue;
+                }
+                packet = message;
+            }
+            mMetrics.onMessageReceived();
+            if (PayloadCompressor.isCompressed(packet.getData(), packet.getOffset(), packet.getLength())) {
+                packet = decompress(packet);
+                if (packet == null) {
+                    continue;
+                }
+            }
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, packet.getText() + " from " + packet.getAddress().getHostAddress() + ":" + packet.getPort());
+            }
 
-            //解析接收到的 json 信息
-            notifyMessageReceive(strReceive);
-            // 每次接收完UDP数据后，重置长度。否则可能会导致下次收到数据包被截断。
-            if (receivePacket != null) {
-                receivePacket.setLength(BUFFER_LENGTH);
+            if (InternalFrames.isEscaped(packet.getData(), packet.getOffset(), packet.getLength())) {
+                // 以 0x00 开头的用户消息，去掉发送时加的 0x00
+                packet.skip(1);
+                dispatcher.dispatch(packet);
+            } else if (InternalFrames.isInternal(packet.getData(), packet.getOffset(), packet.getLength())) {
+                ReliableUdpChannel reliable = reliableChannel;
+                if (reliable != null && ReliableUdpChannel.isReliablePacket(packet)) {
+                    reliable.onPacket(packet);
+                } else {
+                    mMetrics.onDropped();
+                    Log.w(TAG, "未知的内部数据包类型：" + packet.getData()[packet.getOffset() + 1]);
+                }
+            } else {
+                dispatcher.dispatch(packet);
             }
+            packet.release();
         }
     }
 
     /**
-     * 将消息通过接口发送到每个页面
+     * 解压成新的数据包，原数据包释放
      *
-     * @param strReceive
+     * @return 解压失败时返回 null
      */
-    private void notifyMessageReceive(String strReceive) {
-        for (OnMessageReceiveListener listener : messageReceiveList) {
-            if (listener != null) {
-                listener.onMessageReceived(strReceive);
+    private UdpPacket decompress(UdpPacket packet) {
+        PayloadCompressor decoder = compressor;
+        try {
+            if (decoder == null) {
+                throw new IOException("未启用压缩");
             }
+            ByteBuffer decoded = decoder.decompress(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()), MAX_MESSAGE_LENGTH);
+            return UdpPacket.wrap(decoded.array(), packet.getAddress(), packet.getPort(), packet.getReceiveNanos());
+        } catch (IOException e) {
+            mMetrics.onDropped();
+            Log.w(TAG, "丢弃无法解压的数据包：" + e.getMessage());
+            return null;
+        } finally {
+            packet.release();
         }
     }
 
@@ -187,11 +454,14 @@ public class UDPSocket {
         isThreadRunning = false;
         receivePacket = null;
         stopHeartbeatTimer();
-        if (clientThread != null) {
-            clientThread.interrupt();
+        if (receiveTask != null) {
+            receiveTask.cancel(true);
+            receiveTask = null;
         }
-        if (mThreadPool != null) {
-            mThreadPool.shutdown();
+        dispatcher.clear();
+        fragmenter.clear();
+        if (reliableChannel != null) {
+            reliableChannel.close();
         }
         if (client != null) {
             client.close();
@@ -203,35 +473,35 @@ public class UDPSocket {
     }
 
     /**
-     * 启动心跳，timer 间隔十秒
+     * 启动心跳。间隔内收发过任何数据就不广播心跳，每次空闲广播后间隔翻倍，
+     * 网络切换、对端超时或沉寂后收到新数据时退回最小间隔
      */
     public void startHeartbeatTimer() {
         if (timer == null) {
-            timer = new HeartbeatTimer();
+            timer = new HeartbeatTimer(wheelTimer);
         }
         timer.setOnScheduleListener(new HeartbeatTimer.OnScheduleListener() {
             @Override
             public void onSchedule() {
-                Log.d(TAG, "timer is onSchedule...");
-                long duration = System.currentTimeMillis() - lastReceiveTime;
-                Log.d(TAG, "duration:" + duration);
+                long now = System.currentTimeMillis();
+                long duration = now - lastReceiveTime;
                 if (duration > TIME_OUT) {//若超过两分钟都没收到我的心跳包，则认为对方不在线。
                     Log.d(TAG, "超时，对方已经下线");
                     // 刷新时间，重新进入下一个心跳周期
-                    lastReceiveTime = System.currentTimeMillis();
-                } else if (duration > HEARTBEAT_MESSAGE_DURATION) {//若超过十秒他没收到我的心跳包，则重新发一个。
-                    JSONObject jsonObject = new JSONObject();
-                    try {
-                        jsonObject.put(Config.MSG, Config.HEARTBREAK);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-                    sendMessage(jsonObject.toString());
+                    lastReceiveTime = now;
+                    heartbeatInterval = MIN_HEARTBEAT_INTERVAL;
+                }
+                long interval = heartbeatInterval;
+                long idle = now - Math.max(lastReceiveTime, lastSendTime);
+                if (idle > interval) {
+                    Log.d(TAG, "空闲 " + idle + "ms，广播心跳");
+                    sendMessage(Messages.heartbreakBytes());
+                    heartbeatInterval = Math.min(MAX_HEARTBEAT_INTERVAL, interval * 2);
                 }
             }
 
         });
-        timer.startTimer(0, 1000 * 5);
+        timer.startTimer(0, HEARTBEAT_CHECK_PERIOD);
     }
 
     public void stopHeartbeatTimer() {
@@ -241,35 +511,96 @@ public class UDPSocket {
         }
     }
 
+    public int getBufferLength() {
+        return bufferLength;
+    }
+
+    /**
+     * 在当前线程直接发送，供可靠通道使用
+     */
+    void sendDatagram(DatagramPacket packet) throws IOException {
+        DatagramEndpoint socket = client;
+        if (socket == null) {
+            throw new IOException("UDP socket 未启动");
+        }
+        socket.send(packet);
+        mMetrics.onSent(packet.getLength());
+    }
+
+    /**
+     * 网络切换后调用，下次发送时重新解析广播地址
+     */
+    public void invalidateBroadcastAddress() {
+        transport.invalidateBroadcastAddress();
+        heartbeatInterval = MIN_HEARTBEAT_INTERVAL;
+    }
+
+    private void send(byte[] data, InetAddress targetAddress) throws IOException {
+        DatagramPacket packet = new DatagramPacket(data, data.length, targetAddress, CLIENT_PORT);
+        client.send(packet);
+        mMetrics.onSent(packet.getLength());
+        lastSendTime = System.currentTimeMillis();
+    }
+
     /**
      * 发送心跳包
      *
      * @param message
      */
-    public void sendMessage(final String message) {
-        mThreadPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    BROADCAST_IP = WifiUtil.getBroadcastAddress();
-                    Log.d(TAG, "BROADCAST_IP:" + BROADCAST_IP);
-                    InetAddress targetAddress = InetAddress.getByName(BROADCAST_IP);
-
-                    DatagramPacket packet = new DatagramPacket(message.getBytes(), message.length(), targetAddress, CLIENT_PORT);
-
-                    client.send(packet);
+    public void sendMessage(String message) {
+        sendMessage(message.getBytes(UTF_8));
+    }
 
-                    // 数据发送事件
-                    Log.d(TAG, "数据发送成功");
+    /**
+     * 发送已编码的消息，数组在发送完成前不能修改，超过单个数据包长度时分片发送
+     *
+     * @param data
+     */
+    public void sendMessage(final byte[] data) {
+        try {
+            mThreadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        InetAddress targetAddress = transport.getBroadcastAddress();
+
+                        // 先转义再压缩、分片，接收方按相反的顺序还原
+                        byte[] payload = InternalFrames.escape(data);
+                        PayloadCompressor encoder = compressor;
+                        if (encoder != null) {
+                            payload = encoder.compress(payload, true);
+                        }
+                        if (payload.length <= bufferLength) {
+                            send(payload, targetAddress);
+                        } else {
+                            byte[][] fragments = fragmenter.split(payload, bufferLength);
+                            if (fragments == null) {
+                                mMetrics.onDropped();
+                                Log.w(TAG, "消息过长，无法分片发送：" + payload.length);
+                                return;
+                            }
+                            for (byte[] fragment : fragments) {
+                                send(fragment, targetAddress);
+                            }
+                        }
+
+                        // 数据发送事件
+                        Log.d(TAG, "数据发送成功");
+
+                    } catch (IOException e) {
+                        mMetrics.onDropped();
+                        // 可能是网络已切换，下次发送时重新解析广播地址
+                        transport.invalidateBroadcastAddress();
+                        e.printStackTrace();
+                    }
 
-                } catch (UnknownHostException e) {
-                    e.printStackTrace();
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
-
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            // 工作线程已满或已关闭，与队列溢出一样计入丢弃
+            mMetrics.onDropped();
+            Log.w(TAG, "工作线程繁忙，丢弃待发送的消息");
+        }
     }
 
 
@@ -0,0 +1,207 @@
+package melo.com.androidsocket.socket.udp;
+
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import melo.com.androidsocket.metrics.SocketMetrics;
+
+/**
+ * 超过一个数据包的消息在应用层分片和重组。
+ * <p>
+ * 每个分片是以 0x00 'F' 开头的内部帧，以 0x00 开头的用户消息在分片前已由 InternalFrames 转义：
+ * <pre>
+ * 0x00 'F' id(4) index(2) count(2) 数据
+ * </pre>
+ * 任一分片丢失整条消息即丢弃，不做重传。重组表有容量上限，未完成的消息超时或表满时淘汰最早的。
+ * 重组只在接收线程中进行，不加锁。
+ */
+class UdpFragmenter {
+
+    private static final String TAG = "UdpFragmenter";
+
+    private static final byte MAGIC_0 = 0x00;
+    private static final byte MAGIC_1 = 'F';
+    // magic(2) + id(4) + index(2) + count(2)
+    static final int HEADER_LENGTH = 10;
+
+    static final int DEFAULT_MAX_FRAGMENTS = 64;
+    static final int DEFAULT_MAX_PENDING = 16;
+    static final long DEFAULT_REASSEMBLY_TIMEOUT = 3 * 1000;
+
+    private final SocketMetrics metrics;
+    private final AtomicInteger nextId = new AtomicInteger(new Random().nextInt());
+    // 按开始重组的先后排列，最早的在前
+    private final LinkedHashMap<Key, Pending> pending = new LinkedHashMap<>();
+    private int maxFragments = DEFAULT_MAX_FRAGMENTS;
+    private int maxPending = DEFAULT_MAX_PENDING;
+    private long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_REASSEMBLY_TIMEOUT);
+
+    UdpFragmenter(SocketMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    static boolean isFragment(UdpPacket packet) {
+        byte[] data = packet.getData();
+        int offset = packet.getOffset();
+        return packet.getLength() > HEADER_LENGTH && data[offset] == MAGIC_0 && data[offset + 1] == MAGIC_1;
+    }
+
+    /**
+     * @param maxFragments 一条消息最多的分片数，不能超过 65535
+     * @param maxPending   同时重组的消息数上限
+     * @param timeoutMs    从收到第一个分片起的重组时限
+     */
+    void setOptions(int maxFragments, int maxPending, long timeoutMs) {
+        if (maxFragments <= 0 || maxFragments > 0xffff || maxPending <= 0 || timeoutMs <= 0) {
+            throw new IllegalArgumentException("invalid fragment options");
+        }
+        this.maxFragments = maxFragments;
+        this.maxPending = maxPending;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    /**
+     * 拆分成不超过 datagramLength 的分片
+     *
+     * @return 超过分片数上限时返回 null
+     */
+    byte[][] split(byte[] data, int datagramLength) {
+        int chunk = datagramLength - HEADER_LENGTH;
+        int count = (data.length + chunk - 1) / chunk;
+        if (count > maxFragments) {
+            return null;
+        }
+        int id = nextId.incrementAndGet();
+        byte[][] fragments = new byte[count][];
+        for (int index = 0; index < count; index++) {
+            int offset = index * chunk;
+            int length = Math.min(chunk, data.length - offset);
+            ByteBuffer fragment = ByteBuffer.allocate(HEADER_LENGTH + length);
+            fragment.put(MAGIC_0).put(MAGIC_1).putInt(id).putShort((short) index).putShort((short) count);
+            fragment.put(data, offset, length);
+            fragments[index] = fragment.array();
+        }
+        return fragments;
+    }
+
+    /**
+     * 收下一个分片，数据会被拷贝，调用方仍负责释放 packet
+     *
+     * @return 消息的最后一个分片到达时返回重组后的数据包，否则返回 null
+     */
+    UdpPacket add(UdpPacket packet) {
+        ByteBuffer in = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+        in.position(in.position() + 2);
+        int id = in.getInt();
+        int index = in.getShort() & 0xffff;
+        int count = in.getShort() & 0xffff;
+        if (count == 0 || index >= count || count > maxFragments) {
+            metrics.onDropped();
+            return null;
+        }
+        long now = System.nanoTime();
+        Key key = new Key(packet.getAddress(), packet.getPort(), id);
+        Pending message = pending.get(key);
+        if (message == null) {
+            evict(now);
+            message = new Pending(count, now);
+            pending.put(key, message);
+        } else if (message.parts.length != count) {
+            Log.w(TAG, "分片数不一致，丢弃消息 " + id);
+            pending.remove(key);
+            metrics.onDropped();
+            return null;
+        }
+        if (message.parts[index] != null) {
+            // 重复的分片
+            return null;
+        }
+        byte[] part = new byte[in.remaining()];
+        in.get(part);
+        message.parts[index] = part;
+        message.received++;
+        message.length += part.length;
+        if (message.received < count) {
+            return null;
+        }
+        pending.remove(key);
+        byte[] data = new byte[message.length];
+        int offset = 0;
+        for (byte[] p : message.parts) {
+            System.arraycopy(p, 0, data, offset, p.length);
+            offset += p.length;
+        }
+        return UdpPacket.wrap(data, packet.getAddress(), packet.getPort(), packet.getReceiveNanos());
+    }
+
+    /**
+     * @return 正在重组的消息数
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    void clear() {
+        pending.clear();
+    }
+
+    /**
+     * 淘汰超时的消息，表满时再淘汰最早的一条
+     */
+    private void evict(long now) {
+        Iterator<Pending> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Pending message = iterator.next();
+            if (now - message.startNanos < timeoutNanos && pending.size() < maxPending) {
+                break;
+            }
+            iterator.remove();
+            metrics.onDropped();
+        }
+    }
+
+    private static final class Pending {
+        final byte[][] parts;
+        final long startNanos;
+        int received;
+        int length;
+
+        Pending(int count, long startNanos) {
+            this.parts = new byte[count][];
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static final class Key {
+        final InetAddress address;
+        final int port;
+        final int id;
+
+        Key(InetAddress address, int port, int id) {
+            this.address = address;
+            this.port = port;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return id == other.id && port == other.port && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return (address.hashCode() * 31 + port) * 31 + id;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package melo.com.androidsocket.socket.udp;
+
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import melo.com.androidsocket.codec.JsonFieldReader;
+import melo.com.androidsocket.common.Config;
+
+/**
+ * 可复用的 UDP 数据包，由 UdpPacketPool 分配和回收。
+ * <p>
+ * 数据只在回调内有效，回调返回后缓冲区会被下一个数据包复用，需要保留请自行拷贝。
+ * 分发到多个监听时按引用计数管理，最后一个监听处理完才归还。
+ */
+public final class UdpPacket {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final UdpPacketPool pool;
+    private final byte[] data;
+    private int offset;
+    private int length;
+    private InetAddress address;
+    private int port;
+    private long receiveNanos;
+    private volatile String text;
+    private volatile String topic;
+    private final AtomicInteger refCnt = new AtomicInteger();
+
+    UdpPacket(UdpPacketPool pool, int bufferLength) {
+        this(pool, new byte[bufferLength]);
+    }
+
+    private UdpPacket(UdpPacketPool pool, byte[] data) {
+        this.pool = pool;
+        this.data = data;
+    }
+
+    /**
+     * 包装重组或解压后的数据，不属于任何池，释放后交给 GC
+     */
+    static UdpPacket wrap(byte[] data, InetAddress address, int port, long receiveNanos) {
+        UdpPacket packet = new UdpPacket(null, data);
+        packet.set(0, data.length, address, port, receiveNanos);
+        return packet;
+    }
+
+    void set(int offset, int length, InetAddress address, int port, long receiveNanos) {
+        this.offset = offset;
+        this.length = length;
+        this.address = address;
+        this.port = port;
+        this.receiveNanos = receiveNanos;
+        this.text = null;
+        this.topic = null;
+        this.refCnt.set(1);
+    }
+
+    /**
+     * 跳过开头的协议头，之后 getOffset / getLength 只包含数据部分
+     */
+    void skip(int count) {
+        offset += count;
+        length -= count;
+        text = null;
+        topic = null;
+    }
+
+    void retain() {
+        refCnt.incrementAndGet();
+    }
+
+    /**
+     * 引用计数减一，归零时归还到池中
+     */
+    void release() {
+        if (refCnt.decrementAndGet() == 0) {
+            recycle();
+        }
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return 从 socket 收到该数据包时的 System.nanoTime()
+     */
+    public long getReceiveNanos() {
+        return receiveNanos;
+    }
+
+    /**
+     * 按 UTF-8 解码，首次调用时才创建字符串
+     */
+    public String getText() {
+        if (text == null) {
+            text = new String(data, offset, length, UTF_8);
+        }
+        return text;
+    }
+
+    /**
+     * 消息的主题，即 JSON 中 msg 字段的值，首次调用时才扫描
+     *
+     * @return 不是 JSON 或没有该字段时返回空串
+     */
+    public String getTopic() {
+        if (topic == null) {
+            topic = new JsonFieldReader(data, offset, length).optString(Config.MSG);
+        }
+        return topic;
+    }
+
+    /**
+     * 归还到池中，之后不能再访问
+     */
+    void recycle() {
+        address = null;
+        text = null;
+        topic = null;
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package melo.com.androidsocket.socket.udp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 定长缓冲区的数据包池，基于数组队列，借还过程不产生新对象
+ */
+public class UdpPacketPool {
+
+    private final int bufferLength;
+    private final ArrayBlockingQueue<UdpPacket> packets;
+
+    /**
+     * @param capacity     池中最多缓存的数据包个数
+     * @param bufferLength 每个数据包的缓冲区大小
+     */
+    public UdpPacketPool(int capacity, int bufferLength) {
+        this.bufferLength = bufferLength;
+        this.packets = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * 取出一个数据包，池为空时新建
+     */
+    public UdpPacket acquire() {
+        UdpPacket packet = packets.poll();
+        if (packet == null) {
+            packet = new UdpPacket(this, bufferLength);
+        }
+        return packet;
+    }
+
+    void release(UdpPacket packet) {
+        // 池满时直接丢弃，交给 GC
+        packets.offer(packet);
+    }
+
+    public int getBufferLength() {
+        return bufferLength;
+    }
+}
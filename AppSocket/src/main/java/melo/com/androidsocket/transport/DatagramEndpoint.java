@@ -0,0 +1,21 @@
+package melo.com.androidsocket.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+/**
+ * 绑定在一个端口上的数据报收发端，语义与 DatagramSocket 相同
+ */
+public interface DatagramEndpoint {
+
+    void send(DatagramPacket packet) throws IOException;
+
+    /**
+     * 阻塞直到收到数据报，超过 packet 缓冲区的部分被截断
+     *
+     * @throws IOException 已关闭
+     */
+    void receive(DatagramPacket packet) throws IOException;
+
+    void close();
+}
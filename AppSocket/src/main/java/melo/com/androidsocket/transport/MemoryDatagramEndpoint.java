@@ -0,0 +1,144 @@
+package melo.com.androidsocket.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 模拟设备上的数据报端口，按送达时间排序，带抖动时会乱序
+ */
+class MemoryDatagramEndpoint implements DatagramEndpoint {
+
+    private final MemoryTransport host;
+    private final int port;
+    private final int capacity;
+    private final PriorityQueue<Datagram> queue = new PriorityQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // 送达时间相同时保持发送顺序
+    private long sequence = 0;
+    private boolean closed = false;
+
+    MemoryDatagramEndpoint(MemoryTransport host, int port, int capacity) {
+        this.host = host;
+        this.port = port;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        if (isClosed()) {
+            throw new SocketException("Socket is closed");
+        }
+        host.getNetwork().sendDatagram(host, port, packet);
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        Datagram datagram;
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new SocketException("Socket closed");
+                }
+                datagram = queue.peek();
+                if (datagram == null) {
+                    changed.await();
+                    continue;
+                }
+                long wait = datagram.deliverNanos - System.nanoTime();
+                if (wait <= 0) {
+                    queue.poll();
+                    break;
+                }
+                changed.awaitNanos(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("receive interrupted");
+        } finally {
+            lock.unlock();
+        }
+        // 与 DatagramSocket 一样，超出缓冲区的部分被截断
+        int length = Math.min(datagram.data.length, packet.getLength());
+        System.arraycopy(datagram.data, 0, packet.getData(), packet.getOffset(), length);
+        packet.setLength(length);
+        packet.setAddress(datagram.address);
+        packet.setPort(datagram.port);
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        host.removeDatagramEndpoint(port, this);
+    }
+
+    /**
+     * 放入接收队列，已关闭或队列已满时丢弃
+     */
+    void deliver(byte[] data, InetAddress address, int port, long deliverNanos) {
+        lock.lock();
+        try {
+            if (closed || queue.size() >= capacity) {
+                return;
+            }
+            Datagram datagram = new Datagram(data, address, port, deliverNanos, sequence++);
+            queue.add(datagram);
+            if (queue.peek() == datagram) {
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Datagram implements Comparable<Datagram> {
+        final byte[] data;
+        final InetAddress address;
+        final int port;
+        final long deliverNanos;
+        final long sequence;
+
+        Datagram(byte[] data, InetAddress address, int port, long deliverNanos, long sequence) {
+            this.data = data;
+            this.address = address;
+            this.port = port;
+            this.deliverNanos = deliverNanos;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Datagram other) {
+            long diff = deliverNanos - other.deliverNanos;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package melo.com.androidsocket.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内模拟的局域网，用于在普通 JVM 上测试 SocketManager、TCPSocket 和 UDPSocket。
+ * <p>
+ * 每个 newHost 得到一台 10.0.0.0/8 网段内的模拟设备，广播地址为 10.255.255.255。
+ * 数据不经过系统 socket，没有线程开销，可以同时模拟成千上万台设备。
+ * <ul>
+ * <li>延迟：每个数据报或 TCP 分段的单程延迟，另加 0 到 jitter 之间的随机抖动</li>
+ * <li>丢包：数据报按概率丢弃；TCP 分段按概率“重传”，该分段及之后的数据推迟一个重传超时送达</li>
+ * <li>带宽：每台设备的上行带宽，数据报和所有连接共享</li>
+ * </ul>
+ * 时间使用真实时钟。丢包和抖动由同一个随机数生成器决定，种子相同、发送顺序相同时结果相同。
+ */
+public class MemoryNetwork {
+
+    // TCP 分段大小，丢包按分段计算
+    static final int SEGMENT_SIZE = 1460;
+    // 每条连接每个方向在途加未读的字节数上限，相当于发送和接收缓冲区之和
+    public static final int DEFAULT_STREAM_BUFFER = 64 * 1024;
+    // 每个数据报端口最多缓存的未读数据报，满了之后新到的被丢弃
+    public static final int DEFAULT_DATAGRAM_QUEUE = 256;
+    // TCP 重传超时的下限，与 Linux 的 RTO 下限一致
+    private static final long MIN_RETRANSMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    // 主机号从 1 开始，避开网络地址和广播地址
+    private static final int MAX_HOSTS = 0xfffffe;
+
+    private final Random random;
+    private final ConcurrentMap<InetAddress, MemoryTransport> hosts = new ConcurrentHashMap<>();
+    // 按端口索引的数据报端点，用于广播
+    private final ConcurrentMap<Integer, Set<MemoryDatagramEndpoint>> datagramPorts = new ConcurrentHashMap<>();
+    private final AtomicInteger nextHost = new AtomicInteger();
+    private final InetAddress broadcastAddress;
+
+    private volatile long latencyNanos = 0;
+    private volatile long jitterNanos = 0;
+    private volatile double lossRate = 0;
+    private volatile long bandwidth = 0;
+    private volatile int streamBuffer = DEFAULT_STREAM_BUFFER;
+    private volatile int datagramQueue = DEFAULT_DATAGRAM_QUEUE;
+
+    public MemoryNetwork() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * @param seed 丢包和抖动的随机数种子
+     */
+    public MemoryNetwork(long seed) {
+        this.random = new Random(seed);
+        this.broadcastAddress = address(0xffffff);
+    }
+
+    /**
+     * 加入一台新设备
+     */
+    public MemoryTransport newHost() {
+        int index = nextHost.incrementAndGet();
+        if (index > MAX_HOSTS) {
+            throw new IllegalStateException("模拟网络的地址已用完");
+        }
+        MemoryTransport host = new MemoryTransport(this, address(index));
+        hosts.put(host.getAddress(), host);
+        return host;
+    }
+
+    /**
+     * @param latencyMs 单程延迟
+     * @param jitterMs  额外的随机延迟上限，会导致数据报乱序，TCP 仍按顺序送达
+     */
+    public void setLatency(long latencyMs, long jitterMs) {
+        if (latencyMs < 0 || jitterMs < 0) {
+            throw new IllegalArgumentException("latency and jitter must not be negative");
+        }
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMs);
+    }
+
+    /**
+     * @param lossRate 0 到 1 之间的丢包率
+     */
+    public void setLossRate(double lossRate) {
+        if (lossRate < 0 || lossRate > 1) {
+            throw new IllegalArgumentException("lossRate must be in [0, 1]");
+        }
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * @param bytesPerSecond 每台设备的上行带宽，0 表示不限
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bandwidth must not be negative");
+        }
+        this.bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * 设置之后新建的连接和端口的缓冲区大小
+     *
+     * @param streamBuffer  每条连接每个方向在途加未读的字节数上限
+     * @param datagramQueue 每个数据报端口最多缓存的未读数据报数
+     */
+    public void setBufferOptions(int streamBuffer, int datagramQueue) {
+        if (streamBuffer <= 0 || datagramQueue <= 0) {
+            throw new IllegalArgumentException("buffer sizes must be positive");
+        }
+        this.streamBuffer = streamBuffer;
+        this.datagramQueue = datagramQueue;
+    }
+
+    public InetAddress getBroadcastAddress() {
+        return broadcastAddress;
+    }
+
+    /**
+     * @return 尚未 close 的设备数
+     */
+    public int getHostCount() {
+        return hosts.size();
+    }
+
+    MemoryTransport getHost(InetAddress address) {
+        return hosts.get(address);
+    }
+
+    void removeHost(MemoryTransport host) {
+        hosts.remove(host.getAddress(), host);
+    }
+
+    int getStreamBuffer() {
+        return streamBuffer;
+    }
+
+    int getDatagramQueue() {
+        return datagramQueue;
+    }
+
+    long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    void addDatagramEndpoint(int port, MemoryDatagramEndpoint endpoint) {
+        Set<MemoryDatagramEndpoint> endpoints = datagramPorts.get(port);
+        if (endpoints == null) {
+            Set<MemoryDatagramEndpoint> created = Collections.newSetFromMap(new ConcurrentHashMap<MemoryDatagramEndpoint, Boolean>());
+            endpoints = datagramPorts.putIfAbsent(port, created);
+            if (endpoints == null) {
+                endpoints = created;
+            }
+        }
+        endpoints.add(endpoint);
+    }
+
+    void removeDatagramEndpoint(int port, MemoryDatagramEndpoint endpoint) {
+        Set<MemoryDatagramEndpoint> endpoints = datagramPorts.get(port);
+        if (endpoints != null) {
+            endpoints.remove(endpoint);
+        }
+    }
+
+    /**
+     * 发送数据报，广播地址送达该端口上的所有端点，包括发送方自己
+     */
+    void sendDatagram(MemoryTransport sender, int senderPort, DatagramPacket packet) throws IOException {
+        InetAddress target = packet.getAddress();
+        if (target == null) {
+            throw new IOException("数据报没有目标地址");
+        }
+        byte[] data = new byte[packet.getLength()];
+        System.arraycopy(packet.getData(), packet.getOffset(), data, 0, data.length);
+        long sentAt = sender.reserveUplink(data.length, bandwidth);
+        if (target.equals(broadcastAddress)) {
+            Set<MemoryDatagramEndpoint> endpoints = datagramPorts.get(packet.getPort());
+            if (endpoints == null) {
+                return;
+            }
+            for (MemoryDatagramEndpoint endpoint : endpoints) {
+                deliverDatagram(endpoint, data, sender, senderPort, sentAt);
+            }
+            return;
+        }
+        MemoryTransport host = hosts.get(target);
+        MemoryDatagramEndpoint endpoint = host == null ? null : host.getDatagramEndpoint(packet.getPort());
+        if (endpoint != null) {
+            deliverDatagram(endpoint, data, sender, senderPort, sentAt);
+        }
+    }
+
+    private void deliverDatagram(MemoryDatagramEndpoint endpoint, byte[] data, MemoryTransport sender, int senderPort, long sentAt) {
+        if (lose()) {
+            return;
+        }
+        endpoint.deliver(data, sender.getAddress(), senderPort, sentAt + latencyNanos + jitter());
+    }
+
+    /**
+     * @return TCP 分段送达对端的时间，丢包时加上一次重传超时
+     */
+    long streamDeliveryTime(MemoryTransport sender, int bytes) {
+        long at = sender.reserveUplink(bytes, bandwidth) + latencyNanos + jitter();
+        if (lose()) {
+            at += Math.max(MIN_RETRANSMIT_NANOS, 2 * latencyNanos);
+        }
+        return at;
+    }
+
+    private boolean lose() {
+        double rate = lossRate;
+        if (rate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    private long jitter() {
+        long jitter = jitterNanos;
+        if (jitter <= 0) {
+            return 0;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * jitter);
+        }
+    }
+
+    private static InetAddress address(int host) {
+        try {
+            return InetAddress.getByAddress(new byte[]{10, (byte) (host >> 16), (byte) (host >> 8), (byte) host});
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package melo.com.androidsocket.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 模拟的 TCP 连接，两个方向各是一条 Pipe。
+ * <p>
+ * 写入的数据按分段加上送达时间，读端只能读到已经送达的部分；
+ * 在途加未读的字节数超过缓冲区时写端阻塞，因此吞吐量同样受带宽和往返延迟限制。
+ */
+class MemoryStream implements StreamConnection {
+
+    // transferFrom 每次从文件读取的字节数
+    private static final int TRANSFER_CHUNK = 64 * 1024;
+
+    private final MemoryTransport local;
+    private final InetSocketAddress remote;
+    private final Pipe in;
+    private final Pipe out;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private MemoryStream(MemoryTransport local, InetSocketAddress remote, Pipe in, Pipe out) {
+        this.local = local;
+        this.remote = remote;
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * @return 发起方和接受方两端
+     */
+    static MemoryStream[] pair(MemoryNetwork network, MemoryTransport client, InetSocketAddress serverAddress,
+                               MemoryTransport server, InetSocketAddress clientAddress) {
+        Pipe up = new Pipe(network, client);
+        Pipe down = new Pipe(network, server);
+        MemoryStream clientSide = new MemoryStream(client, serverAddress, down, up);
+        MemoryStream serverSide = new MemoryStream(server, clientAddress, up, down);
+        client.addStream(clientSide);
+        server.addStream(serverSide);
+        return new MemoryStream[]{clientSide, serverSide};
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        try {
+            return in.read(dst);
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        try {
+            return out.write(src);
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, TRANSFER_CHUNK));
+        int read = file.read(buffer, position);
+        if (read <= 0) {
+            return 0;
+        }
+        buffer.flip();
+        return write(buffer);
+    }
+
+    @Override
+    public void setSendBufferSize(int bytes) throws IOException {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("bytes must be positive");
+        }
+        out.setCapacity(bytes);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return remote;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * 对端读完已发出的数据后读到 -1，之后对端再写入会失败
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        in.closeReader();
+        out.closeWriter();
+        local.removeStream(this);
+    }
+
+    /**
+     * 与 SocketChannel 一样，阻塞中的线程被中断时关闭连接
+     */
+    private IOException interrupted() {
+        close();
+        Thread.currentThread().interrupt();
+        return new ClosedByInterruptException();
+    }
+
+    /**
+     * 单向的字节流，在途的分段按送达时间排列
+     */
+    private static final class Pipe {
+        private final MemoryNetwork network;
+        private final MemoryTransport sender;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+        private int capacity;
+        // 在途加未读的字节数
+        private int buffered = 0;
+        // 最后一个分段的送达时间，TCP 不乱序
+        private long lastDeliverNanos = Long.MIN_VALUE;
+        private boolean writerClosed = false;
+        private boolean readerClosed = false;
+
+        Pipe(MemoryNetwork network, MemoryTransport sender) {
+            this.network = network;
+            this.sender = sender;
+            this.capacity = network.getStreamBuffer();
+        }
+
+        void setCapacity(int capacity) {
+            lock.lock();
+            try {
+                this.capacity = capacity;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 写入全部数据，缓冲区满时阻塞
+         */
+        int write(ByteBuffer src) throws IOException, InterruptedException {
+            int total = 0;
+            lock.lock();
+            try {
+                while (src.hasRemaining()) {
+                    if (writerClosed) {
+                        throw new ClosedChannelException();
+                    }
+                    if (readerClosed) {
+                        throw new IOException("Broken pipe");
+                    }
+                    int space = capacity - buffered;
+                    if (space <= 0) {
+                        changed.await();
+                        continue;
+                    }
+                    int length = Math.min(src.remaining(), Math.min(space, MemoryNetwork.SEGMENT_SIZE));
+                    byte[] data = new byte[length];
+                    src.get(data);
+                    long deliverNanos = network.streamDeliveryTime(sender, length);
+                    if (lastDeliverNanos != Long.MIN_VALUE && deliverNanos - lastDeliverNanos < 0) {
+                        deliverNanos = lastDeliverNanos;
+                    }
+                    lastDeliverNanos = deliverNanos;
+                    segments.addLast(new Segment(data, deliverNanos));
+                    buffered += length;
+                    total += length;
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            return total;
+        }
+
+        /**
+         * 阻塞直到有已送达的数据
+         *
+         * @return 写端关闭且数据已读完时返回 -1
+         */
+        int read(ByteBuffer dst) throws IOException, InterruptedException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                while (true) {
+                    if (readerClosed) {
+                        throw new ClosedChannelException();
+                    }
+                    Segment head = segments.peekFirst();
+                    if (head == null) {
+                        if (writerClosed) {
+                            return -1;
+                        }
+                        changed.await();
+                        continue;
+                    }
+                    long wait = head.deliverNanos - System.nanoTime();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    changed.awaitNanos(wait);
+                }
+                long now = System.nanoTime();
+                int total = 0;
+                Segment head = segments.peekFirst();
+                while (head != null && dst.hasRemaining() && head.deliverNanos - now <= 0) {
+                    int length = Math.min(dst.remaining(), head.data.length - head.offset);
+                    dst.put(head.data, head.offset, length);
+                    head.offset += length;
+                    total += length;
+                    if (head.offset == head.data.length) {
+                        segments.pollFirst();
+                        head = segments.peekFirst();
+                    }
+                }
+                buffered -= total;
+                changed.signalAll();
+                return total;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void closeWriter() {
+            lock.lock();
+            try {
+                writerClosed = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void closeReader() {
+            lock.lock();
+            try {
+                readerClosed = true;
+                segments.clear();
+                buffered = 0;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Segment {
+        final byte[] data;
+        final long deliverNanos;
+        int offset = 0;
+
+        Segment(byte[] data, long deliverNanos) {
+            this.data = data;
+            this.deliverNanos = deliverNanos;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package melo.com.androidsocket.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MemoryNetwork 中的一台模拟设备，由 MemoryNetwork.newHost 创建。
+ * <p>
+ * 作为 Transport 交给 UDPSocket、TCPSocket 或 SocketManager 使用；
+ * 模拟的服务端通过 listen 接受连接。close 模拟设备离线，关闭它的所有端口和连接。
+ */
+public class MemoryTransport implements Transport {
+
+    /**
+     * 接受连接的回调，在发起连接的线程中调用，不要在其中阻塞读写
+     */
+    public interface Acceptor {
+        void onAccept(StreamConnection connection);
+    }
+
+    // 主动连接使用的本地端口范围
+    private static final int FIRST_EPHEMERAL_PORT = 49152;
+    private static final int LAST_EPHEMERAL_PORT = 65535;
+
+    private final MemoryNetwork network;
+    private final InetAddress address;
+    private final ConcurrentMap<Integer, MemoryDatagramEndpoint> datagrams = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Acceptor> acceptors = new ConcurrentHashMap<>();
+    private final Set<MemoryStream> streams = Collections.newSetFromMap(new ConcurrentHashMap<MemoryStream, Boolean>());
+    private final AtomicInteger nextPort = new AtomicInteger();
+    // 上行链路空闲的时间，在 this 上同步
+    private long uplinkFreeNanos;
+    private volatile boolean closed = false;
+
+    MemoryTransport(MemoryNetwork network, InetAddress address) {
+        this.network = network;
+        this.address = address;
+    }
+
+    public MemoryNetwork getNetwork() {
+        return network;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public String getHostAddress() {
+        return address.getHostAddress();
+    }
+
+    /**
+     * 在端口上接受 TCP 连接
+     *
+     * @throws BindException 端口已被占用
+     */
+    public void listen(int port, Acceptor acceptor) throws IOException {
+        checkOpen();
+        if (acceptors.putIfAbsent(port, acceptor) != null) {
+            throw new BindException("Address already in use: " + port);
+        }
+    }
+
+    public void unlisten(int port) {
+        acceptors.remove(port);
+    }
+
+    /**
+     * 模拟设备离线：不再接受连接，关闭所有数据报端口和连接，对端读到连接结束
+     */
+    public void close() {
+        closed = true;
+        network.removeHost(this);
+        acceptors.clear();
+        for (MemoryDatagramEndpoint endpoint : datagrams.values()) {
+            endpoint.close();
+        }
+        for (MemoryStream stream : streams) {
+            stream.close();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return 当前打开的连接数
+     */
+    public int getConnectionCount() {
+        return streams.size();
+    }
+
+    @Override
+    public DatagramEndpoint bindDatagram(int port) throws IOException {
+        checkOpen();
+        MemoryDatagramEndpoint endpoint = new MemoryDatagramEndpoint(this, port, network.getDatagramQueue());
+        if (datagrams.putIfAbsent(port, endpoint) != null) {
+            throw new BindException("Address already in use: " + port);
+        }
+        network.addDatagramEndpoint(port, endpoint);
+        return endpoint;
+    }
+
+    /**
+     * 连接建立前等待一个往返时间，模拟三次握手
+     */
+    @Override
+    public StreamConnection connect(String host, int port) throws IOException {
+        checkOpen();
+        MemoryTransport target = network.getHost(InetAddress.getByName(host));
+        if (target == null) {
+            throw new NoRouteToHostException("No route to host: " + host);
+        }
+        long rtt = 2 * network.getLatencyNanos();
+        if (rtt > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(rtt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("connect interrupted");
+            }
+        }
+        Acceptor acceptor = target.acceptors.get(port);
+        if (acceptor == null || target.closed) {
+            throw new ConnectException("Connection refused: " + host + ":" + port);
+        }
+        int localPort = nextEphemeralPort();
+        MemoryStream[] pair = MemoryStream.pair(network,
+                this, new InetSocketAddress(target.address, port),
+                target, new InetSocketAddress(address, localPort));
+        acceptor.onAccept(pair[1]);
+        return pair[0];
+    }
+
+    @Override
+    public InetAddress getBroadcastAddress() {
+        return network.getBroadcastAddress();
+    }
+
+    @Override
+    public void invalidateBroadcastAddress() {
+        // 模拟网络的广播地址不会变化
+    }
+
+    MemoryDatagramEndpoint getDatagramEndpoint(int port) {
+        return datagrams.get(port);
+    }
+
+    void removeDatagramEndpoint(int port, MemoryDatagramEndpoint endpoint) {
+        datagrams.remove(port, endpoint);
+        network.removeDatagramEndpoint(port, endpoint);
+    }
+
+    void addStream(MemoryStream stream) {
+        streams.add(stream);
+    }
+
+    void removeStream(MemoryStream stream) {
+        streams.remove(stream);
+    }
+
+    /**
+     * 按上行带宽排队发送 bytes 字节
+     *
+     * @param bandwidth 字节每秒，0 表示不限
+     * @return 最后一个字节离开本机的时间
+     */
+    synchronized long reserveUplink(int bytes, long bandwidth) {
+        long now = System.nanoTime();
+        if (bandwidth <= 0) {
+            return now;
+        }
+        long start = Math.max(now, uplinkFreeNanos);
+        uplinkFreeNanos = start + TimeUnit.SECONDS.toNanos(bytes) / bandwidth;
+        return uplinkFreeNanos;
+    }
+
+    private int nextEphemeralPort() {
+        int range = LAST_EPHEMERAL_PORT - FIRST_EPHEMERAL_PORT + 1;
+        return FIRST_EPHEMERAL_PORT + (nextPort.getAndIncrement() & Integer.MAX_VALUE) % range;
+    }
+
+    private void checkOpen() throws SocketException {
+        if (closed) {
+            throw new SocketException("模拟设备已离线");
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package melo.com.androidsocket.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+import melo.com.androidsocket.utils.BroadcastAddressCache;
+
+/**
+ * 基于系统 socket 的实现，广播地址来自共享的 BroadcastAddressCache。
+ * <p>
+ * 数据报由 DatagramSocket 直接读写 UdpPacket 池中的堆内数组，不经过直接缓冲区中转，少一次拷贝。
+ */
+public class NetTransport implements Transport {
+
+    private static final NetTransport DEFAULT = new NetTransport(BroadcastAddressCache.getDefault());
+
+    private final BroadcastAddressCache broadcastAddress;
+
+    public NetTransport(BroadcastAddressCache broadcastAddress) {
+        this.broadcastAddress = broadcastAddress;
+    }
+
+    public static NetTransport getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public DatagramEndpoint bindDatagram(int port) throws IOException {
+        DatagramSocket socket = new DatagramSocket(port);
+        socket.setReuseAddress(true);
+        return new NetDatagramEndpoint(socket);
+    }
+
+    @Override
+    public StreamConnection connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        Socket socket = channel.socket();
+        socket.setKeepAlive(true);
+        socket.setTcpNoDelay(true);
+        socket.setReuseAddress(true);
+        return new NetStreamConnection(channel);
+    }
+
+    @Override
+    public InetAddress getBroadcastAddress() {
+        return broadcastAddress.get();
+    }
+
+    @Override
+    public void invalidateBroadcastAddress() {
+        broadcastAddress.invalidate();
+    }
+
+    private static final class NetDatagramEndpoint implements DatagramEndpoint {
+        private final DatagramSocket socket;
+
+        NetDatagramEndpoint(DatagramSocket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) throws IOException {
+            socket.send(packet);
+        }
+
+        @Override
+        public void receive(DatagramPacket packet) throws IOException {
+            socket.receive(packet);
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+
+    private static final class NetStreamConnection implements StreamConnection {
+        private final SocketChannel channel;
+
+        NetStreamConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return channel.write(srcs);
+        }
+
+        @Override
+        public long transferFrom(FileChannel file, long position, long count) throws IOException {
+            // 目标是 SocketChannel 本身时 transferTo 才能走 sendfile
+            return file.transferTo(position, count, channel);
+        }
+
+        @Override
+        public void setSendBufferSize(int bytes) throws IOException {
+            channel.socket().setSendBufferSize(bytes);
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package melo.com.androidsocket.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * 阻塞模式的 TCP 连接，读写语义与阻塞的 SocketChannel 相同：write 写完全部数据才返回，
+ * 对端关闭后 read 返回 -1，本端关闭会让阻塞中的 read 抛出异常
+ */
+public interface StreamConnection extends ByteChannel, GatheringByteChannel {
+
+    /**
+     * 把文件中的一段写入连接，系统 socket 上使用 transferTo 零拷贝
+     *
+     * @return 写入的字节数
+     */
+    long transferFrom(FileChannel file, long position, long count) throws IOException;
+
+    /**
+     * 设置发送缓冲区大小
+     */
+    void setSendBufferSize(int bytes) throws IOException;
+
+    InetSocketAddress getRemoteAddress();
+}
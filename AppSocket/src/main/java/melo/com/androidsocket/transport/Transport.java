@@ -0,0 +1,33 @@
+package melo.com.androidsocket.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * UDPSocket 和阻塞模式的 TCPSocket 所依赖的网络接口。
+ * <p>
+ * 默认实现 NetTransport 使用系统的 socket；MemoryNetwork 创建的 MemoryTransport 在进程内模拟网络，
+ * 可以在普通 JVM 上同时运行大量模拟设备，并设置延迟、丢包和带宽。
+ */
+public interface Transport {
+
+    /**
+     * 在本机的指定端口上收发数据报
+     */
+    DatagramEndpoint bindDatagram(int port) throws IOException;
+
+    /**
+     * 建立阻塞模式的 TCP 连接
+     */
+    StreamConnection connect(String host, int port) throws IOException;
+
+    /**
+     * @return 当前网络的广播地址
+     */
+    InetAddress getBroadcastAddress();
+
+    /**
+     * 网络切换后调用，下次获取时重新解析广播地址
+     */
+    void invalidateBroadcastAddress();
+}
@@ -0,0 +1,181 @@
+package melo.com.androidsocket.utils;
+
+import android.util.Log;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存广播地址，避免每次发送都遍历所有网卡。
+ * <p>
+ * 每隔 checkInterval 只按名字查询一次缓存所在的网卡，确认它仍然存在且广播地址不变；
+ * 每隔 refreshInterval 或调用 invalidate 后才完整遍历网卡重新选择（p2p 优先，其次 wlan0）。
+ * 网络切换时建议在 CONNECTIVITY_ACTION 等广播中调用 invalidate。
+ */
+public class BroadcastAddressCache {
+
+    private static final String TAG = "BroadcastAddressCache";
+
+    public static final long DEFAULT_CHECK_INTERVAL = 5 * 1000;
+    public static final long DEFAULT_REFRESH_INTERVAL = 60 * 1000;
+
+    private static final String[] PREFERRED_INTERFACES = {"p2p", "wlan0"};
+
+    private static volatile BroadcastAddressCache defaultCache = null;
+
+    private final InetAddress fallback;
+    private final long checkIntervalNanos;
+    private final long refreshIntervalNanos;
+
+    private Entry entry;
+    private long lastCheckNanos;
+    private long lastRefreshNanos;
+
+    /**
+     * @param fallback          找不到可用网卡时使用的地址
+     * @param checkIntervalMs   校验缓存网卡的间隔
+     * @param refreshIntervalMs 完整重新解析的间隔
+     */
+    public BroadcastAddressCache(InetAddress fallback, long checkIntervalMs, long refreshIntervalMs) {
+        this.fallback = fallback;
+        this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkIntervalMs);
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMs);
+    }
+
+    /**
+     * 进程内共享的缓存，默认回退到热点网段的广播地址
+     */
+    public static BroadcastAddressCache getDefault() {
+        if (defaultCache == null) {
+            synchronized (BroadcastAddressCache.class) {
+                if (defaultCache == null) {
+                    defaultCache = new BroadcastAddressCache(ipv4(192, 168, 43, 255), DEFAULT_CHECK_INTERVAL, DEFAULT_REFRESH_INTERVAL);
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * @return 当前的广播地址，不会返回 null
+     */
+    public synchronized InetAddress get() {
+        long now = System.nanoTime();
+        if (entry == null || now - lastRefreshNanos >= refreshIntervalNanos) {
+            refresh(now);
+        } else if (now - lastCheckNanos >= checkIntervalNanos) {
+            if (!isStillValid(entry)) {
+                refresh(now);
+            }
+            lastCheckNanos = now;
+        }
+        return entry.broadcast;
+    }
+
+    /**
+     * 丢弃缓存，下次 get 时重新解析
+     */
+    public synchronized void invalidate() {
+        entry = null;
+    }
+
+    private void refresh(long now) {
+        Entry resolved = resolve();
+        if (resolved == null) {
+            resolved = new Entry(null, fallback);
+        }
+        if (entry == null || !resolved.broadcast.equals(entry.broadcast)) {
+            Log.d(TAG, "广播地址：" + resolved.broadcast.getHostAddress() + " (" + resolved.interfaceName + ")");
+        }
+        entry = resolved;
+        lastCheckNanos = now;
+        lastRefreshNanos = now;
+    }
+
+    /**
+     * 只查询缓存的那一块网卡
+     */
+    private static boolean isStillValid(Entry entry) {
+        if (entry.interfaceName == null) {
+            // 使用的是回退地址，等完整刷新时再尝试
+            return true;
+        }
+        try {
+            NetworkInterface networkCard = NetworkInterface.getByName(entry.interfaceName);
+            if (networkCard == null || !networkCard.isUp()) {
+                return false;
+            }
+            return entry.broadcast.equals(findBroadcast(networkCard));
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 一次遍历同时查找所有候选网卡，按 PREFERRED_INTERFACES 的顺序选择
+     */
+    private static Entry resolve() {
+        Entry[] candidates = new Entry[PREFERRED_INTERFACES.length];
+        try {
+            Enumeration<NetworkInterface> eni = NetworkInterface.getNetworkInterfaces();
+            if (eni == null) {
+                return null;
+            }
+            while (eni.hasMoreElements()) {
+                NetworkInterface networkCard = eni.nextElement();
+                String name = networkCard.getName();
+                for (int i = 0; i < PREFERRED_INTERFACES.length; i++) {
+                    if (candidates[i] == null && name.startsWith(PREFERRED_INTERFACES[i])) {
+                        InetAddress broadcast = findBroadcast(networkCard);
+                        if (broadcast != null) {
+                            candidates[i] = new Entry(name, broadcast);
+                        }
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
+        for (Entry candidate : candidates) {
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static InetAddress findBroadcast(NetworkInterface networkCard) {
+        for (InterfaceAddress interfaceAddress : networkCard.getInterfaceAddresses()) {
+            InetAddress address = interfaceAddress.getAddress();
+            if (address instanceof Inet4Address && !address.isLoopbackAddress() && interfaceAddress.getBroadcast() != null) {
+                return interfaceAddress.getBroadcast();
+            }
+        }
+        return null;
+    }
+
+    private static InetAddress ipv4(int a, int b, int c, int d) {
+        try {
+            return InetAddress.getByAddress(new byte[]{(byte) a, (byte) b, (byte) c, (byte) d});
+        } catch (UnknownHostException e) {
+            // 长度固定为 4，不会发生
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        final String interfaceName;
+        final InetAddress broadcast;
+
+        Entry(String interfaceName, InetAddress broadcast) {
+            this.interfaceName = interfaceName;
+            this.broadcast = broadcast;
+        }
+    }
+}
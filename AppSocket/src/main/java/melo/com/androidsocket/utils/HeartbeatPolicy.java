@@ -0,0 +1,178 @@
+package melo.com.androidsocket.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据收到的流量和 RTT 自适应调整的心跳策略。
+ * <p>
+ * 只要在心跳间隔内收到过任何数据就不发 ping；空闲时发出 ping，之后收到的第一帧视为回应。
+ * 回应的 RTT 稳定时心跳间隔逐步翻倍到上限，RTT 抖动或回应超时则退回最小间隔。
+ * 等待回应的时限按 srtt + 4 * rttvar 计算（RFC 6298），连续 maxMisses 次超时判定对端下线，
+ * 链路越稳定时限越短，发现断线越快。
+ * <p>
+ * 所有方法都加锁，可以在接收线程和定时器线程中同时调用。
+ */
+public class HeartbeatPolicy {
+
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_PING = 1;
+    public static final int ACTION_DEAD = 2;
+
+    public static final long DEFAULT_MIN_INTERVAL = 2 * 1000;
+    // 加上 3 次 2 秒的等待，最坏情况下也不比原来固定的 15 秒超时慢
+    public static final long DEFAULT_MAX_INTERVAL = 8 * 1000;
+    // 旧版本对端不回复 pong，只在自己空闲 2 秒后发 ping，最短时限不能低于它的发送间隔
+    public static final long DEFAULT_MIN_PROBE_TIMEOUT = 2 * 1000;
+    public static final long DEFAULT_MAX_PROBE_TIMEOUT = 5 * 1000;
+    public static final int DEFAULT_MAX_MISSES = 3;
+
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final long minProbeTimeoutNanos;
+    private final long maxProbeTimeoutNanos;
+    private final int maxMisses;
+
+    private long intervalNanos;
+    private long lastReceiveNanos;
+    // 已发出但还没收到回应的 ping 的发送时间，0 表示没有
+    private long probeSentNanos;
+    private int misses;
+    // 平滑 RTT 及其偏差，单位纳秒，0 表示还没有样本
+    private long srtt;
+    private long rttvar;
+
+    public HeartbeatPolicy() {
+        this(DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_MIN_PROBE_TIMEOUT, DEFAULT_MAX_PROBE_TIMEOUT, DEFAULT_MAX_MISSES);
+    }
+
+    /**
+     * @param minIntervalMs     最短的空闲多久发 ping
+     * @param maxIntervalMs     链路稳定时最长的空闲多久发 ping
+     * @param minProbeTimeoutMs 等待回应的最短时限
+     * @param maxProbeTimeoutMs 等待回应的最长时限
+     * @param maxMisses         连续多少次没有回应判定下线
+     */
+    public HeartbeatPolicy(long minIntervalMs, long maxIntervalMs, long minProbeTimeoutMs, long maxProbeTimeoutMs, int maxMisses) {
+        if (minIntervalMs <= 0 || maxIntervalMs < minIntervalMs || minProbeTimeoutMs <= 0
+                || maxProbeTimeoutMs < minProbeTimeoutMs || maxMisses <= 0) {
+            throw new IllegalArgumentException("invalid heartbeat options");
+        }
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMs);
+        this.maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(maxIntervalMs);
+        this.minProbeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(minProbeTimeoutMs);
+        this.maxProbeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(maxProbeTimeoutMs);
+        this.maxMisses = maxMisses;
+        reset(System.nanoTime());
+    }
+
+    /**
+     * 连接建立时调用，清除之前的状态
+     */
+    public synchronized void reset(long nowNanos) {
+        intervalNanos = minIntervalNanos;
+        lastReceiveNanos = nowNanos;
+        probeSentNanos = 0;
+        misses = 0;
+        srtt = 0;
+        rttvar = 0;
+    }
+
+    /**
+     * 收到任何数据时调用
+     *
+     * @return 这次接收是对 ping 的首次回应时返回 RTT 微秒数，否则返回 -1
+     */
+    public synchronized long onReceived(long nowNanos) {
+        lastReceiveNanos = nowNanos;
+        if (probeSentNanos == 0) {
+            return -1;
+        }
+        long rtt = nowNanos - probeSentNanos;
+        boolean retried = misses > 0;
+        probeSentNanos = 0;
+        misses = 0;
+        if (retried) {
+            // 重发过的 ping 无法确定回应对应哪一次，不参与采样
+            return -1;
+        }
+        updateRtt(rtt);
+        return TimeUnit.NANOSECONDS.toMicros(rtt);
+    }
+
+    /**
+     * 定时调用，检查间隔应小于最短的等待时限
+     *
+     * @return ACTION_PING 时调用方应立即发送 ping，ACTION_DEAD 表示对端已下线
+     */
+    public synchronized int poll(long nowNanos) {
+        if (probeSentNanos != 0) {
+            if (nowNanos - probeSentNanos < getProbeTimeoutNanos()) {
+                return ACTION_NONE;
+            }
+            misses++;
+            intervalNanos = minIntervalNanos;
+            if (misses >= maxMisses) {
+                return ACTION_DEAD;
+            }
+            probeSentNanos = nowNanos;
+            return ACTION_PING;
+        }
+        if (nowNanos - lastReceiveNanos < intervalNanos) {
+            // 间隔内有数据往来，不需要心跳
+            return ACTION_NONE;
+        }
+        probeSentNanos = nowNanos;
+        return ACTION_PING;
+    }
+
+    /**
+     * @return 当前空闲多久发 ping，毫秒
+     */
+    public synchronized long getInterval() {
+        return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+    }
+
+    /**
+     * @return 当前等待回应的时限，毫秒
+     */
+    public synchronized long getProbeTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(getProbeTimeoutNanos());
+    }
+
+    /**
+     * @return 从最后一次收到数据到判定下线的最长时间，毫秒
+     */
+    public synchronized long getTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(intervalNanos + maxMisses * getProbeTimeoutNanos());
+    }
+
+    /**
+     * @return 检查间隔，取最短等待时限的一半
+     */
+    public long getPollInterval() {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(minProbeTimeoutNanos) / 2);
+    }
+
+    private long getProbeTimeoutNanos() {
+        if (srtt == 0) {
+            return maxProbeTimeoutNanos;
+        }
+        return Math.min(maxProbeTimeoutNanos, Math.max(minProbeTimeoutNanos, srtt + 4 * rttvar));
+    }
+
+    private void updateRtt(long rtt) {
+        if (srtt == 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+        // 偏差不超过平均值的一半，或者整体远小于最短等待时限，视为稳定，逐步放宽心跳间隔
+        if (rttvar * 2 <= srtt || srtt + 4 * rttvar <= minProbeTimeoutNanos / 4) {
+            intervalNanos = Math.min(maxIntervalNanos, intervalNanos * 2);
+        } else {
+            intervalNanos = minIntervalNanos;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package melo.com.androidsocket.utils;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by melo on 2017/9/21.
@@ -9,32 +8,83 @@ import java.util.TimerTask;
 
 public class HeartbeatTimer {
 
-    private Timer timer;
-    private TimerTask task;
-    private OnScheduleListener mListener;
+    private final HashedWheelTimer wheelTimer;
+    private HashedWheelTimer.Timeout timeout;
+    // 每次 startTimer 或 exit 加一，旧的执行链发现代数变化后不再续约
+    private int generation = 0;
+    private volatile OnScheduleListener mListener;
 
+    /**
+     * 使用进程内共享的时间轮，不再为每个心跳单独创建线程
+     */
     public HeartbeatTimer() {
-        timer = new Timer();
+        this(HashedWheelTimer.getDefault());
     }
 
-    public void startTimer(long delay, long period) {
-        task = new TimerTask() {
-            @Override
-            public void run() {
-                if (mListener != null) {
-                    mListener.onSchedule();
-                }
-            }
-        };
-        timer.schedule(task, delay, period);
+    public HeartbeatTimer(HashedWheelTimer wheelTimer) {
+        this.wheelTimer = wheelTimer;
+    }
+
+    public synchronized void startTimer(long delay, long period) {
+        cancelTimeout();
+        Task task = new Task(++generation, period, System.currentTimeMillis() + delay);
+        timeout = wheelTimer.newTimeout(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void exit() {
+        generation++;
+        cancelTimeout();
+    }
+
+    private void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    /**
+     * 仍是当前执行链时预约下一次执行
+     */
+    private synchronized void reschedule(Task task) {
+        if (task.generation != generation) {
+            return;
+        }
+        task.nextRunTime += task.period;
+        long delay = Math.max(0, task.nextRunTime - System.currentTimeMillis());
+        timeout = wheelTimer.newTimeout(task, delay, TimeUnit.MILLISECONDS);
     }
 
-    public void exit() {
-        if (task != null) {
-            task.cancel();
+    private synchronized boolean isCurrent(Task task) {
+        return task.generation == generation;
+    }
+
+    /**
+     * 一次 startTimer 对应的执行链，按固定频率推进下一次执行的理论时间，避免误差累积
+     */
+    private final class Task implements Runnable {
+
+        final int generation;
+        final long period;
+        long nextRunTime;
+
+        Task(int generation, long period, long nextRunTime) {
+            this.generation = generation;
+            this.period = period;
+            this.nextRunTime = nextRunTime;
         }
-        if (timer != null) {
-            timer.cancel();
+
+        @Override
+        public void run() {
+            if (!isCurrent(this)) {
+                return;
+            }
+            OnScheduleListener listener = mListener;
+            if (listener != null) {
+                listener.onSchedule();
+            }
+            // 回调期间可能已被重新启动或停止
+            reschedule(this);
         }
     }
 
@@ -0,0 +1,408 @@
+package melo.com.androidsocket.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把收到的数据异步分发给各个监听。
+ * <p>
+ * 每个监听有自己的有界队列，同一时刻最多只有一个线程在处理某个监听的队列，因此单个监听收到的顺序与入队顺序一致；
+ * 慢监听只会堆积自己的队列，不会拖住接收线程和其他监听。队列满时按 OverflowPolicy 处理，
+ * 线程池拒绝执行时队列中的数据全部计入丢弃。
+ * <p>
+ * 监听保存在写时复制的数组中，分发时只读取一次快照，遍历无锁且不分配对象。
+ * 同一个监听对象只会注册一次；注册时可指定主题，只接收主题匹配的数据。
+ * <p>
+ * 分片数大于 1 时，每个监听有多个队列，按 ShardSelector 给出的键（如发送方地址）选择队列，
+ * 不同键可在多个线程上并行处理，同一个键的数据仍保持顺序。
+ */
+public class OrderedDispatcher<T> {
+
+    // 每次最多连续处理的条数，处理完让出线程，避免一个监听长期占用线程池
+    private static final int MAX_DRAIN = 64;
+
+    public enum OverflowPolicy {
+        /**
+         * 阻塞分发线程直到有空位
+         */
+        BLOCK,
+        /**
+         * 丢弃队列中最旧的一条
+         */
+        DROP_OLDEST,
+        /**
+         * 丢弃新来的这一条
+         */
+        DROP_NEWEST
+    }
+
+    public interface Handler<T> {
+        void handle(T item);
+    }
+
+    /**
+     * 提取数据的主题，只有存在按主题过滤的监听时才会调用，每条数据最多一次
+     */
+    public interface TopicExtractor<T> {
+        String topicOf(T item);
+    }
+
+    /**
+     * 给出数据的分片键，键相同的数据进入同一个队列
+     */
+    public interface ShardSelector<T> {
+        int shardOf(T item);
+    }
+
+    /**
+     * 数据的引用管理，用于池化对象：每进入一个监听队列 retain 一次，处理完或被丢弃时 release 一次
+     */
+    public interface Lifecycle<T> {
+        void retain(T item);
+
+        /**
+         * @param dropped 是否因队列溢出被丢弃
+         */
+        void release(T item, boolean dropped);
+    }
+
+    private final Executor executor;
+    private final Lifecycle<T> lifecycle;
+    private volatile TopicExtractor<T> topicExtractor;
+    private volatile ShardSelector<T> shardSelector;
+    private final Object lock = new Object();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private volatile Subscriber<T>[] subscribers = new Subscriber[0];
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int queueCapacity;
+    private volatile OverflowPolicy policy;
+    private volatile int shards = 1;
+
+    /**
+     * @param executor      执行监听回调的线程池
+     * @param lifecycle     可为 null
+     * @param queueCapacity 每个监听的队列容量
+     * @param policy        队列满时的处理方式
+     */
+    public OrderedDispatcher(Executor executor, Lifecycle<T> lifecycle, int queueCapacity, OverflowPolicy policy) {
+        this.executor = executor;
+        this.lifecycle = lifecycle;
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+    }
+
+    /**
+     * 修改队列参数，只对之后添加的监听生效
+     */
+    public void setOptions(int queueCapacity, OverflowPolicy policy) {
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+    }
+
+    /**
+     * 设置每个监听的分片数，只对之后添加的监听生效。需要同时设置 ShardSelector
+     *
+     * @param shards 1 表示每个监听只有一个队列
+     */
+    public void setShards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive");
+        }
+        this.shards = shards;
+    }
+
+    public void setTopicExtractor(TopicExtractor<T> topicExtractor) {
+        this.topicExtractor = topicExtractor;
+    }
+
+    public void setShardSelector(ShardSelector<T> shardSelector) {
+        this.shardSelector = shardSelector;
+    }
+
+    public boolean addHandler(Handler<T> handler) {
+        return addHandler(handler, handler, null);
+    }
+
+    /**
+     * @param key     用于去重和移除的对象，通常是外部传入的监听
+     * @param handler
+     * @param topics  只接收这些主题，null 或空表示全部接收
+     * @return 该 key 已注册时返回 false
+     */
+    public boolean addHandler(Object key, Handler<T> handler, String[] topics) {
+        synchronized (lock) {
+            Subscriber<T>[] current = subscribers;
+            for (Subscriber<T> subscriber : current) {
+                if (subscriber.key == key) {
+                    return false;
+                }
+            }
+            Subscriber<T>[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = new Subscriber<>(this, key, handler, topics, shards);
+            subscribers = next;
+            return true;
+        }
+    }
+
+    /**
+     * 移除监听，队列中尚未处理的数据直接释放
+     *
+     * @return 该 key 未注册时返回 false
+     */
+    public boolean removeHandler(Object key) {
+        Subscriber<T> removed = null;
+        synchronized (lock) {
+            Subscriber<T>[] current = subscribers;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].key == key) {
+                    removed = current[i];
+                    @SuppressWarnings({"unchecked", "rawtypes"})
+                    Subscriber<T>[] next = new Subscriber[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                    subscribers = next;
+                    break;
+                }
+            }
+        }
+        if (removed == null) {
+            return false;
+        }
+        removed.close();
+        return true;
+    }
+
+    public boolean hasHandlers() {
+        return subscribers.length > 0;
+    }
+
+    /**
+     * 放入每个监听的队列，除 BLOCK 策略外不会阻塞
+     */
+    public void dispatch(T item) {
+        Subscriber<T>[] snapshot = subscribers;
+        String topic = null;
+        boolean topicResolved = false;
+        int shard = 0;
+        boolean shardResolved = false;
+        for (Subscriber<T> subscriber : snapshot) {
+            if (subscriber.topics != null) {
+                if (!topicResolved) {
+                    TopicExtractor<T> extractor = topicExtractor;
+                    topic = extractor != null ? extractor.topicOf(item) : null;
+                    topicResolved = true;
+                }
+                if (!subscriber.accepts(topic)) {
+                    continue;
+                }
+            }
+            Lane<T>[] lanes = subscriber.lanes;
+            if (lanes.length == 1) {
+                lanes[0].offer(item);
+                continue;
+            }
+            if (!shardResolved) {
+                ShardSelector<T> selector = shardSelector;
+                shard = selector != null ? spread(selector.shardOf(item)) : 0;
+                shardResolved = true;
+            }
+            lanes[shard % lanes.length].offer(item);
+        }
+    }
+
+    /**
+     * 打散哈希值的高位，结果非负
+     */
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & 0x7fffffff;
+    }
+
+    /**
+     * @return 所有监听因溢出丢弃的总条数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return 所有监听队列中尚未处理的条数
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (Subscriber<T> subscriber : subscribers) {
+            for (Lane<T> lane : subscriber.lanes) {
+                count += lane.queue.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 移除所有监听并释放未处理的数据
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void clear() {
+        Subscriber<T>[] removed;
+        synchronized (lock) {
+            removed = subscribers;
+            subscribers = new Subscriber[0];
+        }
+        for (Subscriber<T> subscriber : removed) {
+            subscriber.close();
+        }
+    }
+
+    private void retain(T item) {
+        if (lifecycle != null) {
+            lifecycle.retain(item);
+        }
+    }
+
+    private void release(T item, boolean isDropped) {
+        if (isDropped) {
+            dropped.incrementAndGet();
+        }
+        if (lifecycle != null) {
+            lifecycle.release(item, isDropped);
+        }
+    }
+
+    /**
+     * 一个注册的监听，包含一个或多个分片队列
+     */
+    private static final class Subscriber<T> {
+
+        final Object key;
+        final String[] topics;
+        final Lane<T>[] lanes;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Subscriber(OrderedDispatcher<T> dispatcher, Object key, Handler<T> handler, String[] topics, int shards) {
+            this.key = key;
+            this.topics = topics == null || topics.length == 0 ? null : topics.clone();
+            this.lanes = new Lane[shards];
+            for (int i = 0; i < shards; i++) {
+                lanes[i] = new Lane<>(dispatcher, handler, dispatcher.queueCapacity, dispatcher.policy);
+            }
+        }
+
+        boolean accepts(String topic) {
+            if (topic == null) {
+                return false;
+            }
+            for (String t : topics) {
+                if (topic.equals(t)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void close() {
+            for (Lane<T> lane : lanes) {
+                lane.closed = true;
+                lane.clear(false);
+            }
+        }
+    }
+
+    /**
+     * 一个串行处理的队列
+     */
+    private static final class Lane<T> implements Runnable {
+
+        final OrderedDispatcher<T> dispatcher;
+        final Handler<T> handler;
+        final BlockingQueue<T> queue;
+        final OverflowPolicy policy;
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        volatile boolean closed = false;
+
+        Lane(OrderedDispatcher<T> dispatcher, Handler<T> handler, int capacity, OverflowPolicy policy) {
+            this.dispatcher = dispatcher;
+            this.handler = handler;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.policy = policy;
+        }
+
+        void offer(T item) {
+            dispatcher.retain(item);
+            if (!enqueue(item)) {
+                dispatcher.release(item, true);
+                return;
+            }
+            schedule();
+        }
+
+        private boolean enqueue(T item) {
+            switch (policy) {
+                case BLOCK:
+                    try {
+                        queue.put(item);
+                        return true;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                case DROP_OLDEST:
+                    while (!queue.offer(item)) {
+                        T oldest = queue.poll();
+                        if (oldest != null) {
+                            dispatcher.release(oldest, true);
+                        }
+                    }
+                    return true;
+                default:
+                    return queue.offer(item);
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatcher.executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // 线程池已满或已关闭，排队的数据计入丢弃
+                    scheduled.set(false);
+                    clear(true);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            T item;
+            int count = 0;
+            while (!closed && count++ < MAX_DRAIN && (item = queue.poll()) != null) {
+                try {
+                    handler.handle(item);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                } finally {
+                    dispatcher.release(item, false);
+                }
+            }
+            scheduled.set(false);
+            if (closed) {
+                clear(false);
+            } else if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        void clear(boolean dropped) {
+            T item;
+            while ((item = queue.poll()) != null) {
+                dispatcher.release(item, dropped);
+            }
+        }
+    }
+}
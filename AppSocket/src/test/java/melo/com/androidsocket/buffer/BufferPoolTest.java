@@ -0,0 +1,166 @@
+package melo.com.androidsocket.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BufferPoolTest {
+
+    private static final int SLAB_SIZE = 256 * 1024;
+
+    private final BufferPool pool = new BufferPool(4 * SLAB_SIZE);
+
+    @Test
+    public void allocateRoundsUpToSizeClass() {
+        PooledBuffer buffer = pool.allocate(1000);
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.buffer().position());
+        assertEquals(1000, buffer.buffer().limit());
+        assertEquals(1024, buffer.buffer().capacity());
+        assertEquals(SLAB_SIZE, pool.getPooledBytes());
+        buffer.release();
+    }
+
+    @Test
+    public void releasedBufferIsReusedFirst() {
+        PooledBuffer first = pool.allocate(600);
+        first.release();
+        PooledBuffer second = pool.allocate(700);
+        assertSame(first, second);
+        assertEquals(700, second.buffer().limit());
+        second.release();
+    }
+
+    @Test
+    public void lastReleaseReturnsToPool() {
+        PooledBuffer buffer = pool.allocate(100);
+        assertEquals(1, pool.getUsedCount());
+        buffer.retain();
+        assertEquals(2, buffer.refCnt());
+        assertFalse(buffer.release());
+        assertEquals(1, pool.getUsedCount());
+        assertTrue(buffer.release());
+        assertEquals(0, pool.getUsedCount());
+    }
+
+    @Test
+    public void doubleReleaseIsRejected() {
+        PooledBuffer buffer = pool.allocate(100);
+        buffer.release();
+        try {
+            buffer.release();
+            fail();
+        } catch (IllegalStateException expected) {
+            // 计数保持为 0，不会被再次归还
+        }
+        assertEquals(0, buffer.refCnt());
+        try {
+            buffer.retain();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, pool.getUsedCount());
+    }
+
+    @Test
+    public void oversizedAllocationFallsBackToHeap() {
+        PooledBuffer buffer = pool.allocate(BufferPool.MAX_CHUNK_SIZE + 1);
+        assertFalse(buffer.isDirect());
+        assertEquals(1, pool.getUnpooledCount());
+        assertEquals(0, pool.getUsedCount());
+        buffer.release();
+
+        PooledBuffer largest = pool.allocate(BufferPool.MAX_CHUNK_SIZE);
+        assertTrue(largest.isDirect());
+        largest.release();
+    }
+
+    @Test
+    public void sizeClassIsCappedSoOthersStillGetMemory() {
+        // 默认单一规格最多一半预算，即两块 slab、8 个 64KB
+        List<PooledBuffer> large = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            large.add(pool.allocate(BufferPool.MAX_CHUNK_SIZE));
+        }
+        assertTrue(large.get(7).isDirect());
+        assertFalse(large.get(8).isDirect());
+        assertEquals(2 * SLAB_SIZE, pool.getPooledBytes());
+
+        PooledBuffer small = pool.allocate(512);
+        assertTrue(small.isDirect());
+        assertEquals(3 * SLAB_SIZE, pool.getPooledBytes());
+
+        small.release();
+        for (PooledBuffer buffer : large) {
+            buffer.release();
+        }
+        assertEquals(0, pool.getUsedCount());
+    }
+
+    @Test
+    public void totalBudgetIsRespected() {
+        BufferPool pool = new BufferPool(2 * SLAB_SIZE, 2 * SLAB_SIZE);
+        List<PooledBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            buffers.add(pool.allocate(BufferPool.MAX_CHUNK_SIZE));
+        }
+        PooledBuffer other = pool.allocate(512);
+        assertFalse(other.isDirect());
+        assertEquals(2 * SLAB_SIZE, pool.getPooledBytes());
+        for (PooledBuffer buffer : buffers) {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void invalidLimitsAreRejected() {
+        try {
+            new BufferPool(SLAB_SIZE, 2 * SLAB_SIZE);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new BufferPool(SLAB_SIZE - 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void leakedBufferIsReported() throws Exception {
+        pool.setLeakDetection(true);
+        leak();
+        // 缓冲区对象被回收后，下一次分配时报告
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getLeakCount() == 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            pool.allocate(100).release();
+        }
+        assertEquals(1, pool.getLeakCount());
+    }
+
+    @Test
+    public void releasedBufferIsNotReportedAsLeak() throws Exception {
+        pool.setLeakDetection(true);
+        pool.allocate(100).release();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(10);
+            pool.allocate(100).release();
+        }
+        assertEquals(0, pool.getLeakCount());
+    }
+
+    private void leak() {
+        // 不同规格，避免被后面的分配复用
+        pool.allocate(4096);
+    }
+}
@@ -0,0 +1,120 @@
+package melo.com.androidsocket.codec;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonFieldReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void readsTopLevelFields() {
+        JsonFieldReader reader = JsonFieldReader.of(" { \"ip\" : \"10.0.0.1\" , \"port\":9000, \"ok\":true } ");
+        assertEquals("10.0.0.1", reader.optString("ip"));
+        assertEquals(9000, reader.optLong("port", -1));
+        assertEquals("true", reader.optString("ok"));
+        assertFalse(reader.has("missing"));
+        // 已扫描过的字段可以重复读取
+        assertEquals("10.0.0.1", reader.optString("ip"));
+    }
+
+    @Test
+    public void readsWithinOffsetAndLength() {
+        byte[] bytes = "xx{\"a\":\"1\"}{\"b\":\"2\"}".getBytes(UTF_8);
+        JsonFieldReader reader = new JsonFieldReader(bytes, 2, 9);
+        assertEquals("1", reader.optString("a"));
+        assertFalse(reader.has("b"));
+    }
+
+    @Test
+    public void decodesEscapedValues() {
+        JsonFieldReader reader = JsonFieldReader.of("{\"a\":\"say \\\"hi\\\"\",\"b\":\"c:\\\\dir\",\"c\":\"\\u4e2d\\u0041\",\"d\":\"\\/\\n\\t\"}");
+        assertEquals("say \"hi\"", reader.optString("a"));
+        assertEquals("c:\\dir", reader.optString("b"));
+        assertEquals("\u4e2dA", reader.optString("c"));
+        assertEquals("/\n\t", reader.optString("d"));
+    }
+
+    @Test
+    public void matchesEscapedKeys() {
+        JsonFieldReader reader = JsonFieldReader.of("{\"a\\\"b\":1,\"c\\\\d\":2,\"\\u0065\":3,\"中\":4}");
+        assertEquals(1, reader.optLong("a\"b", -1));
+        assertEquals(2, reader.optLong("c\\d", -1));
+        assertEquals(3, reader.optLong("e", -1));
+        assertEquals(4, reader.optLong("中", -1));
+        assertFalse(reader.has("a"));
+    }
+
+    @Test
+    public void invalidUnicodeEscapeIsKeptAsIs() {
+        JsonFieldReader reader = JsonFieldReader.of("{\"a\":\"\\uzzzz\",\"b\":\"\\u00\"}");
+        assertEquals("\\uzzzz", reader.optString("a"));
+        assertEquals("\\u00", reader.optString("b"));
+    }
+
+    @Test
+    public void skipsNestedObjectsAndArrays() {
+        JsonFieldReader reader = JsonFieldReader.of(
+                "{\"obj\":{\"x\":{\"y\":\"}\"},\"z\":[1,{\"w\":\"]\"}]},\"arr\":[[1,2],[\"[\"],{}],\"last\":\"v\"}");
+        assertEquals("v", reader.optString("last"));
+        // 嵌套内部的字段不是顶层字段
+        assertFalse(reader.has("x"));
+        assertFalse(reader.has("w"));
+        assertEquals("[[1,2],[\"[\"],{}]", reader.optString("arr"));
+    }
+
+    @Test
+    public void readsPrimitiveAtEndOfInput() {
+        assertEquals(42, JsonFieldReader.of("{\"n\":42}").optLong("n", -1));
+        assertEquals("-1.5e3", JsonFieldReader.of("{\"a\":\"x\",\"n\":-1.5e3}").optString("n"));
+        assertEquals("true", JsonFieldReader.of("{\"b\":true}").optString("b"));
+        assertEquals("false", JsonFieldReader.of("{\"b\":false\n}").optString("b"));
+        // null 与 org.json 的 optString 一致，返回空串
+        JsonFieldReader reader = JsonFieldReader.of("{\"v\":null}");
+        assertTrue(reader.has("v"));
+        assertEquals("", reader.optString("v"));
+        assertEquals(7, reader.optLong("v", 7));
+        // 缺少结尾括号时最后一个值仍可读取
+        assertEquals(5, JsonFieldReader.of("{\"n\":5").optLong("n", -1));
+    }
+
+    @Test
+    public void truncatedInputStopsScanning() {
+        JsonFieldReader reader = JsonFieldReader.of("{\"a\":\"1\",\"b\":\"unterminated");
+        assertEquals("1", reader.optString("a"));
+        assertFalse(reader.has("b"));
+
+        assertFalse(JsonFieldReader.of("{\"a\":{\"b\":1").has("a"));
+        assertFalse(JsonFieldReader.of("{\"a\":[1,2").has("a"));
+        assertFalse(JsonFieldReader.of("{\"a\":").has("a"));
+        assertFalse(JsonFieldReader.of("{\"a").has("a"));
+        assertFalse(JsonFieldReader.of("{\"a\":\"x\\").has("a"));
+    }
+
+    @Test
+    public void malformedInputHasNoFields() {
+        assertFalse(JsonFieldReader.of("").has("a"));
+        assertFalse(JsonFieldReader.of("   ").has("a"));
+        assertFalse(JsonFieldReader.of("[{\"a\":1}]").has("a"));
+        assertFalse(JsonFieldReader.of("not json").has("a"));
+        assertFalse(JsonFieldReader.of("{a:1}").has("a"));
+        // 缺少冒号时停止扫描，之前的字段仍然有效
+        JsonFieldReader reader = JsonFieldReader.of("{\"a\":1,\"b\" 2,\"c\":3}");
+        assertEquals(1, reader.optLong("a", -1));
+        assertFalse(reader.has("b"));
+        assertFalse(reader.has("c"));
+    }
+
+    @Test
+    public void nonNumericValueFallsBack() {
+        JsonFieldReader reader = JsonFieldReader.of("{\"a\":\"abc\",\"b\":{}}");
+        assertEquals(-1, reader.optLong("a", -1));
+        assertEquals(-1, reader.optLong("b", -1));
+        assertEquals(-1, reader.optLong("c", -1));
+    }
+}
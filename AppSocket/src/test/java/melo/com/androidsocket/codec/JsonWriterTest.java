@@ -0,0 +1,87 @@
+package melo.com.androidsocket.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JsonWriterTest {
+
+    @Test
+    public void writesNestedStructures() {
+        String json = new JsonWriter()
+                .beginObject()
+                .name("a").value(1)
+                .name("b").beginArray().value("x").value(true).nullValue().beginObject().endObject().endArray()
+                .name("c").beginObject().name("d").value(1.5).endObject()
+                .endObject()
+                .toString();
+        assertEquals("{\"a\":1,\"b\":[\"x\",true,null,{}],\"c\":{\"d\":1.5}}", json);
+    }
+
+    @Test
+    public void nullStringIsWrittenAsNull() {
+        assertEquals("{\"a\":null}", new JsonWriter().beginObject().name("a").value((String) null).endObject().toString());
+    }
+
+    @Test
+    public void escapesSpecialCharacters() {
+        String json = new JsonWriter().beginObject().name("k\"\\").value("\"\\\n\r\t\b\f\u0001\u001f/中").endObject().toString();
+        assertEquals("{\"k\\\"\\\\\":\"\\\"\\\\\\n\\r\\t\\b\\f\\u0001\\u001f/中\"}", json);
+    }
+
+    @Test
+    public void roundTripsThroughReader() {
+        String[] values = {"", "plain", "quote\"back\\slash", "line\nbreak\ttab\rcr", "\u0000\u0001\u0008\u000c\u001f", "中文 \u00e9 \ud83d\ude00"};
+        JsonWriter writer = new JsonWriter().beginObject();
+        for (int i = 0; i < values.length; i++) {
+            writer.name("k" + i + values[i]).value(values[i]);
+        }
+        writer.name("nested").beginArray().value("]").endArray();
+        writer.name("n").value(-12);
+        String json = writer.endObject().toString();
+
+        JsonFieldReader reader = JsonFieldReader.of(json);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], reader.optString("k" + i + values[i]));
+        }
+        assertEquals(-12, reader.optLong("n", 0));
+        assertEquals("[\"]\"]", reader.optString("nested"));
+    }
+
+    @Test
+    public void invalidNumbersAreRejected() {
+        try {
+            new JsonWriter().value(Double.NaN);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new JsonWriter().value(Double.POSITIVE_INFINITY);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void unbalancedEndIsRejected() {
+        try {
+            new JsonWriter().endObject();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void nestingDepthIsLimited() {
+        JsonWriter writer = new JsonWriter();
+        for (int i = 0; i < 32; i++) {
+            writer.beginArray();
+        }
+        try {
+            writer.beginArray();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
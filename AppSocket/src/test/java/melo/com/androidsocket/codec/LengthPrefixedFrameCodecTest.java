@@ -0,0 +1,85 @@
+package melo.com.androidsocket.codec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LengthPrefixedFrameCodecTest {
+
+    private final List<byte[]> frames = new ArrayList<>();
+    private final FrameCodec.FrameHandler handler = new FrameCodec.FrameHandler() {
+        @Override
+        public void onFrame(ByteBuffer frame) {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            frames.add(bytes);
+        }
+    };
+
+    @Test
+    public void negativeLengthIsRejectedBeforeConsuming() throws Exception {
+        LengthFieldFrameCodec codec = new LengthFieldFrameCodec();
+        ByteBuffer in = ByteBuffer.wrap(new byte[]{(byte) 0x80, 0, 0, 0, 1, 2});
+        try {
+            codec.decode(in, handler);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(0, in.position());
+        assertEquals(0, frames.size());
+    }
+
+    @Test
+    public void negativeLengthInSplitHeaderIsRejected() throws Exception {
+        LengthFieldFrameCodec codec = new LengthFieldFrameCodec();
+        codec.decode(ByteBuffer.wrap(new byte[]{(byte) 0x80, 0}), handler);
+        try {
+            codec.decode(ByteBuffer.wrap(new byte[]{0, 0}), handler);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(0, frames.size());
+    }
+
+    @Test
+    public void negativeVarintLengthIsRejected() throws Exception {
+        // 5 字节 varint 编码的 -1
+        ByteBuffer in = ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        try {
+            new VarintFrameCodec().decode(in, handler);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(0, in.position());
+    }
+
+    @Test
+    public void lengthAboveMaximumIsRejected() throws Exception {
+        LengthFieldFrameCodec codec = new LengthFieldFrameCodec(16);
+        try {
+            codec.decode(ByteBuffer.wrap(new byte[]{0, 0, 0, 17}), handler);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void framesSplitAcrossReadsAreJoined() throws Exception {
+        LengthFieldFrameCodec codec = new LengthFieldFrameCodec();
+        ByteBuffer encoded = codec.encode(new byte[]{1, 2, 3}, 0, 3);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        for (byte b : bytes) {
+            codec.decode(ByteBuffer.wrap(new byte[]{b}), handler);
+        }
+        assertEquals(1, frames.size());
+        assertArrayEquals(new byte[]{1, 2, 3}, frames.get(0));
+    }
+}
@@ -0,0 +1,105 @@
+package melo.com.androidsocket.socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.common.Config;
+import melo.com.androidsocket.listener.OnPeerConnectionListener;
+import melo.com.androidsocket.socket.udp.UDPSocket;
+import melo.com.androidsocket.transport.DatagramEndpoint;
+import melo.com.androidsocket.transport.MemoryNetwork;
+import melo.com.androidsocket.transport.MemoryTransport;
+import melo.com.androidsocket.transport.StreamConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在模拟网络上走完广播发现、建立 TCP 连接、断线重连的完整流程
+ */
+public class SocketManagerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int PORT = 9000;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private SocketRuntime runtime;
+    private MemoryNetwork network;
+    private MemoryTransport server;
+    private SocketManager manager;
+    private final BlockingQueue<StreamConnection> accepted = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        runtime = new SocketRuntime(1, 2, 64);
+        network = new MemoryNetwork(1);
+        server = network.newHost();
+        server.listen(PORT, new MemoryTransport.Acceptor() {
+            @Override
+            public void onAccept(StreamConnection connection) {
+                accepted.offer(connection);
+            }
+        });
+
+        manager = new SocketManager(null, network.newHost(), runtime);
+        manager.setReconnectPolicy(50, 100, 5);
+        manager.addOnPeerConnectionListener(new OnPeerConnectionListener() {
+            @Override
+            public void onPeerConnected(String ip, int port) {
+                events.offer("connected " + ip + ":" + port);
+            }
+
+            @Override
+            public void onPeerDisconnected(String ip, int port, int errorCode) {
+                events.offer("disconnected " + ip + ":" + port + " " + errorCode);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        manager.stopSocket();
+        server.close();
+        runtime.shutdown();
+    }
+
+    @Test
+    public void discoversConnectsAndReconnects() throws Exception {
+        String peer = server.getHostAddress() + ":" + PORT;
+        manager.startUdpConnection();
+        announce();
+
+        StreamConnection first = accepted.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals("connected " + peer, events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, manager.getDiscoveredPeers().size());
+        assertNotNull(manager.getTcpSocket(server.getHostAddress(), PORT));
+
+        // 对端断开，按退避策略重连同一地址，不需要再次广播
+        first.close();
+        assertEquals("disconnected " + peer + " " + Config.ErrorCode.TCP_DISCONNECTED, events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNotNull(accepted.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("connected " + peer, events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, manager.getPeerMetrics(server.getHostAddress(), PORT).getReconnects());
+        assertTrue(events.isEmpty());
+    }
+
+    /**
+     * 模拟对端广播自己的 TCP 地址
+     */
+    private void announce() throws Exception {
+        String message = "{\"" + Config.TCP_IP + "\":\"" + server.getHostAddress() + "\",\"" + Config.TCP_PORT + "\":\"" + PORT + "\"}";
+        byte[] data = message.getBytes(UTF_8);
+        DatagramEndpoint endpoint = server.bindDatagram(UDPSocket.CLIENT_PORT);
+        endpoint.send(new DatagramPacket(data, data.length, network.getBroadcastAddress(), UDPSocket.CLIENT_PORT));
+    }
+}
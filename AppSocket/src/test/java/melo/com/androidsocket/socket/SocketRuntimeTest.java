@@ -0,0 +1,182 @@
+package melo.com.androidsocket.socket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.common.Config;
+import melo.com.androidsocket.listener.OnConnectionStateListener;
+import melo.com.androidsocket.socket.tcp.TCPSocket;
+import melo.com.androidsocket.socket.udp.UDPSocket;
+import melo.com.androidsocket.transport.MemoryNetwork;
+import melo.com.androidsocket.transport.MemoryTransport;
+import melo.com.androidsocket.transport.StreamConnection;
+import melo.com.androidsocket.utils.HashedWheelTimer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SocketRuntimeTest {
+
+    @Test
+    public void shutdownKeepsSharedTimerRunning() throws Exception {
+        HashedWheelTimer shared = HashedWheelTimer.getDefault();
+        SocketRuntime runtime = new SocketRuntime(1, 1, 16);
+        assertNotSame(shared, runtime.getTimer());
+        SocketRuntime.setDefault(runtime);
+        runtime.shutdown();
+
+        assertSame(shared, HashedWheelTimer.getDefault());
+        final CountDownLatch fired = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        };
+        shared.newTimeout(task, 0, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutdownStopsOwnTimer() throws Exception {
+        SocketRuntime runtime = new SocketRuntime(1, 1, 16);
+        runtime.shutdown();
+        final CountDownLatch fired = new CountDownLatch(1);
+        runtime.getTimer().newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        assertFalse(fired.await(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void rejectedSendIsCountedAsDropped() throws Exception {
+        SocketRuntime runtime = new SocketRuntime(1, 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        try {
+            // 占住唯一的工作线程并填满队列
+            runtime.getWorkers().execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            runtime.getWorkers().execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+
+            UDPSocket socket = new UDPSocket(null, runtime, new MemoryNetwork(1).newHost());
+            socket.sendMessage(new byte[]{1});
+            // 不在调用线程中执行，直接计入丢弃
+            assertEquals(1, socket.getMetrics().getDroppedPackets());
+        } finally {
+            release.countDown();
+            runtime.shutdown();
+        }
+    }
+
+    @Test
+    public void blockingExecutorIsCapped() throws Exception {
+        SocketRuntime runtime = new SocketRuntime(1, 1, 16, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            runtime.getBlockingExecutor().execute(blocker);
+            runtime.getBlockingExecutor().execute(blocker);
+            try {
+                runtime.getBlockingExecutor().execute(blocker);
+                fail();
+            } catch (RejectedExecutionException expected) {
+            }
+        } finally {
+            release.countDown();
+            runtime.shutdown();
+        }
+    }
+
+    @Test
+    public void tcpStartAfterShutdownReportsFailure() throws Exception {
+        SocketRuntime runtime = new SocketRuntime(1, 1, 16);
+        runtime.shutdown();
+        TCPSocket socket = new TCPSocket(null, runtime, new MemoryNetwork(1).newHost());
+        BlockingQueue<String> events = recordEvents(socket);
+        socket.startTcpSocket("10.0.0.1", "9000");
+        assertEquals("failed " + Config.ErrorCode.CREATE_TCP_ERROR, events.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectedWriterFailsConnection() throws Exception {
+        // 唯一的阻塞线程被连接任务占用，写线程无法启动
+        SocketRuntime runtime = new SocketRuntime(1, 1, 16, 1);
+        MemoryNetwork network = new MemoryNetwork(1);
+        MemoryTransport server = network.newHost();
+        final BlockingQueue<StreamConnection> accepted = new LinkedBlockingQueue<>();
+        server.listen(9000, new MemoryTransport.Acceptor() {
+            @Override
+            public void onAccept(StreamConnection connection) {
+                accepted.offer(connection);
+            }
+        });
+        TCPSocket socket = new TCPSocket(null, runtime, network.newHost());
+        try {
+            BlockingQueue<String> events = recordEvents(socket);
+            socket.startTcpSocket(server.getHostAddress(), "9000");
+            assertEquals("failed " + Config.ErrorCode.CREATE_TCP_ERROR, events.poll(5, TimeUnit.SECONDS));
+            // 连接已被关闭，不会再报告成功
+            StreamConnection connection = accepted.poll(5, TimeUnit.SECONDS);
+            assertEquals(-1, connection.read(ByteBuffer.allocate(16)));
+            assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            socket.stopTcpConnection();
+            server.close();
+            runtime.shutdown();
+        }
+    }
+
+    private static BlockingQueue<String> recordEvents(TCPSocket socket) {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        socket.setOnConnectionStateListener(new OnConnectionStateListener() {
+            @Override
+            public void onSuccess() {
+                events.offer("success");
+            }
+
+            @Override
+            public void onFailed(int errorCode) {
+                events.offer("failed " + errorCode);
+            }
+        });
+        return events;
+    }
+}
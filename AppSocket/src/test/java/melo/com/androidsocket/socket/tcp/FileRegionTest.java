@@ -0,0 +1,193 @@
+package melo.com.androidsocket.socket.tcp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import melo.com.androidsocket.buffer.BufferPool;
+import melo.com.androidsocket.buffer.PooledBuffer;
+import melo.com.androidsocket.codec.VarintFrameCodec;
+import melo.com.androidsocket.transport.StreamConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileRegionTest {
+
+    // 与 TransferManager 的块头长度一致
+    private static final int DATA_HEADER_LENGTH = 19;
+
+    private File file;
+    private RandomAccessFile access;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("region", ".bin");
+        byte[] data = new byte[TransferManager.DEFAULT_CHUNK_SIZE + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        access = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        access.close();
+        file.delete();
+    }
+
+    @Test
+    public void defaultChunkFitsInPooledBuffer() throws Exception {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_POOLED_BYTES);
+        int count = TransferManager.DEFAULT_CHUNK_SIZE;
+        ByteBuffer header = new VarintFrameCodec().encodePrefix(new byte[DATA_HEADER_LENGTH], 0, DATA_HEADER_LENGTH, count);
+        FileRegion region = new FileRegion(header, access.getChannel(), 50, count);
+        assertTrue(region.length() <= BufferPool.MAX_CHUNK_SIZE);
+
+        PooledBuffer buffer = region.toBuffer(pool);
+        assertTrue(buffer.isDirect());
+        assertEquals(0, pool.getUnpooledCount());
+        ByteBuffer frame = buffer.buffer();
+        assertEquals(region.length(), frame.remaining());
+        // 帧头之后依次是块头和文件内容
+        int body = frame.position() + header.remaining();
+        for (int i = 0; i < count; i++) {
+            assertEquals((byte) ((50 + i) % 251), frame.get(body + i));
+        }
+        buffer.release();
+        assertEquals(0, pool.getUsedCount());
+    }
+
+    @Test
+    public void stalledTransferFallsBackToCopy() throws Exception {
+        NoTransferConnection channel = new NoTransferConnection();
+        int count = 20 * 1024;
+        new FileRegion(ByteBuffer.wrap(new byte[]{7}), access.getChannel(), 10, count).writeTo(channel);
+        byte[] written = channel.out.toByteArray();
+        assertEquals(1 + count, written.length);
+        assertEquals(7, written[0]);
+        for (int i = 0; i < count; i++) {
+            assertEquals((byte) ((10 + i) % 251), written[1 + i]);
+        }
+    }
+
+    @Test
+    public void regionPastEndOfFileIsRejected() throws Exception {
+        NoTransferConnection channel = new NoTransferConnection();
+        FileRegion region = new FileRegion(ByteBuffer.wrap(new byte[]{7}), access.getChannel(), access.length() - 10, 20);
+        try {
+            region.writeTo(channel);
+            fail();
+        } catch (EOFException expected) {
+        }
+        // 帧头也没有写出，连接上不会留下半帧
+        assertEquals(0, channel.out.size());
+    }
+
+    @Test
+    public void fileTruncatedDuringTransferFailsInsteadOfSpinning() throws Exception {
+        StreamConnection channel = new NoTransferConnection() {
+            private boolean truncated = false;
+
+            @Override
+            public long transferFrom(FileChannel file, long position, long count) throws IOException {
+                if (!truncated) {
+                    // 写出一部分后文件被截断
+                    truncated = true;
+                    access.setLength(position + 100);
+                    return 100;
+                }
+                // 与 MemoryStream 一样，读到文件末尾时返回 0
+                ByteBuffer buffer = ByteBuffer.allocate((int) count);
+                int read = file.read(buffer, position);
+                if (read <= 0) {
+                    return 0;
+                }
+                buffer.flip();
+                return write(buffer);
+            }
+        };
+        FileRegion region = new FileRegion(ByteBuffer.allocate(0), access.getChannel(), 0, 1000);
+        try {
+            region.writeTo(channel);
+            fail();
+        } catch (EOFException expected) {
+        }
+    }
+
+    /**
+     * transferFrom 始终没有进展的连接，写入的数据保存在内存中
+     */
+    private static class NoTransferConnection implements StreamConnection {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public long transferFrom(FileChannel file, long position, long count) throws IOException {
+            return 0;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            byte[] bytes = new byte[length];
+            src.get(bytes);
+            out.write(bytes, 0, length);
+            return length;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            return -1;
+        }
+
+        @Override
+        public void setSendBufferSize(int bytes) {
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
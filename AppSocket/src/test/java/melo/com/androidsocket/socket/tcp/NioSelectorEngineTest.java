@@ -0,0 +1,130 @@
+package melo.com.androidsocket.socket.tcp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.buffer.BufferPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 连接在本机回环地址上
+ */
+public class NioSelectorEngineTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private NioSelectorEngine engine;
+    private ServerSocket server;
+    private final BlockingQueue<String> events = new ArrayBlockingQueue<>(16);
+
+    @Before
+    public void setUp() throws Exception {
+        engine = new NioSelectorEngine(1);
+        server = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        engine.shutdown();
+    }
+
+    @Test
+    public void listenerExceptionClosesOnlyThatSession() throws Exception {
+        NioSession failing = engine.connect("127.0.0.1", server.getLocalPort(), new RecordingCallback("a", true));
+        Socket first = server.accept();
+        engine.connect("127.0.0.1", server.getLocalPort(), new RecordingCallback("b", false));
+        Socket second = server.accept();
+        assertConnected("a", "b");
+
+        send(first, 1);
+        assertEquals("a closed", events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(failing.isOpen());
+
+        // I/O 线程仍在运行，另一条连接照常收数据
+        send(second, 2);
+        assertEquals("b read 2", events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void connectFailureReleasesQueuedWrites() throws Exception {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_POOLED_BYTES);
+        int port = server.getLocalPort();
+        server.close();
+
+        NioSession session = engine.newSession(new RecordingCallback("a", false));
+        // 连接建立前就发布出去的会话，可能已有数据入队
+        assertTrue(session.write(pool.allocate(100), SendPriority.INTERACTIVE));
+        assertTrue(session.write(pool.allocate(100), SendPriority.BULK));
+        engine.connect(session, "127.0.0.1", port);
+
+        assertEquals("a failed", events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, pool.getUsedCount());
+        assertEquals(0, session.getQueuedWrites());
+    }
+
+    private void assertConnected(String... names) throws InterruptedException {
+        for (String name : names) {
+            String event = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(event);
+            assertTrue(event.endsWith("connected"));
+        }
+    }
+
+    private static void send(Socket socket, int value) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(value);
+        out.flush();
+    }
+
+    private class RecordingCallback implements NioSelectorEngine.Callback {
+
+        private final String name;
+        private final boolean failOnRead;
+
+        RecordingCallback(String name, boolean failOnRead) {
+            this.name = name;
+            this.failOnRead = failOnRead;
+        }
+
+        @Override
+        public void onConnected(NioSession session) {
+            events.offer(name + " connected");
+        }
+
+        @Override
+        public void onConnectFailed(NioSession session, IOException e) {
+            events.offer(name + " failed");
+        }
+
+        @Override
+        public void onRead(NioSession session, ByteBuffer buffer) {
+            if (failOnRead) {
+                throw new IllegalStateException("listener failure");
+            }
+            events.offer(name + " read " + buffer.get());
+        }
+
+        @Override
+        public void onClosed(NioSession session) {
+            events.offer(name + " closed");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package melo.com.androidsocket.socket.tcp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import melo.com.androidsocket.buffer.BufferPool;
+import melo.com.androidsocket.buffer.PooledBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SendLanesTest {
+
+    private static final int QUANTUM = 16 * 1024;
+
+    private SendLanes lanes;
+
+    @Before
+    public void setUp() {
+        lanes = new SendLanes();
+        lanes.setOptions(new int[]{64, 64, 64}, new int[]{0, 4, 1});
+    }
+
+    @Test
+    public void controlIsAlwaysFirst() throws Exception {
+        PooledBuffer bulk = frame(QUANTUM);
+        PooledBuffer interactive = frame(100);
+        PooledBuffer control = frame(10);
+        offer(bulk, SendPriority.BULK);
+        offer(interactive, SendPriority.INTERACTIVE);
+        offer(control, SendPriority.CONTROL);
+        assertSame(control, lanes.poll());
+        assertSame(interactive, lanes.poll());
+        assertSame(bulk, lanes.poll());
+        assertNull(lanes.poll());
+    }
+
+    @Test
+    public void bandwidthIsSharedByWeight() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            offer(frame(QUANTUM), SendPriority.INTERACTIVE);
+            offer(frame(QUANTUM), SendPriority.BULK);
+        }
+        for (int i = 0; i < 25; i++) {
+            lanes.poll();
+        }
+        // 每轮普通队列 4 块、批量队列 1 块
+        assertEquals(20, lanes.size(SendPriority.INTERACTIVE));
+        assertEquals(35, lanes.size(SendPriority.BULK));
+    }
+
+    @Test
+    public void lanesKeepFifoOrder() throws Exception {
+        PooledBuffer[] frames = new PooledBuffer[5];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = frame(100);
+            offer(frames[i], SendPriority.BULK);
+        }
+        for (PooledBuffer frame : frames) {
+            assertSame(frame, lanes.poll());
+        }
+    }
+
+    @Test
+    public void largeFrameWaitsForEnoughDeficit() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            offer(frame(QUANTUM), SendPriority.INTERACTIVE);
+        }
+        PooledBuffer large = frame(QUANTUM * 5 / 2);
+        offer(large, SendPriority.BULK);
+        // 批量队列第三轮才攒够额度，此前普通队列每轮写出 4 块
+        for (int i = 0; i < 12; i++) {
+            lanes.poll();
+            assertEquals(1, lanes.size(SendPriority.BULK));
+        }
+        assertSame(large, lanes.poll());
+    }
+
+    @Test
+    public void weightsApplyAgainAfterLaneWasIdle() throws Exception {
+        // 普通队列空闲时批量队列独占带宽
+        for (int i = 0; i < 8; i++) {
+            offer(frame(QUANTUM), SendPriority.BULK);
+        }
+        for (int i = 0; i < 8; i++) {
+            lanes.poll();
+        }
+        // 普通队列再有数据时立即按权重分配
+        for (int i = 0; i < 8; i++) {
+            offer(frame(QUANTUM), SendPriority.INTERACTIVE);
+            offer(frame(QUANTUM), SendPriority.BULK);
+        }
+        for (int i = 0; i < 5; i++) {
+            lanes.poll();
+        }
+        assertEquals(7, lanes.size(SendPriority.BULK));
+    }
+
+    @Test
+    public void fullLaneRejectsWithoutBlockingOthers() throws Exception {
+        lanes.setOptions(new int[]{1, 2, 1}, new int[]{0, 4, 1});
+        assertTrue(lanes.offer(frame(10), SendPriority.BULK, 0));
+        assertFalse(lanes.offer(frame(10), SendPriority.BULK, 0));
+        assertTrue(lanes.offer(frame(10), SendPriority.INTERACTIVE, 0));
+        assertTrue(lanes.offer(frame(10), SendPriority.CONTROL, 0));
+        assertEquals(3, lanes.size());
+    }
+
+    @Test
+    public void clearReleasesQueuedBuffers() throws Exception {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_POOLED_BYTES);
+        for (int i = 0; i < 3; i++) {
+            PooledBuffer frame = pool.allocate(100);
+            offer(frame, SendPriority.values()[i]);
+        }
+        assertEquals(3, pool.getUsedCount());
+        lanes.clear();
+        assertEquals(0, pool.getUsedCount());
+        assertEquals(0, lanes.size());
+    }
+
+    private void offer(PooledBuffer frame, SendPriority priority) throws InterruptedException {
+        assertTrue(lanes.offer(frame, priority, 0));
+    }
+
+    private static PooledBuffer frame(int length) {
+        return PooledBuffer.wrap(ByteBuffer.allocate(length));
+    }
+}
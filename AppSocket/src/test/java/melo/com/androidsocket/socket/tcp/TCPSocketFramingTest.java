@@ -0,0 +1,210 @@
+package melo.com.androidsocket.socket.tcp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.codec.VarintFrameCodec;
+import melo.com.androidsocket.listener.OnBinaryMessageReceiveListener;
+import melo.com.androidsocket.listener.OnConnectionStateListener;
+import melo.com.androidsocket.listener.OnRpcRequestListener;
+import melo.com.androidsocket.listener.OnTransferListener;
+import melo.com.androidsocket.listener.OnTransferReceiveListener;
+import melo.com.androidsocket.socket.SocketRuntime;
+import melo.com.androidsocket.transport.MemoryNetwork;
+import melo.com.androidsocket.transport.MemoryTransport;
+import melo.com.androidsocket.transport.StreamConnection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 长度前缀分帧下内部帧（分块传输、请求/回复）与用户消息的区分。对端是原样回显的模拟服务端，本端发出的帧都会回到自己
+ */
+public class TCPSocketFramingTest {
+
+    private static final int PORT = 9000;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private SocketRuntime runtime;
+    private MemoryTransport server;
+    private TCPSocket socket;
+    private final BlockingQueue<byte[]> received = new ArrayBlockingQueue<>(16);
+
+    @Before
+    public void setUp() throws Exception {
+        runtime = new SocketRuntime(1, 2, 64);
+        MemoryNetwork network = new MemoryNetwork(1);
+        server = network.newHost();
+        server.listen(PORT, new MemoryTransport.Acceptor() {
+            @Override
+            public void onAccept(final StreamConnection connection) {
+                runtime.getBlockingExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        echo(connection);
+                    }
+                });
+            }
+        });
+
+        socket = new TCPSocket(null, runtime, network.newHost());
+        socket.setFrameCodec(new VarintFrameCodec());
+        socket.addOnBinaryMessageReceiveListener(new OnBinaryMessageReceiveListener() {
+            @Override
+            public void onBinaryMessageReceived(ByteBuffer frame) {
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                received.offer(bytes);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        socket.stopTcpConnection();
+        server.close();
+        runtime.shutdown();
+    }
+
+    @Test
+    public void userFrameWithTransferMagicReachesListener() throws Exception {
+        connect();
+        byte[] message = {0x00, 'X', 4, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertTrue(socket.sendBinaryMessage(message));
+        assertArrayEquals(message, received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void userFramesStartingWithZeroAreDeliveredUnchanged() throws Exception {
+        connect();
+        byte[][] messages = {{0x00}, {0x00, 0x00}, {0x00, 0x00, 'X'}, {'X', 0x00}, {}};
+        for (byte[] message : messages) {
+            assertTrue(socket.sendBinaryMessage(message));
+        }
+        for (byte[] message : messages) {
+            assertArrayEquals(message, received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void userFrameWithRpcMagicReachesListener() throws Exception {
+        connect();
+        byte[] message = {0x00, 'Q', 2, 0, 0, 0, 1, 'h', 'i'};
+        assertTrue(socket.sendBinaryMessage(message));
+        assertArrayEquals(message, received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, socket.getPendingRequestCount());
+    }
+
+    @Test
+    public void rpcFramesAreNotDeliveredToListener() throws Exception {
+        // 请求经回显回到本端，由本端自己回复
+        socket.setOnRpcRequestListener(new OnRpcRequestListener() {
+            @Override
+            public void onRequest(RpcRequest request) {
+                byte[] payload = request.getPayload();
+                byte[] response = new byte[payload.length + 1];
+                System.arraycopy(payload, 0, response, 0, payload.length);
+                response[payload.length] = '!';
+                request.reply(response);
+            }
+        });
+        connect();
+        byte[] response = socket.sendRequest(new byte[]{0x00, 'Q', 1}, TIMEOUT_SECONDS * 1000).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertArrayEquals(new byte[]{0x00, 'Q', 1, '!'}, response);
+        assertEquals(0, received.size());
+    }
+
+    @Test
+    public void transferFramesAreNotDeliveredToListener() throws Exception {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final CountDownLatch completed = new CountDownLatch(1);
+        socket.setTransferOptions(1024, 4);
+        socket.setOnTransferReceiveListener(new OnTransferReceiveListener() {
+            @Override
+            public TransferSink onTransferOffered(long id, String name, long length) {
+                return new TransferSink(Channels.newChannel(sink), 0);
+            }
+
+            @Override
+            public void onTransferProgress(long id, long received, long length) {
+            }
+
+            @Override
+            public void onTransferCompleted(long id) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onTransferFailed(long id, IOException e) {
+            }
+        });
+        connect();
+
+        byte[] data = new byte[10 * 1024 + 17];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        final CountDownLatch sent = new CountDownLatch(1);
+        socket.sendStream(new ByteArrayInputStream(data), data.length, "data", new OnTransferListener() {
+            @Override
+            public void onTransferProgress(StreamTransfer transfer, long acknowledged, long length) {
+            }
+
+            @Override
+            public void onTransferCompleted(StreamTransfer transfer) {
+                sent.countDown();
+            }
+
+            @Override
+            public void onTransferFailed(StreamTransfer transfer, IOException e) {
+            }
+        });
+        assertTrue(completed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(sent.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertArrayEquals(data, sink.toByteArray());
+        assertEquals(0, received.size());
+    }
+
+    private void connect() throws InterruptedException {
+        final CountDownLatch connected = new CountDownLatch(1);
+        socket.setOnConnectionStateListener(new OnConnectionStateListener() {
+            @Override
+            public void onSuccess() {
+                connected.countDown();
+            }
+
+            @Override
+            public void onFailed(int errorCode) {
+            }
+        });
+        socket.startTcpSocket(server.getHostAddress(), String.valueOf(PORT));
+        assertTrue(connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static void echo(StreamConnection connection) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        try {
+            while (connection.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    connection.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // 连接已关闭
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package melo.com.androidsocket.socket.udp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.listener.OnPacketReceiveListener;
+import melo.com.androidsocket.socket.SocketRuntime;
+import melo.com.androidsocket.transport.MemoryNetwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReliableUdpChannelTest {
+
+    private static final long NOW = 1000000000L;
+
+    private SocketRuntime runtime;
+    private UDPSocket socket;
+    private ReliableUdpChannel channel;
+
+    @Before
+    public void setUp() {
+        runtime = new SocketRuntime(1, 1, 64);
+        // 未启动的 UDPSocket，确认和重传发送失败只打印日志，不影响对端状态
+        socket = new UDPSocket(null, runtime, new MemoryNetwork(1).newHost());
+        channel = socket.getReliableChannel();
+    }
+
+    @After
+    public void tearDown() {
+        channel.close();
+        runtime.shutdown();
+    }
+
+    @Test
+    public void markReceivedAdvancesInOrder() {
+        ReliableUdpChannel.Peer peer = new ReliableUdpChannel.Peer(1, NOW);
+        assertTrue(peer.markReceived(0));
+        assertTrue(peer.markReceived(1));
+        assertEquals(2, peer.receiveNext);
+        assertEquals(0, peer.receiveBits);
+        assertFalse(peer.markReceived(0));
+        assertFalse(peer.markReceived(1));
+    }
+
+    @Test
+    public void markReceivedFillsGap() {
+        ReliableUdpChannel.Peer peer = new ReliableUdpChannel.Peer(1, NOW);
+        assertTrue(peer.markReceived(2));
+        assertTrue(peer.markReceived(3));
+        assertEquals(0, peer.receiveNext);
+        // 第 i 位表示 receiveNext + 1 + i
+        assertEquals(0b110, peer.receiveBits);
+        assertFalse(peer.markReceived(3));
+
+        assertTrue(peer.markReceived(0));
+        assertEquals(1, peer.receiveNext);
+        assertTrue(peer.markReceived(1));
+        assertEquals(4, peer.receiveNext);
+        assertEquals(0, peer.receiveBits);
+    }
+
+    @Test
+    public void markReceivedRejectsOutsideWindow() {
+        ReliableUdpChannel.Peer peer = new ReliableUdpChannel.Peer(1, NOW);
+        assertTrue(peer.markReceived(64));
+        assertFalse(peer.markReceived(65));
+        assertEquals(1L << 63, peer.receiveBits);
+    }
+
+    @Test
+    public void removeAckedHonoursCumulativeAndSelectiveAcks() {
+        ReliableUdpChannel.Peer peer = new ReliableUdpChannel.Peer(1, NOW);
+        for (int seq = 0; seq < 6; seq++) {
+            ReliableUdpChannel.Outgoing outgoing = new ReliableUdpChannel.Outgoing(seq, null, null, 300);
+            outgoing.sentNanos = NOW + seq * 1000;
+            peer.unacked.put(seq, outgoing);
+        }
+        peer.unacked.get(1).retries = 1;
+
+        TreeMap<Integer, ReliableUdpChannel.Outgoing> acked = new TreeMap<>();
+        // 0、1 累计确认；3 和 5 由选择确认覆盖（next + 1 + i）
+        long sample = peer.removeAcked(2, 0b101, NOW + 10000, acked);
+        assertEquals("[0, 1, 3, 5]", acked.keySet().toString());
+        assertEquals("[2, 4]", peer.unacked.keySet().toString());
+        // 1 重传过，不参与采样；其余取最小的 RTT，即最晚发出的 5
+        assertEquals(5000, sample);
+    }
+
+    @Test
+    public void removeAckedWithoutFreshSampleReturnsMinusOne() {
+        ReliableUdpChannel.Peer peer = new ReliableUdpChannel.Peer(1, NOW);
+        ReliableUdpChannel.Outgoing outgoing = new ReliableUdpChannel.Outgoing(0, null, null, 300);
+        outgoing.retries = 2;
+        peer.unacked.put(0, outgoing);
+        TreeMap<Integer, ReliableUdpChannel.Outgoing> acked = new TreeMap<>();
+        assertEquals(-1, peer.removeAcked(1, 0, NOW, acked));
+        assertEquals(1, acked.size());
+    }
+
+    @Test
+    public void updateRtoStaysWithinBounds() {
+        ReliableUdpChannel.Peer peer = new ReliableUdpChannel.Peer(1, NOW);
+        peer.updateRto(10);
+        assertEquals(200, peer.rto);
+        for (int i = 0; i < 20; i++) {
+            peer.updateRto(10000);
+        }
+        assertEquals(5000, peer.rto);
+    }
+
+    @Test
+    public void idlePeersAreExpired() throws Exception {
+        channel.setPeerIdleTimeout(1000);
+        channel.onPacket(data(InetAddress.getByName("10.0.0.7"), 42, 0));
+        channel.onPacket(data(InetAddress.getByName("10.0.0.8"), 43, 0));
+        assertEquals(2, channel.getPeerCount());
+
+        // 不到两倍空闲时间，保留
+        channel.expireIdlePeers(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(2, channel.getPeerCount());
+
+        channel.expireIdlePeers(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, channel.getPeerCount());
+    }
+
+    @Test
+    public void peersWithUnackedMessagesAreKept() throws Exception {
+        channel.setPeerIdleTimeout(1000);
+        assertTrue(channel.send(InetAddress.getByName("10.0.0.9"), 5000, new byte[]{1}, null));
+        channel.expireIdlePeers(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        assertEquals(1, channel.getPeerCount());
+    }
+
+    @Test
+    public void dataAfterExpiryIsDeliveredAgain() throws Exception {
+        channel.setPeerIdleTimeout(1000);
+        InetAddress address = InetAddress.getByName("10.0.0.7");
+        final int[] delivered = {0};
+        channel.addOnPacketReceiveListener(new OnPacketReceiveListener() {
+            @Override
+            public void onPacketReceived(UdpPacket packet) {
+                synchronized (delivered) {
+                    delivered[0]++;
+                    delivered.notifyAll();
+                }
+            }
+        });
+        channel.onPacket(data(address, 42, 0));
+        channel.onPacket(data(address, 42, 0));
+        assertEquals(1, channel.getDuplicateCount());
+
+        channel.expireIdlePeers(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        // 对端空闲后换了会话号，从 0 开始
+        channel.onPacket(data(address, 43, 0));
+        assertEquals(1, channel.getDuplicateCount());
+        synchronized (delivered) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (delivered[0] < 2 && System.currentTimeMillis() < deadline) {
+                delivered.wait(100);
+            }
+        }
+        assertEquals(2, delivered[0]);
+    }
+
+    private static UdpPacket data(InetAddress address, int session, int seq) {
+        byte[] datagram = new byte[ReliableUdpChannel.DATA_HEADER_LENGTH + 1];
+        ByteBuffer.wrap(datagram).put((byte) 0x00).put((byte) 'R').put((byte) 1).putInt(session).putInt(seq).put((byte) 7);
+        return UdpPacket.wrap(datagram, address, 9999, System.nanoTime());
+    }
+}
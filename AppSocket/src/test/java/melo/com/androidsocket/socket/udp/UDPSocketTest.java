@@ -0,0 +1,76 @@
+package melo.com.androidsocket.socket.udp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.codec.PayloadCompressor;
+import melo.com.androidsocket.listener.OnPacketReceiveListener;
+import melo.com.androidsocket.socket.SocketRuntime;
+import melo.com.androidsocket.transport.MemoryNetwork;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 广播会送达发送方自己，本端发出的消息都会回到自己的监听
+ */
+public class UDPSocketTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private SocketRuntime runtime;
+    private UDPSocket socket;
+    private final BlockingQueue<byte[]> received = new ArrayBlockingQueue<>(16);
+
+    @Before
+    public void setUp() {
+        runtime = new SocketRuntime(1, 2, 64);
+        socket = new UDPSocket(null, runtime, new MemoryNetwork(1).newHost());
+        socket.addOnPacketReceiveListener(new OnPacketReceiveListener() {
+            @Override
+            public void onPacketReceived(UdpPacket packet) {
+                received.offer(Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength()));
+            }
+        });
+        socket.startUDPSocket();
+    }
+
+    @After
+    public void tearDown() {
+        socket.stopUDPSocket();
+        runtime.shutdown();
+    }
+
+    @Test
+    public void messagesWithInternalMagicReachListenerWithoutCompression() throws Exception {
+        assertDeliveredUnchanged();
+        assertEquals(0, socket.getMetrics().getDroppedPackets());
+    }
+
+    @Test
+    public void messagesWithInternalMagicReachListenerWithCompression() throws Exception {
+        socket.setCompression(new PayloadCompressor(0));
+        assertDeliveredUnchanged();
+    }
+
+    private void assertDeliveredUnchanged() throws InterruptedException {
+        byte[][] messages = {
+                {0x00, 'Z', 1, 0, 0, 0, 3, 1, 2, 3},
+                {0x00, 'F', 1, 2, 3, 4, 5, 6, 7, 8, 9},
+                {0x00, 'R', 1, 0, 0, 0, 1, 0, 0, 0, 0, 7},
+                {0x00, 0x00},
+                {0x00},
+        };
+        for (byte[] message : messages) {
+            socket.sendMessage(message);
+            // 逐条等待，发送线程池有多个线程，不保证顺序
+            assertArrayEquals(message, received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package melo.com.androidsocket.socket.udp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import melo.com.androidsocket.metrics.SocketMetrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UdpFragmenterTest {
+
+    private static final int DATAGRAM_LENGTH = 100;
+
+    private SocketMetrics metrics;
+    private UdpFragmenter fragmenter;
+    private InetAddress address;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new SocketMetrics("test");
+        fragmenter = new UdpFragmenter(metrics);
+        address = InetAddress.getByName("10.0.0.7");
+    }
+
+    @Test
+    public void fragmentsAreReassembledInAnyOrder() {
+        byte[] data = data(1000);
+        byte[][] fragments = fragmenter.split(data, DATAGRAM_LENGTH);
+        assertEquals(12, fragments.length);
+        for (byte[] fragment : fragments) {
+            assertTrue(fragment.length <= DATAGRAM_LENGTH);
+            assertTrue(UdpFragmenter.isFragment(packet(fragment)));
+        }
+        for (int i = fragments.length - 1; i > 0; i--) {
+            assertNull(fragmenter.add(packet(fragments[i])));
+        }
+        assertMessage(data, fragmenter.add(packet(fragments[0])));
+        assertEquals(0, fragmenter.getPendingCount());
+    }
+
+    @Test
+    public void duplicateFragmentsAreIgnored() {
+        byte[] data = data(250);
+        byte[][] fragments = fragmenter.split(data, DATAGRAM_LENGTH);
+        assertNull(fragmenter.add(packet(fragments[0])));
+        assertNull(fragmenter.add(packet(fragments[0])));
+        assertNull(fragmenter.add(packet(fragments[1])));
+        assertEquals(1, fragmenter.getPendingCount());
+        assertMessage(data, fragmenter.add(packet(fragments[2])));
+        // 消息完成后迟到的重复分片开始新的重组，超时后淘汰
+        assertNull(fragmenter.add(packet(fragments[1])));
+        assertEquals(1, fragmenter.getPendingCount());
+        assertEquals(0, metrics.getDroppedPackets());
+    }
+
+    @Test
+    public void incompleteMessageIsEvictedAfterTimeout() throws Exception {
+        fragmenter.setOptions(UdpFragmenter.DEFAULT_MAX_FRAGMENTS, UdpFragmenter.DEFAULT_MAX_PENDING, 1);
+        byte[][] lost = fragmenter.split(data(250), DATAGRAM_LENGTH);
+        assertNull(fragmenter.add(packet(lost[0])));
+        Thread.sleep(10);
+
+        // 新消息开始重组时淘汰超时的
+        byte[][] next = fragmenter.split(data(150), DATAGRAM_LENGTH);
+        assertNull(fragmenter.add(packet(next[0])));
+        assertEquals(1, fragmenter.getPendingCount());
+        assertEquals(1, metrics.getDroppedPackets());
+    }
+
+    @Test
+    public void oldestMessageIsEvictedWhenTableIsFull() {
+        fragmenter.setOptions(UdpFragmenter.DEFAULT_MAX_FRAGMENTS, 2, 60 * 1000);
+        byte[][] first = fragmenter.split(data(150), DATAGRAM_LENGTH);
+        byte[][] second = fragmenter.split(data(150), DATAGRAM_LENGTH);
+        byte[] data = data(150);
+        byte[][] third = fragmenter.split(data, DATAGRAM_LENGTH);
+        assertNull(fragmenter.add(packet(first[0])));
+        assertNull(fragmenter.add(packet(second[0])));
+        assertNull(fragmenter.add(packet(third[0])));
+        assertEquals(2, fragmenter.getPendingCount());
+        assertEquals(1, metrics.getDroppedPackets());
+
+        assertNotNull(fragmenter.add(packet(second[1])));
+        assertMessage(data, fragmenter.add(packet(third[1])));
+        assertEquals(0, fragmenter.getPendingCount());
+    }
+
+    @Test
+    public void fragmentsFromDifferentSendersAreKeptApart() throws Exception {
+        byte[] data = data(150);
+        byte[][] fragments = fragmenter.split(data, DATAGRAM_LENGTH);
+        InetAddress other = InetAddress.getByName("10.0.0.8");
+        assertNull(fragmenter.add(packet(fragments[0])));
+        assertNull(fragmenter.add(UdpPacket.wrap(fragments[1], other, 9999, System.nanoTime())));
+        assertEquals(2, fragmenter.getPendingCount());
+        assertMessage(data, fragmenter.add(packet(fragments[1])));
+    }
+
+    @Test
+    public void malformedFragmentsAreDropped() {
+        byte[][] fragments = fragmenter.split(data(250), DATAGRAM_LENGTH);
+        // index 不小于 count
+        byte[] invalid = fragments[0].clone();
+        invalid[6] = 0;
+        invalid[7] = 3;
+        assertNull(fragmenter.add(packet(invalid)));
+        assertEquals(0, fragmenter.getPendingCount());
+
+        // 同一消息的分片数不一致，整条丢弃
+        assertNull(fragmenter.add(packet(fragments[0])));
+        byte[] mismatched = fragments[1].clone();
+        mismatched[9] = 4;
+        assertNull(fragmenter.add(packet(mismatched)));
+        assertEquals(0, fragmenter.getPendingCount());
+        assertEquals(2, metrics.getDroppedPackets());
+    }
+
+    @Test
+    public void tooManyFragmentsCannotBeSplit() {
+        fragmenter.setOptions(4, UdpFragmenter.DEFAULT_MAX_PENDING, UdpFragmenter.DEFAULT_REASSEMBLY_TIMEOUT);
+        assertNotNull(fragmenter.split(data(4 * (DATAGRAM_LENGTH - UdpFragmenter.HEADER_LENGTH)), DATAGRAM_LENGTH));
+        assertNull(fragmenter.split(data(4 * (DATAGRAM_LENGTH - UdpFragmenter.HEADER_LENGTH) + 1), DATAGRAM_LENGTH));
+    }
+
+    private UdpPacket packet(byte[] datagram) {
+        return UdpPacket.wrap(datagram, address, 9999, System.nanoTime());
+    }
+
+    private static void assertMessage(byte[] expected, UdpPacket message) {
+        assertNotNull(message);
+        assertArrayEquals(expected, Arrays.copyOfRange(message.getData(), message.getOffset(), message.getOffset() + message.getLength()));
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        return data;
+    }
+}
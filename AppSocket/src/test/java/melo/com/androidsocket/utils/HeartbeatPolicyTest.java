@@ -0,0 +1,128 @@
+package melo.com.androidsocket.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class HeartbeatPolicyTest {
+
+    private static final long MIN_INTERVAL = 1000;
+    private static final long MAX_INTERVAL = 8000;
+    private static final long MIN_PROBE_TIMEOUT = 100;
+    private static final long MAX_PROBE_TIMEOUT = 2000;
+
+    private HeartbeatPolicy policy;
+    // 当前时间，纳秒
+    private long now;
+
+    @Before
+    public void setUp() {
+        policy = new HeartbeatPolicy(MIN_INTERVAL, MAX_INTERVAL, MIN_PROBE_TIMEOUT, MAX_PROBE_TIMEOUT, 3);
+        now = TimeUnit.SECONDS.toNanos(100);
+        policy.reset(now);
+    }
+
+    @Test
+    public void noPingWhileTrafficFlows() {
+        assertEquals(HeartbeatPolicy.ACTION_NONE, policy.poll(advance(500)));
+        assertEquals(-1, policy.onReceived(advance(400)));
+        assertEquals(HeartbeatPolicy.ACTION_NONE, policy.poll(advance(900)));
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(100)));
+    }
+
+    @Test
+    public void probeTimeoutWithoutSampleIsMaximum() {
+        assertEquals(MAX_PROBE_TIMEOUT, policy.getProbeTimeout());
+        assertEquals(MIN_INTERVAL + 3 * MAX_PROBE_TIMEOUT, policy.getTimeout());
+    }
+
+    @Test
+    public void firstSampleSetsProbeTimeout() {
+        assertEquals(40000, sample(40));
+        // srtt = 40，rttvar = 20，时限 = 40 + 4 * 20
+        assertEquals(120, policy.getProbeTimeout());
+        // 偏差不超过平均值的一半，间隔翻倍
+        assertEquals(2 * MIN_INTERVAL, policy.getInterval());
+    }
+
+    @Test
+    public void probeTimeoutIsClampedToMinimum() {
+        sample(10);
+        assertEquals(MIN_PROBE_TIMEOUT, policy.getProbeTimeout());
+    }
+
+    @Test
+    public void probeTimeoutIsClampedToMaximum() {
+        sample(1500);
+        assertEquals(MAX_PROBE_TIMEOUT, policy.getProbeTimeout());
+    }
+
+    @Test
+    public void jitterResetsInterval() {
+        sample(40);
+        assertEquals(2 * MIN_INTERVAL, policy.getInterval());
+        sample(200);
+        // rttvar = (3 * 20 + 160) / 4 = 55，srtt = (7 * 40 + 200) / 8 = 60
+        assertEquals(60 + 4 * 55, policy.getProbeTimeout());
+        assertEquals(MIN_INTERVAL, policy.getInterval());
+    }
+
+    @Test
+    public void stableLinkGrowsIntervalToMaximum() {
+        for (int i = 0; i < 10; i++) {
+            sample(40);
+        }
+        assertEquals(MAX_INTERVAL, policy.getInterval());
+    }
+
+    @Test
+    public void missedProbesAreRetriedThenDead() {
+        sample(40);
+        long timeout = policy.getProbeTimeout();
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(policy.getInterval())));
+        assertEquals(HeartbeatPolicy.ACTION_NONE, policy.poll(advance(timeout - 1)));
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(1)));
+        // 超时后间隔退回最小值
+        assertEquals(MIN_INTERVAL, policy.getInterval());
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(timeout)));
+        assertEquals(HeartbeatPolicy.ACTION_DEAD, policy.poll(advance(timeout)));
+    }
+
+    @Test
+    public void responseToRetriedProbeIsNotSampled() {
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(MIN_INTERVAL)));
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(MAX_PROBE_TIMEOUT)));
+        assertEquals(-1, policy.onReceived(advance(10)));
+        assertEquals(MAX_PROBE_TIMEOUT, policy.getProbeTimeout());
+        // 收到回应后清除失败计数，重新从头计算
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(MIN_INTERVAL)));
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(MAX_PROBE_TIMEOUT)));
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(MAX_PROBE_TIMEOUT)));
+    }
+
+    @Test
+    public void resetClearsSamples() {
+        sample(40);
+        policy.reset(now);
+        assertEquals(MAX_PROBE_TIMEOUT, policy.getProbeTimeout());
+        assertEquals(MIN_INTERVAL, policy.getInterval());
+    }
+
+    /**
+     * 空闲到发出 ping，rttMs 后收到回应
+     *
+     * @return onReceived 的返回值
+     */
+    private long sample(long rttMs) {
+        assertEquals(HeartbeatPolicy.ACTION_PING, policy.poll(advance(policy.getInterval())));
+        return policy.onReceived(advance(rttMs));
+    }
+
+    private long advance(long ms) {
+        now += TimeUnit.MILLISECONDS.toNanos(ms);
+        return now;
+    }
+}
@@ -0,0 +1,125 @@
+package melo.com.androidsocket.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeartbeatTimerTest {
+
+    private static final long PERIOD = 20;
+
+    private CountingWheelTimer wheelTimer;
+    private HeartbeatTimer timer;
+    private final AtomicInteger runs = new AtomicInteger();
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch proceed = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        wheelTimer = new CountingWheelTimer();
+        timer = new HeartbeatTimer(wheelTimer);
+    }
+
+    @After
+    public void tearDown() {
+        timer.exit();
+        wheelTimer.stop();
+    }
+
+    @Test
+    public void runsPeriodically() throws Exception {
+        final CountDownLatch done = new CountDownLatch(3);
+        timer.setOnScheduleListener(new HeartbeatTimer.OnScheduleListener() {
+            @Override
+            public void onSchedule() {
+                done.countDown();
+            }
+        });
+        timer.startTimer(0, PERIOD);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void restartDuringRunDoesNotDuplicateChain() throws Exception {
+        timer.setOnScheduleListener(blockingListener());
+        timer.startTimer(0, PERIOD);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        // 正在执行的一次结束后不能再续约，只剩新的执行链
+        timer.startTimer(10 * 1000, PERIOD);
+        proceed.countDown();
+        Thread.sleep(10 * PERIOD);
+        assertEquals(1, runs.get());
+        assertEquals(2, wheelTimer.scheduled.get());
+    }
+
+    @Test
+    public void exitDuringRunStopsChain() throws Exception {
+        timer.setOnScheduleListener(blockingListener());
+        timer.startTimer(0, PERIOD);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        timer.exit();
+        proceed.countDown();
+        Thread.sleep(10 * PERIOD);
+        assertEquals(1, runs.get());
+        assertEquals(1, wheelTimer.scheduled.get());
+    }
+
+    @Test
+    public void canRestartAfterExit() throws Exception {
+        final CountDownLatch done = new CountDownLatch(2);
+        timer.setOnScheduleListener(new HeartbeatTimer.OnScheduleListener() {
+            @Override
+            public void onSchedule() {
+                done.countDown();
+            }
+        });
+        timer.startTimer(10 * 1000, PERIOD);
+        timer.exit();
+        timer.startTimer(0, PERIOD);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 第一次执行时停在回调里，等待测试线程放行
+     */
+    private HeartbeatTimer.OnScheduleListener blockingListener() {
+        return new HeartbeatTimer.OnScheduleListener() {
+            @Override
+            public void onSchedule() {
+                if (runs.incrementAndGet() == 1) {
+                    entered.countDown();
+                    try {
+                        proceed.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * 记录预约次数，旧的执行链多续约一次就能看出来
+     */
+    private static class CountingWheelTimer extends HashedWheelTimer {
+
+        final AtomicInteger scheduled = new AtomicInteger();
+
+        CountingWheelTimer() {
+            super(5, TimeUnit.MILLISECONDS, 64);
+        }
+
+        @Override
+        public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+            scheduled.incrementAndGet();
+            return super.newTimeout(task, delay, unit);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package melo.com.androidsocket.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用手动执行的线程池控制回调时机，测试线程即处理线程
+ */
+public class OrderedDispatcherTest {
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final CountingLifecycle lifecycle = new CountingLifecycle();
+
+    @Test
+    public void eachHandlerSeesDispatchOrder() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(16, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        dispatcher.addHandler(first);
+        dispatcher.addHandler(second);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(i);
+        }
+        // 每个监听各自一个任务
+        assertEquals(2, executor.size());
+        executor.runAll();
+        assertEquals(range(0, 10), first.items);
+        assertEquals(range(0, 10), second.items);
+        lifecycle.assertBalanced(20, 0);
+    }
+
+    @Test
+    public void sameKeyIsRegisteredOnce() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(16, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        assertTrue(dispatcher.addHandler(recorder));
+        assertFalse(dispatcher.addHandler(recorder));
+        dispatcher.dispatch(1);
+        executor.runAll();
+        assertEquals(range(1, 2), recorder.items);
+    }
+
+    @Test
+    public void dropNewestKeepsQueuedItems() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(2, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        dispatcher.addHandler(recorder);
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(i);
+        }
+        assertEquals(2, dispatcher.getDroppedCount());
+        executor.runAll();
+        assertEquals(range(0, 2), recorder.items);
+        assertEquals(range(2, 4), lifecycle.droppedItems);
+        lifecycle.assertBalanced(4, 2);
+    }
+
+    @Test
+    public void dropOldestKeepsLatestItems() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(2, OrderedDispatcher.OverflowPolicy.DROP_OLDEST);
+        Recorder recorder = new Recorder();
+        dispatcher.addHandler(recorder);
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(i);
+        }
+        assertEquals(2, dispatcher.getDroppedCount());
+        executor.runAll();
+        assertEquals(range(2, 4), recorder.items);
+        assertEquals(range(0, 2), lifecycle.droppedItems);
+        lifecycle.assertBalanced(4, 2);
+    }
+
+    @Test
+    public void blockWaitsForSpace() throws Exception {
+        final OrderedDispatcher<Integer> dispatcher = newDispatcher(1, OrderedDispatcher.OverflowPolicy.BLOCK);
+        Recorder recorder = new Recorder();
+        dispatcher.addHandler(recorder);
+        dispatcher.dispatch(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.dispatch(1);
+                done.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        // 处理掉一条后分发线程继续
+        while (!done.await(10, TimeUnit.MILLISECONDS)) {
+            executor.runAll();
+        }
+        producer.join();
+        executor.runAll();
+        assertEquals(range(0, 2), recorder.items);
+        assertEquals(0, dispatcher.getDroppedCount());
+        lifecycle.assertBalanced(2, 0);
+    }
+
+    @Test
+    public void drainsAtMost64ThenReschedules() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(256, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        Recorder recorder = new Recorder();
+        dispatcher.addHandler(recorder);
+        for (int i = 0; i < 150; i++) {
+            dispatcher.dispatch(i);
+        }
+        assertEquals(1, executor.size());
+        executor.runOne();
+        assertEquals(64, recorder.items.size());
+        // 剩余数据重新提交，排在线程池中其他任务之后
+        assertEquals(1, executor.size());
+        executor.runOne();
+        assertEquals(128, recorder.items.size());
+        executor.runOne();
+        assertEquals(range(0, 150), recorder.items);
+        assertEquals(0, executor.size());
+        assertEquals(0, dispatcher.getPendingCount());
+        lifecycle.assertBalanced(150, 0);
+    }
+
+    @Test
+    public void handlerExceptionDoesNotStopLane() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(16, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        final List<Integer> items = new ArrayList<>();
+        dispatcher.addHandler(new OrderedDispatcher.Handler<Integer>() {
+            @Override
+            public void handle(Integer item) {
+                items.add(item);
+                if (item == 0) {
+                    throw new IllegalStateException("handler failure");
+                }
+            }
+        });
+        dispatcher.dispatch(0);
+        dispatcher.dispatch(1);
+        executor.runAll();
+        assertEquals(range(0, 2), items);
+        lifecycle.assertBalanced(2, 0);
+    }
+
+    @Test
+    public void removeHandlerReleasesQueuedItems() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(16, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        Recorder removed = new Recorder();
+        Recorder kept = new Recorder();
+        dispatcher.addHandler(removed);
+        dispatcher.addHandler(kept);
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch(i);
+        }
+        assertTrue(dispatcher.removeHandler(removed));
+        assertFalse(dispatcher.removeHandler(removed));
+        // 移除时释放，不算作丢弃
+        assertEquals(5, lifecycle.released.get());
+        assertEquals(0, dispatcher.getDroppedCount());
+        assertEquals(5, dispatcher.getPendingCount());
+
+        executor.runAll();
+        assertEquals(0, removed.items.size());
+        assertEquals(range(0, 5), kept.items);
+        lifecycle.assertBalanced(10, 0);
+    }
+
+    @Test
+    public void clearReleasesEverything() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(16, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        dispatcher.addHandler(new Recorder());
+        dispatcher.addHandler(new Recorder());
+        dispatcher.dispatch(1);
+        dispatcher.clear();
+        assertFalse(dispatcher.hasHandlers());
+        executor.runAll();
+        lifecycle.assertBalanced(2, 0);
+    }
+
+    @Test
+    public void rejectedExecutionCountsAsDropped() {
+        OrderedDispatcher<Integer> dispatcher = new OrderedDispatcher<>(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, lifecycle, 16, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        dispatcher.addHandler(new Recorder());
+        dispatcher.dispatch(1);
+        dispatcher.dispatch(2);
+        assertEquals(2, dispatcher.getDroppedCount());
+        assertEquals(0, dispatcher.getPendingCount());
+        lifecycle.assertBalanced(2, 2);
+    }
+
+    @Test
+    public void topicFilterOnlyDeliversMatchingItems() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(16, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        final AtomicInteger extracted = new AtomicInteger();
+        dispatcher.setTopicExtractor(new OrderedDispatcher.TopicExtractor<Integer>() {
+            @Override
+            public String topicOf(Integer item) {
+                extracted.incrementAndGet();
+                if (item < 0) {
+                    return null;
+                }
+                return item % 2 == 0 ? "even" : "odd";
+            }
+        });
+        Recorder even = new Recorder();
+        Recorder both = new Recorder();
+        Recorder all = new Recorder();
+        dispatcher.addHandler(even, even, new String[]{"even"});
+        dispatcher.addHandler(both, both, new String[]{"even", "odd"});
+        dispatcher.addHandler(all, all, null);
+        for (int i = -1; i < 5; i++) {
+            dispatcher.dispatch(i);
+        }
+        // 每条数据只提取一次主题
+        assertEquals(6, extracted.get());
+        executor.runAll();
+        assertEquals(list(0, 2, 4), even.items);
+        // 没有主题的数据不会发给按主题过滤的监听
+        assertEquals(range(0, 5), both.items);
+        assertEquals(range(-1, 5), all.items);
+        lifecycle.assertBalanced(5 + 3 + 6, 0);
+    }
+
+    @Test
+    public void shardsKeepPerKeyOrderAndRunSeparately() {
+        OrderedDispatcher<Integer> dispatcher = newDispatcher(64, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+        dispatcher.setShards(4);
+        // 百位是分片键
+        dispatcher.setShardSelector(new OrderedDispatcher.ShardSelector<Integer>() {
+            @Override
+            public int shardOf(Integer item) {
+                return item / 100;
+            }
+        });
+        Recorder recorder = new Recorder();
+        dispatcher.addHandler(recorder);
+        for (int i = 0; i < 10; i++) {
+            for (int key = 0; key < 8; key++) {
+                dispatcher.dispatch(key * 100 + i);
+            }
+        }
+        // 不同分片各自提交任务，可以在多个线程上并行
+        assertTrue(executor.size() > 1);
+        assertTrue(executor.size() <= 4);
+        executor.runAll();
+        assertEquals(80, recorder.items.size());
+        int[] last = new int[8];
+        Arrays.fill(last, -1);
+        for (int item : recorder.items) {
+            int key = item / 100;
+            assertEquals(last[key] + 1, item % 100);
+            last[key] = item % 100;
+        }
+        lifecycle.assertBalanced(80, 0);
+    }
+
+    private OrderedDispatcher<Integer> newDispatcher(int capacity, OrderedDispatcher.OverflowPolicy policy) {
+        return new OrderedDispatcher<>(executor, lifecycle, capacity, policy);
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> list = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    private static List<Integer> list(Integer... items) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    private static class Recorder implements OrderedDispatcher.Handler<Integer> {
+
+        final List<Integer> items = new ArrayList<>();
+
+        @Override
+        public synchronized void handle(Integer item) {
+            items.add(item);
+        }
+    }
+
+    /**
+     * 提交的任务先排队，由测试线程逐个执行
+     */
+    private static class ManualExecutor implements Executor {
+
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        synchronized int size() {
+            return tasks.size();
+        }
+
+        void runOne() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+            }
+            task.run();
+        }
+
+        void runAll() {
+            while (size() > 0) {
+                runOne();
+            }
+        }
+    }
+
+    private static class CountingLifecycle implements OrderedDispatcher.Lifecycle<Integer> {
+
+        final AtomicInteger retained = new AtomicInteger();
+        final AtomicInteger released = new AtomicInteger();
+        final List<Integer> droppedItems = new ArrayList<>();
+
+        @Override
+        public void retain(Integer item) {
+            retained.incrementAndGet();
+        }
+
+        @Override
+        public synchronized void release(Integer item, boolean dropped) {
+            released.incrementAndGet();
+            if (dropped) {
+                droppedItems.add(item);
+            }
+        }
+
+        synchronized void assertBalanced(int count, int dropped) {
+            assertEquals(count, retained.get());
+            assertEquals(count, released.get());
+            assertEquals(dropped, droppedItems.size());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package melo.com.androidsocket.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.DatagramPacket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.common.Config;
+import melo.com.androidsocket.listener.OnPeerConnectionListener;
+import melo.com.androidsocket.socket.SocketManager;
+import melo.com.androidsocket.socket.udp.UDPSocket;
+import melo.com.androidsocket.transport.DatagramEndpoint;
+import melo.com.androidsocket.transport.MemoryNetwork;
+import melo.com.androidsocket.transport.MemoryTransport;
+import melo.com.androidsocket.transport.StreamConnection;
+
+/**
+ * 在 MemoryNetwork 上模拟大量设备：每台设备广播自己的 TCP 地址，直到 SocketManager 连上为止，
+ * 测量从第一次广播到全部连接建立的时间。不需要真实网络，可以在任意 Linux 机器上运行。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DiscoveryBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int PEER_TCP_PORT = 8000;
+    // 未被连接的设备重新广播的间隔
+    private static final long REBROADCAST_MILLIS = 200;
+    private static final long DISCOVERY_TIMEOUT_SECONDS = 60;
+
+    @Param({"100", "1000"})
+    public int peerCount;
+
+    @Param({"0", "20"})
+    public long latencyMs;
+
+    @Param({"0", "0.05"})
+    public double lossRate;
+
+    private MemoryNetwork network;
+    private SocketManager manager;
+    private final List<Peer> peers = new ArrayList<>();
+    private final Set<MemoryTransport> connected = Collections.newSetFromMap(new ConcurrentHashMap<MemoryTransport, Boolean>());
+    private CountDownLatch allConnected;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        network = new MemoryNetwork(peerCount);
+        network.setLatency(latencyMs, latencyMs / 2);
+        network.setLossRate(lossRate);
+        manager = new SocketManager(null, network.newHost());
+        manager.setMaxTcpConnections(peerCount);
+        manager.setPeerCacheOptions(peerCount, Config.PEER_TTL);
+        allConnected = new CountDownLatch(peerCount);
+        manager.addOnPeerConnectionListener(new OnPeerConnectionListener() {
+            @Override
+            public void onPeerConnected(String ip, int port) {
+                allConnected.countDown();
+            }
+
+            @Override
+            public void onPeerDisconnected(String ip, int port, int errorCode) {
+            }
+        });
+        manager.startUdpConnection();
+        connected.clear();
+        peers.clear();
+        for (int i = 0; i < peerCount; i++) {
+            peers.add(new Peer(network.newHost()));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        manager.stopSocket();
+        for (Peer peer : peers) {
+            peer.host.close();
+        }
+    }
+
+    @Benchmark
+    public long discoverAll() throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DISCOVERY_TIMEOUT_SECONDS);
+        while (allConnected.getCount() > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("只连上了 " + (peerCount - allConnected.getCount()) + " 台设备");
+            }
+            for (Peer peer : peers) {
+                if (!connected.contains(peer.host)) {
+                    peer.announce();
+                }
+            }
+            allConnected.await(REBROADCAST_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return peerCount;
+    }
+
+    /**
+     * 只接受连接、不回应心跳的设备，测量时间远小于心跳超时
+     */
+    private final class Peer {
+        final MemoryTransport host;
+        final DatagramEndpoint endpoint;
+        final DatagramPacket announcement;
+
+        Peer(final MemoryTransport host) throws Exception {
+            this.host = host;
+            host.listen(PEER_TCP_PORT, new MemoryTransport.Acceptor() {
+                @Override
+                public void onAccept(StreamConnection connection) {
+                    connected.add(host);
+                }
+            });
+            endpoint = host.bindDatagram(UDPSocket.CLIENT_PORT);
+            byte[] message = ("{\"" + Config.TCP_IP + "\":\"" + host.getHostAddress() + "\",\""
+                    + Config.TCP_PORT + "\":\"" + PEER_TCP_PORT + "\"}").getBytes(UTF_8);
+            announcement = new DatagramPacket(message, message.length, host.getBroadcastAddress(), UDPSocket.CLIENT_PORT);
+        }
+
+        void announce() throws Exception {
+            endpoint.send(announcement);
+        }
+    }
+}
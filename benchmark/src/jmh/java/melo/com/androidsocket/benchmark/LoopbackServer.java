@@ -0,0 +1,65 @@
+package melo.com.androidsocket.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 回环地址上的测试服务端，只接受一个连接。
+ * <p>
+ * echo 为 true 时原样回写收到的字节，否则直接丢弃。
+ */
+class LoopbackServer implements Runnable {
+
+    private final ServerSocketChannel server;
+    private final boolean echo;
+    private final Thread thread;
+    private volatile SocketChannel client;
+
+    LoopbackServer(boolean echo) throws IOException {
+        this.echo = echo;
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        thread = new Thread(this, echo ? "EchoServer" : "DiscardServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getIp() {
+        return "127.0.0.1";
+    }
+
+    String getPort() {
+        return String.valueOf(server.socket().getLocalPort());
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            client = server.accept();
+            client.socket().setTcpNoDelay(true);
+            while (client.read(buffer) >= 0) {
+                buffer.flip();
+                if (echo) {
+                    while (buffer.hasRemaining()) {
+                        client.write(buffer);
+                    }
+                }
+                buffer.clear();
+            }
+        } catch (IOException ignored) {
+            // 关闭时退出
+        }
+    }
+
+    void close() throws IOException {
+        server.close();
+        SocketChannel channel = client;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
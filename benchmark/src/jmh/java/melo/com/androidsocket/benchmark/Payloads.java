@@ -0,0 +1,36 @@
+package melo.com.androidsocket.benchmark;
+
+import java.util.Arrays;
+
+import melo.com.androidsocket.codec.FrameCodec;
+import melo.com.androidsocket.codec.LengthFieldFrameCodec;
+import melo.com.androidsocket.codec.LineFrameCodec;
+import melo.com.androidsocket.codec.VarintFrameCodec;
+
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * 不含换行符，按行分帧时也能使用
+     */
+    static byte[] create(int size) {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte) 'a');
+        return payload;
+    }
+
+    static FrameCodec codec(String name) {
+        switch (name) {
+            case "line":
+                return new LineFrameCodec();
+            case "length":
+                return new LengthFieldFrameCodec();
+            case "varint":
+                return new VarintFrameCodec();
+            default:
+                throw new IllegalArgumentException("unknown codec: " + name);
+        }
+    }
+}
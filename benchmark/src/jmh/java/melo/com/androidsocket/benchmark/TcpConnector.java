@@ -0,0 +1,40 @@
+package melo.com.androidsocket.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.listener.OnConnectionStateListener;
+import melo.com.androidsocket.socket.tcp.TCPSocket;
+
+final class TcpConnector {
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 5;
+
+    private TcpConnector() {
+    }
+
+    /**
+     * 同步建立连接
+     */
+    static void connect(TCPSocket socket, LoopbackServer server) throws IOException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] success = new boolean[1];
+        socket.setOnConnectionStateListener(new OnConnectionStateListener() {
+            @Override
+            public void onSuccess() {
+                success[0] = true;
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailed(int errorCode) {
+                latch.countDown();
+            }
+        });
+        socket.startTcpSocket(server.getIp(), server.getPort());
+        if (!latch.await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS) || !success[0]) {
+            throw new IOException("无法连接回环服务端");
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package melo.com.androidsocket.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.listener.OnBinaryMessageReceiveListener;
+import melo.com.androidsocket.socket.tcp.NioSelectorEngine;
+import melo.com.androidsocket.socket.tcp.TCPSocket;
+
+/**
+ * TCPSocket 往返延迟：发送一帧并等待回环 echo 服务端原样返回，SampleTime 模式给出 p50/p99
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TcpEchoBenchmark {
+
+    private static final long REPLY_TIMEOUT_MILLIS = 1000;
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    @Param({"1", "8"})
+    public int listenerCount;
+
+    @Param({"blocking", "nio"})
+    public String mode;
+
+    private LoopbackServer server;
+    private NioSelectorEngine engine;
+    private TCPSocket socket;
+    private byte[] payload;
+    private final BlockingQueue<Boolean> replies = new ArrayBlockingQueue<>(1);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new LoopbackServer(true);
+        payload = Payloads.create(payloadSize);
+        if ("nio".equals(mode)) {
+            engine = new NioSelectorEngine(1);
+            socket = new TCPSocket(null, engine);
+        } else {
+            socket = new TCPSocket(null);
+        }
+        socket.setFrameCodec(Payloads.codec("length"));
+        socket.addOnBinaryMessageReceiveListener(new OnBinaryMessageReceiveListener() {
+            @Override
+            public void onBinaryMessageReceived(ByteBuffer frame) {
+                replies.offer(Boolean.TRUE);
+            }
+        });
+        for (int i = 1; i < listenerCount; i++) {
+            socket.addOnBinaryMessageReceiveListener(new OnBinaryMessageReceiveListener() {
+                @Override
+                public void onBinaryMessageReceived(ByteBuffer frame) {
+                    frame.remaining();
+                }
+            });
+        }
+        TcpConnector.connect(socket, server);
+        socket.stopHeartbeatTimer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        socket.stopTcpConnection();
+        if (engine != null) {
+            engine.shutdown();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public Boolean roundTrip() throws InterruptedException {
+        socket.sendBinaryMessage(payload);
+        return replies.poll(REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,74 @@
+package melo.com.androidsocket.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.socket.tcp.NioSelectorEngine;
+import melo.com.androidsocket.socket.tcp.TCPSocket;
+
+/**
+ * TCPSocket 发送吞吐量：消息经过分帧、写队列和聚集写到达回环上的丢弃服务端
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TcpSendBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    @Param({"line", "length"})
+    public String codec;
+
+    @Param({"blocking", "nio"})
+    public String mode;
+
+    private LoopbackServer server;
+    private NioSelectorEngine engine;
+    private TCPSocket socket;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new LoopbackServer(false);
+        payload = Payloads.create(payloadSize);
+        if ("nio".equals(mode)) {
+            engine = new NioSelectorEngine(1);
+            socket = new TCPSocket(null, engine);
+        } else {
+            socket = new TCPSocket(null);
+        }
+        socket.setFrameCodec(Payloads.codec(codec));
+        TcpConnector.connect(socket, server);
+        socket.stopHeartbeatTimer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        socket.stopTcpConnection();
+        if (engine != null) {
+            engine.shutdown();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public boolean send() {
+        boolean sent = socket.sendBinaryMessage(payload);
+        if (!sent) {
+            // NIO 模式队列满时立即失败，让出 CPU 等待 I/O 线程写出
+            Thread.yield();
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,100 @@
+package melo.com.androidsocket.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import melo.com.androidsocket.listener.OnMessageReceiveListener;
+import melo.com.androidsocket.listener.OnPacketReceiveListener;
+import melo.com.androidsocket.socket.udp.UDPSocket;
+import melo.com.androidsocket.socket.udp.UdpPacket;
+
+/**
+ * UDPSocket 接收路径：从回环发送一个数据报到监听器收到为止的延迟。
+ * <p>
+ * text 为 true 时注册文本监听，会触发字符串解码，可与纯二进制路径对比分配速率。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UdpReceiveBenchmark {
+
+    private static final long RECEIVE_TIMEOUT_MILLIS = 100;
+
+    @Param({"64", "512"})
+    public int payloadSize;
+
+    @Param({"1", "4", "16"})
+    public int listenerCount;
+
+    @Param({"false", "true"})
+    public boolean text;
+
+    private UDPSocket udpSocket;
+    private DatagramSocket sender;
+    private DatagramPacket packet;
+    private final BlockingQueue<Boolean> received = new ArrayBlockingQueue<>(1);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        udpSocket = new UDPSocket(null);
+        udpSocket.addOnPacketReceiveListener(new OnPacketReceiveListener() {
+            @Override
+            public void onPacketReceived(UdpPacket packet) {
+                // 过滤掉 UDPSocket 自己发出的心跳广播
+                if (packet.getLength() == payloadSize) {
+                    received.offer(Boolean.TRUE);
+                }
+            }
+        });
+        for (int i = 1; i < listenerCount; i++) {
+            if (text) {
+                udpSocket.addOnMessageReceiveListener(new OnMessageReceiveListener() {
+                    @Override
+                    public void onMessageReceived(String message) {
+                        message.length();
+                    }
+                });
+            } else {
+                udpSocket.addOnPacketReceiveListener(new OnPacketReceiveListener() {
+                    @Override
+                    public void onPacketReceived(UdpPacket packet) {
+                        packet.getLength();
+                    }
+                });
+            }
+        }
+        udpSocket.startUDPSocket();
+        udpSocket.stopHeartbeatTimer();
+
+        sender = new DatagramSocket();
+        byte[] payload = Payloads.create(payloadSize);
+        packet = new DatagramPacket(payload, payload.length, InetAddress.getByName("127.0.0.1"), UDPSocket.CLIENT_PORT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sender.close();
+        udpSocket.stopUDPSocket();
+    }
+
+    @Benchmark
+    public Boolean receive() throws Exception {
+        sender.send(packet);
+        return received.poll(RECEIVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,9 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public abstract class Service extends Context {
+}
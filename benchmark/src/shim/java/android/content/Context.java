@@ -0,0 +1,26 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public abstract class Context {
+
+    public static final String TELEPHONY_SERVICE = "phone";
+    public static final String WIFI_SERVICE = "wifi";
+    public static final String POWER_SERVICE = "power";
+
+    public abstract Object getSystemService(String name);
+
+    public abstract Context getApplicationContext();
+
+    public abstract ContentResolver getContentResolver();
+
+    public abstract PackageManager getPackageManager();
+
+    public abstract String getPackageName();
+
+    public abstract Resources getResources();
+}
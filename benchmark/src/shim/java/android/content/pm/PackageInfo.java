@@ -0,0 +1,10 @@
+package android.content.pm;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public class PackageInfo {
+    public String packageName;
+    public String versionName;
+    public int versionCode;
+}
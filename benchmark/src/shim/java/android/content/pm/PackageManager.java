@@ -0,0 +1,17 @@
+package android.content.pm;
+
+import java.util.List;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public abstract class PackageManager {
+
+    public static class NameNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public abstract PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException;
+
+    public abstract List<PackageInfo> getInstalledPackages(int flags);
+}
@@ -0,0 +1,12 @@
+package android.content.res;
+
+import android.util.DisplayMetrics;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public class Resources {
+    public DisplayMetrics getDisplayMetrics() {
+        return new DisplayMetrics();
+    }
+}
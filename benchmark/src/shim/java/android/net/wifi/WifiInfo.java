@@ -0,0 +1,18 @@
+package android.net.wifi;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public class WifiInfo {
+    public int getIpAddress() {
+        return 0;
+    }
+
+    public String getMacAddress() {
+        return null;
+    }
+
+    public String getBSSID() {
+        return null;
+    }
+}
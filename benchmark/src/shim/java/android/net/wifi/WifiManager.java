@@ -0,0 +1,16 @@
+package android.net.wifi;
+
+import android.net.DhcpInfo;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public class WifiManager {
+    public WifiInfo getConnectionInfo() {
+        return new WifiInfo();
+    }
+
+    public DhcpInfo getDhcpInfo() {
+        return new DhcpInfo();
+    }
+}
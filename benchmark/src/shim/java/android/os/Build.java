@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public class Build {
+    public static final String MANUFACTURER = "jvm";
+    public static final String MODEL = "jvm";
+
+    public static class VERSION {
+        public static final String RELEASE = System.getProperty("java.version");
+    }
+}
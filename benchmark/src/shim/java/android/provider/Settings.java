@@ -0,0 +1,29 @@
+package android.provider;
+
+import android.content.ContentResolver;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public class Settings {
+
+    public static class SettingNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class Secure {
+        public static final String ANDROID_ID = "android_id";
+
+        public static String getString(ContentResolver resolver, String name) {
+            return null;
+        }
+    }
+
+    public static class System {
+        public static final String SCREEN_OFF_TIMEOUT = "screen_off_timeout";
+
+        public static int getInt(ContentResolver resolver, String name) throws SettingNotFoundException {
+            throw new SettingNotFoundException();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package android.telephony;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public class TelephonyManager {
+    public String getDeviceId() {
+        return null;
+    }
+
+    public String getSimSerialNumber() {
+        return null;
+    }
+
+    public String getSubscriberId() {
+        return null;
+    }
+}
@@ -0,0 +1,9 @@
+package android.util;
+
+/**
+ * JVM 下的替身实现，仅用于在纯 JVM 上编译和运行 AppSocket 的基准测试
+ */
+public class DisplayMetrics {
+    public int widthPixels;
+    public int heightPixels;
+}